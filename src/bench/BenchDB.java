@@ -0,0 +1,76 @@
+// Package name
+package bench;
+
+// Imported classes
+import global.SystemDefs;
+
+import java.io.File;
+
+/**
+ * Class: BenchDB
+ * Description: Creates the database the benchmarks read and write through
+ * SystemDefs.JavabaseDB. The file is put on a tmpfs, /dev/shm when there is
+ * one, so the benchmarks measure the buffer and disk managers and not the
+ * disk. The bench.dir system property gives another directory, for instance
+ * a real disk to see what the I/O costs.
+ */
+final class BenchDB {
+
+    /**
+     * Frames of SystemDefs.JavabaseBM, enough for the space map of a database
+     * of a million pages, so the disk manager benchmarks do not measure reads.
+     */
+    private static final int NUM_FRAMES = 256;
+
+    private BenchDB() {
+    }
+
+    /**
+     * Creates a fresh database of the given number of pages and makes it
+     * SystemDefs.JavabaseDB.
+     * 
+     * @param name
+     *            the name of the benchmark, part of the file name.
+     * @param numPages
+     *            the number of pages of the database.
+     * @return the database file, for close to remove.
+     */
+    static File create(String name, int numPages) {
+
+        final File file = new File(directory(), name + "_" + System.getProperty("user.name") + ".minibase-db");
+        file.delete();
+        new SystemDefs(file.getPath(), numPages, NUM_FRAMES, "Clock");
+        if (SystemDefs.JavabaseDB == null) {
+            throw new IllegalStateException("BenchDB: could not create " + file);
+        }
+        return file;
+    }
+
+    /**
+     * Closes the database and removes its file.
+     * 
+     * @param file
+     *            the file create returned.
+     */
+    static void close(File file) throws Exception {
+
+        SystemDefs.JavabaseDB.closeDB();
+        file.delete();
+    }
+
+    /**
+     * @return the directory of the database file.
+     */
+    private static File directory() {
+
+        final String dir = System.getProperty("bench.dir");
+        if (dir != null) {
+            return new File(dir);
+        }
+        final File shm = new File("/dev/shm");
+        if (shm.isDirectory() && shm.canWrite()) {
+            return shm;
+        }
+        return new File(System.getProperty("java.io.tmpdir"));
+    }
+}
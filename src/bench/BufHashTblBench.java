@@ -0,0 +1,99 @@
+// Package name
+package bench;
+
+// Imported classes
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bufmgr.BufHashTbl;
+
+/**
+ * Class: BufHashTblBench
+ * Description: Measures BufHashTbl.lookup on a table holding one entry per
+ * frame of a pool of poolSize frames, the pages of a few extents far apart.
+ * The pages looked up are in a random order, found or not. Lookups only read
+ * the table, so the threaded variant shares it without a lock.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BufHashTblBench {
+
+    /** Pages looked up, a power of two. */
+    private static final int KEYS = 4096;
+
+    @Param({ "64", "1024", "16384" })
+    int poolSize;
+
+    private BufHashTbl table;
+
+    /** Pages in the table, in a random order. */
+    private int[] present;
+
+    /** Pages not in the table. */
+    private int[] absent;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+
+        table = new BufHashTbl(poolSize);
+        final int[] pids = new int[poolSize];
+        for (int inx = 0; inx < poolSize; inx++) {
+            pids[inx] = (inx / 64) * 4096 + (inx % 64);
+            table.insert(pids[inx], inx);
+        }
+        final Random random = new Random(42);
+        present = new int[KEYS];
+        absent = new int[KEYS];
+        for (int inx = 0; inx < KEYS; inx++) {
+            present[inx] = pids[random.nextInt(poolSize)];
+            int pid;
+            do {
+                pid = random.nextInt(Integer.MAX_VALUE);
+            } while (table.lookup(pid) >= 0);
+            absent[inx] = pid;
+        }
+    }
+
+    /**
+     * The position of a thread in the pages.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        int next;
+    }
+
+    @Benchmark
+    public int lookupFound(Cursor cursor) {
+        return table.lookup(present[cursor.next++ & (KEYS - 1)]);
+    }
+
+    @Benchmark
+    public int lookupMissing(Cursor cursor) {
+        return table.lookup(absent[cursor.next++ & (KEYS - 1)]);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public int lookupFoundThreaded(Cursor cursor) {
+        return table.lookup(present[cursor.next++ & (KEYS - 1)]);
+    }
+}
@@ -0,0 +1,83 @@
+// Package name
+package bench;
+
+// Imported classes
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bufmgr.BufMgr;
+import bufmgr.Clock;
+import bufmgr.FrameDesc;
+
+/**
+ * Class: ClockBench
+ * Description: Measures Clock.pick_victim with pinnedPercent of the frames
+ * pinned for good. Each victim is given back at once, as a frame that got a
+ * new page and was unpinned, so it is referenced and the hand has to pass it
+ * twice. The more frames are pinned, the further the hand sweeps per victim.
+ * The clock runs over the frames of an idle buffer manager, which never
+ * touches them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClockBench {
+
+    @Param({ "64", "1024" })
+    int poolSize;
+
+    @Param({ "0", "50", "90" })
+    int pinnedPercent;
+
+    private Clock clock;
+
+    private FrameDesc[] frames;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+
+        final BufMgr bm = new BufMgr(poolSize, "Clock");
+        clock = new Clock(bm);
+        frames = bm.frameTable();
+        final Random random = new Random(42);
+        int pinned = 0;
+        while (pinned < poolSize * pinnedPercent / 100) {
+            final FrameDesc frameDesc = frames[random.nextInt(poolSize)];
+            if (frameDesc.pin_count() == 0) {
+                frameDesc.pin();
+                pinned++;
+            }
+        }
+    }
+
+    @Benchmark
+    public int pickVictim() throws Exception {
+        final int victim = clock.pick_victim();
+        frames[victim].setReplacing(false);
+        clock.unpin(victim);
+        return victim;
+    }
+
+    @Benchmark
+    @Threads(4)
+    public int pickVictimThreaded() throws Exception {
+        return pickVictim();
+    }
+}
@@ -0,0 +1,117 @@
+// Package name
+package bench;
+
+// Imported classes
+import global.PageId;
+import global.SystemDefs;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import diskmgr.DB;
+
+/**
+ * Class: DBBench
+ * Description: Measures an allocate_page and deallocate_page pair of a run
+ * of runSize pages in a database of numPages pages. The database is filled
+ * up but for its last pages, then fragmentation percent of the used pages
+ * are freed one by one, spread evenly, so they leave holes of one page. A
+ * run of one page takes the first hole, a longer run has to be searched for
+ * past all of them, through the whole space map. The policy is first fit or
+ * the buddy free lists of DB.setAllocPolicy.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DBBench {
+
+    /** Pages left free at the end, for the runs and the threads. */
+    private static final int FREE_PAGES = 256;
+
+    @Param({ "16384", "131072", "1048576" })
+    int numPages;
+
+    @Param({ "0", "25", "50" })
+    int fragmentation;
+
+    @Param({ "1", "8" })
+    int runSize;
+
+    @Param({ "firstfit", "buddy" })
+    String policy;
+
+    private File file;
+
+    private DB db;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+
+        // The database is opened by BenchDB, so the policy is given as the
+        // property it starts with.
+        System.setProperty("diskmgr.alloc", policy);
+        file = BenchDB.create("dbbench", numPages);
+        db = SystemDefs.JavabaseDB;
+
+        // Take what the database did not use for itself, but the end.
+        final PageId first = new PageId();
+        db.allocate_page(first);
+        final int used = numPages - FREE_PAGES - first.pid;
+        db.deallocate_page(first);
+        db.allocate_page(first, used);
+
+        if (fragmentation > 0) {
+            final int holes = used * fragmentation / 100;
+            final PageId hole = new PageId();
+            for (int inx = 0; inx < holes; inx++) {
+                hole.pid = first.pid + (int) ((long) inx * used / holes);
+                db.deallocate_page(hole);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        BenchDB.close(file);
+    }
+
+    /**
+     * The run of a thread.
+     */
+    @State(Scope.Thread)
+    public static class Run {
+
+        final PageId pid = new PageId();
+    }
+
+    @Benchmark
+    public int allocate(Run run) throws Exception {
+        db.allocate_page(run.pid, runSize);
+        db.deallocate_page(run.pid, runSize);
+        return run.pid.pid;
+    }
+
+    @Benchmark
+    @Threads(4)
+    public int allocateThreaded(Run run) throws Exception {
+        return allocate(run);
+    }
+}
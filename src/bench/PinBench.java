@@ -0,0 +1,177 @@
+// Package name
+package bench;
+
+// Imported classes
+import global.PageId;
+import global.SystemDefs;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bufmgr.BufMgr;
+import diskmgr.Page;
+
+/**
+ * Class: PinBench
+ * Description: Measures a pinPage and unpinPage pair of BufMgr. The hit
+ * benchmarks pin pages that stay in the pool. The miss benchmarks scan four
+ * times more pages than the pool holds, so every pin picks a victim, evicts
+ * its page and reads the new one. The threaded variants run the same loop in
+ * four threads on one buffer manager, each thread on its own share of the
+ * pages. The handle variants pin through pin and unpin instead, which take a
+ * page number and a frame handle; run them with -prof gc to see that a hit
+ * allocates nothing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PinBench {
+
+    /** Threads of the threaded variants. */
+    private static final int THREADS = 4;
+
+    @Param({ "64", "1024" })
+    int poolSize;
+
+    @Param({ "Clock", "LRUK", "2Q", "ARC", "ClockPro", "TinyLFU" })
+    String replacer;
+
+    private File file;
+
+    private BufMgr bm;
+
+    private int firstPid;
+
+    private int numPages;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+
+        numPages = 4 * poolSize;
+        file = BenchDB.create("pinbench", numPages + 64);
+        final PageId pid = new PageId();
+        SystemDefs.JavabaseDB.allocate_page(pid, numPages);
+        firstPid = pid.pid;
+
+        bm = new BufMgr(poolSize, replacer);
+        bm.setReadAhead(0);
+        final Page page = new Page();
+        for (int inx = 0; inx < numPages; inx++) {
+            pid.pid = firstPid + inx;
+            bm.pinPage(pid, page, /* emptyPage: */true);
+            bm.unpinPage(pid, /* dirty: */true);
+        }
+        bm.flushAllPages();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+
+        bm.stopPageCleaner();
+        BenchDB.close(file);
+    }
+
+    /**
+     * The position of a thread in its pages.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        private static final AtomicInteger threads = new AtomicInteger();
+
+        final PageId pid = new PageId();
+
+        final Page page = new Page();
+
+        int next;
+
+        /** The share of the pages of the thread, in the threaded variants. */
+        int thread;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            thread = threads.getAndIncrement() % THREADS;
+        }
+    }
+
+    /**
+     * Pins and unpins the next page of a range of count pages starting at
+     * offset from the first page.
+     */
+    private void pinNext(Cursor cursor, int offset, int count) throws Exception {
+
+        cursor.pid.pid = firstPid + offset + cursor.next;
+        if (++cursor.next == count) {
+            cursor.next = 0;
+        }
+        bm.pinPage(cursor.pid, cursor.page, /* emptyPage: */false);
+        bm.unpinPage(cursor.pid, /* dirty: */false);
+    }
+
+    /**
+     * The same as pinNext through a frame handle.
+     */
+    private void pinNextHandle(Cursor cursor, int offset, int count) throws Exception {
+
+        final int pid = firstPid + offset + cursor.next;
+        if (++cursor.next == count) {
+            cursor.next = 0;
+        }
+        final long handle = bm.pin(pid, /* emptyPage: */false);
+        bm.attachPage(handle, cursor.page);
+        bm.unpin(handle, /* dirty: */false);
+    }
+
+    @Benchmark
+    public void hit(Cursor cursor) throws Exception {
+        pinNext(cursor, 0, poolSize / 2);
+    }
+
+    @Benchmark
+    public void miss(Cursor cursor) throws Exception {
+        pinNext(cursor, 0, numPages);
+    }
+
+    @Benchmark
+    public void hitHandle(Cursor cursor) throws Exception {
+        pinNextHandle(cursor, 0, poolSize / 2);
+    }
+
+    @Benchmark
+    public void missHandle(Cursor cursor) throws Exception {
+        pinNextHandle(cursor, 0, numPages);
+    }
+
+    @Benchmark
+    @Threads(THREADS)
+    public void hitThreaded(Cursor cursor) throws Exception {
+        final int share = poolSize / 2 / THREADS;
+        pinNext(cursor, cursor.thread * share, share);
+    }
+
+    @Benchmark
+    @Threads(THREADS)
+    public void missThreaded(Cursor cursor) throws Exception {
+        final int share = numPages / THREADS;
+        pinNext(cursor, cursor.thread * share, share);
+    }
+}
@@ -0,0 +1,344 @@
+/* ------------------------------------------------------------------------
+ * @source  : ARC.java
+ * @desc    : ARC class
+ * ------------------------------------------------------------------------
+ *
+ * ------------------------------------------------------------------------
+ * VER  DATE         AUTHOR                           DESCRIPTION
+ * ---  -----------  -------------------------------  ---------------------
+ * 1.0  03.04. 2009  Wolff Jeffrey, KwangSoo Yang     Initialization
+ *
+ * ------------------------------------------------------------------------ */
+
+package bufmgr;
+
+import global.PageId;
+
+/**
+ * An ARC (Adaptive Replacement Cache) algorithm for buffer pool replacement
+ * policy. Frames holding pages referenced once since they were read in are
+ * kept in T1, frames holding pages referenced again in T2, both in LRU order.
+ * The page numbers of pages replaced from T1 and T2 are remembered in the
+ * ghost lists B1 and B2. A miss on a page in B1 means T1 was too small and a
+ * miss on a page in B2 means T2 was too small, and the target size p of T1 is
+ * moved accordingly, so the split between recency and frequency tunes itself
+ * to the workload.
+ */
+public class ARC extends Replacer {
+
+    private int numberOfBuffer;
+
+    /** Target size of T1. */
+    private int p;
+
+    /** Frames not holding any page. */
+    private final FrameList freeList;
+
+    /** Frames holding pages referenced once, in LRU order. */
+    private final FrameList t1;
+
+    /** Frames holding pages referenced at least twice, in LRU order. */
+    private final FrameList t2;
+
+    /** Page numbers of pages recently replaced from T1. */
+    private final GhostList b1;
+
+    /** Page numbers of pages recently replaced from T2. */
+    private final GhostList b2;
+
+    private FrameDesc[] frameDescArray;
+
+    /**
+     * Creates an ARC object.
+     *
+     * @param javamgr
+     */
+    public ARC(BufMgr javamgr) {
+        numberOfBuffer = javamgr.getNumBuffers();
+        frameDescArray = javamgr.frameTable();
+        p = 0;
+        freeList = new FrameList(numberOfBuffer);
+        t1 = new FrameList(numberOfBuffer);
+        t2 = new FrameList(numberOfBuffer);
+        b1 = new GhostList(numberOfBuffer);
+        b2 = new GhostList(numberOfBuffer);
+
+        for (int inx = 0; inx < numberOfBuffer; inx++) {
+            freeList.addLast(inx);
+        }
+    }
+
+    /**
+     * Picks up the victim frame to be replaced according to the ARC algorithm
+     * when the new page is not known.
+     *
+     * @return the victim frame number.
+     * @throws BufferPoolExceededException
+     *             if every frame is pinned.
+     */
+
+    public synchronized int pick_victim() throws BufferPoolExceededException, PagePinnedException {
+        return pick_victim(null);
+    }
+
+    /**
+     * Chooses the victim frame for the given page according to the ARC
+     * algorithm: a free frame, else the least recently used unpinned page of
+     * T1 if T1 is over its target size, of T2 otherwise. The target size is
+     * the one the page would set if it is in a ghost list. The other list is
+     * used if every frame of the chosen one is pinned.
+     *
+     * @param pageId
+     *            the page which will be read into the victim frame.
+     * @return the victim frame number.
+     * @throws BufferPoolExceededException
+     *             if every frame is pinned.
+     */
+    synchronized int peek_victim(PageId pageId) throws BufferPoolExceededException {
+
+        final int pid = (pageId != null) ? pageId.pid : INVALID_PAGE;
+        final boolean inB1 = b1.contains(pid);
+        final boolean inB2 = !inB1 && b2.contains(pid);
+        final int target = adaptedP(inB1, inB2);
+
+        int victim = firstUnpinned(freeList);
+        if (victim >= 0) {
+            return victim;
+        }
+
+        final boolean fromT1 = t1.size() > 0 && ((inB2 && t1.size() == target) || t1.size() > target);
+        if (fromT1) {
+            victim = lastUnpinned(t1);
+        }
+        if (victim < 0) {
+            victim = lastUnpinned(t2);
+        }
+        if (victim < 0) {
+            victim = lastUnpinned(t1);
+        }
+        if (victim < 0) {
+            throw new BufferPoolExceededException(null, "ARC.pick_victim(): BufferPoolExceededException");
+        }
+        return victim;
+    }
+
+    /**
+     * Claims the frame for the given page, adapts the target size of T1 if
+     * the page is in a ghost list, remembers the page replaced in B1 or B2,
+     * and links the frame in T1 or T2.
+     *
+     * @param frameNumber
+     * @param pageId
+     * @return false if the frame is pinned.
+     */
+    synchronized boolean commit_victim(int frameNumber, PageId pageId) {
+
+        if (!frameDescArray[frameNumber].claim()) {
+            return false;
+        }
+
+        final int pid = (pageId != null) ? pageId.pid : INVALID_PAGE;
+        final boolean inB1 = b1.contains(pid);
+        final boolean inB2 = !inB1 && b2.contains(pid);
+        p = adaptedP(inB1, inB2);
+
+        if (!freeList.remove(frameNumber)) {
+            final int victimPid = frameDescArray[frameNumber].getPageId().pid;
+            if (t1.remove(frameNumber)) {
+                b1.addFirst(victimPid);
+            } else if (t2.remove(frameNumber)) {
+                b2.addFirst(victimPid);
+            }
+        }
+
+        if (inB1) {
+            b1.remove(pid);
+            t2.addFirst(frameNumber);
+        } else if (inB2) {
+            b2.remove(pid);
+            t2.addFirst(frameNumber);
+        } else {
+            t1.addFirst(frameNumber);
+        }
+
+        // Keep |T1| + |B1| <= c and |T1| + |T2| + |B1| + |B2| <= 2c.
+        while (t1.size() + b1.size() > numberOfBuffer && b1.size() > 0) {
+            b1.removeLast();
+        }
+        while (t1.size() + t2.size() + b1.size() + b2.size() > 2 * numberOfBuffer && b2.size() > 0) {
+            b2.removeLast();
+        }
+        return true;
+    }
+
+    /**
+     * @param inB1
+     *            true if the new page is in B1.
+     * @param inB2
+     *            true if the new page is in B2.
+     * @return the target size of T1 after a miss on the page: larger if it is
+     *         in B1, smaller if it is in B2.
+     */
+    private int adaptedP(boolean inB1, boolean inB2) {
+        if (inB1) {
+            return Math.min(numberOfBuffer, p + Math.max(b2.size() / b1.size(), 1));
+        } else if (inB2) {
+            return Math.max(0, p - Math.max(b1.size() / b2.size(), 1));
+        }
+        return p;
+    }
+
+    /**
+     * @param list
+     * @return the unpinned frame nearest to the head of the list, or -1.
+     */
+    private int firstUnpinned(FrameList list) {
+        for (int inx = list.first(); inx >= 0; inx = list.next(inx)) {
+            if (frameDescArray[inx].pin_count() == 0) {
+                return inx;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param list
+     * @return the unpinned frame nearest to the tail of the list, or -1.
+     */
+    private int lastUnpinned(FrameList list) {
+        for (int inx = list.last(); inx >= 0; inx = list.prev(inx)) {
+            if (frameDescArray[inx].pin_count() == 0) {
+                return inx;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the name of the ARC algorithm as a string.
+     *
+     * @return "ARC", the name of the algorithm.
+     */
+
+    public final String name() {
+        return "ARC";
+    }
+
+    /**
+     * @param pid
+     * @return true if the page number is in B1 or B2.
+     */
+    synchronized boolean isGhost(int pid) {
+        return b1.contains(pid) || b2.contains(pid);
+    }
+
+    /**
+     * Returns the current target size of T1. It grows when pages replaced from
+     * T1 are pinned again and shrinks when pages replaced from T2 are.
+     *
+     * @return p, between 0 and the number of buffers.
+     */
+    public int getP() {
+        return p;
+    }
+
+    /**
+     * check frame number bound. if the bound is more than the number of buffer
+     * or less than 0, throw exception.
+     *
+     * @param frameNumber
+     * @throws InvalidFrameNumberException
+     */
+    public void checkFrameNumberBound(int frameNumber) throws InvalidFrameNumberException {
+        if (frameNumber < 0 || frameNumber >= numberOfBuffer) {
+            throw new InvalidFrameNumberException(null, "ARC.checkFrameNumberRange: InvalidFrameNumberException");
+        }
+    }
+
+    /**
+     * pin frame. The page becomes the most recently used one of T2.
+     *
+     * @param frameNumber
+     */
+    public synchronized void pin(int frameNumber) throws InvalidFrameNumberException {
+        checkFrameNumberBound(frameNumber);
+        frameDescArray[frameNumber].pin();
+        if (t1.remove(frameNumber) || t2.remove(frameNumber)) {
+            t2.addFirst(frameNumber);
+        }
+    }
+
+    /**
+     * unpin frame
+     *
+     * @param frameNumber
+     */
+
+    public synchronized boolean unpin(int frameNumber) throws PageUnpinnedException, InvalidFrameNumberException {
+        checkFrameNumberBound(frameNumber);
+        if (frameDescArray[frameNumber].pin_count() == 0) {
+            throw new PageUnpinnedException(null, "ARC.unpin(): PageUnpinnedException.");
+        }
+        frameDescArray[frameNumber].unpin();
+        return true;
+    }
+
+    /**
+     * free frame
+     *
+     * @param frameNumber
+     */
+
+    public synchronized void free(int frameNumber) throws PagePinnedException {
+        if (frameDescArray[frameNumber].pin_count() > 1) {
+            throw new PagePinnedException(null, "ARC.free(): PagePinnedException.");
+        } else {
+            frameDescArray[frameNumber].unpin();
+            t1.remove(frameNumber);
+            t2.remove(frameNumber);
+            if (!freeList.contains(frameNumber)) {
+                freeList.addLast(frameNumber);
+            }
+        }
+    }
+
+    /**
+     * Takes the new frame table. Added frames go to the free list, dropped
+     * ones leave T1 and T2, and the target size of T1 and the ghost lists
+     * are bounded by the new number of frames.
+     *
+     * @param javamgr
+     */
+    synchronized void resize(BufMgr javamgr) {
+        final int oldNumberOfBuffer = numberOfBuffer;
+        frameDescArray = javamgr.frameTable();
+        numberOfBuffer = javamgr.getNumBuffers();
+        p = Math.min(p, numberOfBuffer);
+        freeList.resize(numberOfBuffer);
+        t1.resize(numberOfBuffer);
+        t2.resize(numberOfBuffer);
+        b1.resize(numberOfBuffer);
+        b2.resize(numberOfBuffer);
+        for (int inx = oldNumberOfBuffer; inx < numberOfBuffer; inx++) {
+            freeList.addLast(inx);
+        }
+    }
+
+    /**
+     * Returns information from ARC replacement algorithm.
+     * 
+     * @return the target size of T1 and the sizes of the four lists.
+     */
+
+    public synchronized String info() {
+        return "ARC: p=" + p + " |T1|=" + t1.size() + " |T2|=" + t2.size() + " |B1|=" + b1.size() + " |B2|=" + b2.size();
+    }
+
+    /**
+     * return the number of buffers.
+     */
+    public int getNumberOfBuffer() {
+        return numberOfBuffer;
+    }
+
+}
@@ -15,82 +15,129 @@ package bufmgr;
 import global.GlobalConst;
 import global.PageId;
 
-/**
- * 
- * Class: BufHTEntry Description: This class defines a buffer frame
- * 
- * A buffer hashtable entry description class. It describes each entry for the
- * buffer hash table, the page number and frame number for that page, the
- * pointer points to the next hash table entry.
- */
-class BufHTEntry {
-    /** The next entry in this hashtable bucket. */
-    public BufHTEntry next;
-
-    /** This page number. */
-    public PageId pageNo = new PageId();
-
-    /** The frame we are stored in. */
-    public int frameNo;
-}
-
 /**
  * Class: BufHashTbl Description: This class contains the buffer hash table and
  * its methods
  * 
  * A buffer hashtable to keep track of pages in the buffer pool. It inserts,
- * retrieves and removes pages from the h ash table.
+ * retrieves and removes pages from the hash table.
+ * 
+ * The table maps a page number to a frame number with open addressing: the
+ * keys and values are kept in two int arrays whose size is a power of two, a
+ * page is looked for from the slot its mixed hash points to onwards (linear
+ * probing), and a removed entry is filled by shifting the following entries
+ * of the probe run back, so no tombstones are left behind. No object is
+ * allocated by insert, lookup or remove unless the table has to grow.
  */
 public class BufHashTbl implements GlobalConst {
 
-    /** Hash Table size, small number for debugging. */
-    private int HTSIZE;
-
     private static final int HTSIZE_DEFAULT = 20; // Default hash table size
 
     // if not specified
 
-    // if not specified
+    /** Marks an empty slot of the keys array. */
+    private static final int EMPTY = INVALID_PAGE;
+
+    /** Page numbers, EMPTY means none. */
+    private int[] keys;
+
+    /** Frame numbers, valid where the key is not EMPTY. */
+    private int[] values;
+
+    /** keys.length - 1, keys.length is a power of two. */
+    private int mask;
+
+    /** Number of entries in the table. */
+    private int size;
+
+    /** The table grows when size reaches this number. */
+    private int threshold;
 
     /**
-     * Each slot holds a linked list of BufHTEntrys, NULL means none.
+     * Returns the slot the probe for the page number starts at, value between
+     * 0 and the table length - 1. The bits of the page number are mixed first,
+     * so consecutive page numbers do not fill one run of slots.
+     * 
+     * @param pid
+     *            the page number for the page in file.
+     * @return the home slot in the hash table.
      */
-    private final BufHTEntry[] ht;
+    private int hash(int pid) {
+        return mix(pid) & mask;
+    }
 
     /**
-     * Returns the number of hash bucket used, value between 0 and HTSIZE-1
+     * Mixes the bits of a page number (the murmur3 finalizer).
      * 
-     * @param pageNo
-     *            the page number for the page in file.
-     * @return the bucket number in the hash table.
+     * @param pid
+     *            the page number.
+     * @return the hash code of the page number.
      */
-    private int hash(PageId pageNo) {
-        return pageNo.pid % HTSIZE;
+    static int mix(int pid) {
+        int h = pid;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
     }
 
     /**
      * Constructor for BufHashTbl() Creates a buffer hash table object.
      */
     public BufHashTbl() {
-        HTSIZE = HTSIZE_DEFAULT;
-        ht = new BufHTEntry[HTSIZE_DEFAULT];
+        this(HTSIZE_DEFAULT);
     }
 
     /**
      * Constructor for BufHashTbl() Creates a buffer hash table object
      * 
      * @param htsizeIn
-     *            Size of the hash table
+     *            number of entries the table is expected to hold, normally the
+     *            number of buffers. The table has twice as many slots, rounded
+     *            up to a power of two, and grows if more entries are inserted.
      * 
      */
     public BufHashTbl(int htsizeIn) {
-        if (htsizeIn > GlobalConst.MINIBASE_MAXARRSIZE) {
-            System.err.println("BufHashTbl(" + htsizeIn + ") too large, reducing to" + GlobalConst.MINIBASE_MAXARRSIZE + ".");
-            HTSIZE = GlobalConst.MINIBASE_MAXARRSIZE;
-            ht = new BufHTEntry[GlobalConst.MINIBASE_MAXARRSIZE];
-        } else {
-            HTSIZE = htsizeIn;
-            ht = new BufHTEntry[htsizeIn];
+        allocate(tableSizeFor(Math.max(htsizeIn, 1) * 2));
+    }
+
+    /**
+     * @param n
+     * @return the smallest power of two not less than n, and at least 16.
+     */
+    private static int tableSizeFor(int n) {
+        final int capacity = Integer.highestOneBit(Math.max(n - 1, 8)) << 1;
+        return (capacity > 0) ? capacity : 1 << 30;
+    }
+
+    /**
+     * Allocates empty arrays of the given length.
+     * 
+     * @param capacity
+     *            a power of two.
+     */
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new int[capacity];
+        java.util.Arrays.fill(keys, EMPTY);
+        mask = capacity - 1;
+        threshold = capacity / 4 * 3;
+        size = 0;
+    }
+
+    /**
+     * Doubles the table and inserts every entry again.
+     */
+    private void grow() {
+        final int[] oldKeys = keys;
+        final int[] oldValues = values;
+        allocate(oldKeys.length * 2);
+        for (int inx = 0; inx < oldKeys.length; inx++) {
+            if (oldKeys[inx] != EMPTY) {
+                put(oldKeys[inx], oldValues[inx]);
+            }
         }
     }
 
@@ -105,23 +152,53 @@ public class BufHashTbl implements GlobalConst {
      * @return true if successful.
      */
     public boolean insert(PageId pageNo, int frameNo) {
-        NeoLog.getLog().println("--------------------------------------------------");
-        NeoLog.getLog().println("[INSERT] page Number : " + pageNo);
-        NeoLog.getLog().println("--------------------------------------------------");
-        final int bucketNumber = hash(pageNo);
-        final BufHTEntry oldBufHTEntry = ht[bucketNumber];
-
-        BufHTEntry neoBufHTEntry = new BufHTEntry();
-        neoBufHTEntry.pageNo.pid = pageNo.pid;
-        neoBufHTEntry.frameNo = frameNo;
-        neoBufHTEntry.next = oldBufHTEntry;
-        ht[bucketNumber] = neoBufHTEntry;
-
-        NeoLog.getLog().println(getBufHTEntryDump());
+        if (NeoLog.TRACE_ENABLED) {
+            NeoLog.getLog().trace(NeoLog.INSERT, pageNo.pid, frameNo);
+        }
+        return insert(pageNo.pid, frameNo);
+    }
 
+    /**
+     * Insert association between page number pid and frame frameNo into the
+     * hash table. An association already kept for pid is replaced.
+     * 
+     * @param pid
+     *            page number.
+     * @param frameNo
+     *            frame number.
+     * @return true if successful.
+     */
+    public boolean insert(int pid, int frameNo) {
+        if (pid == EMPTY) {
+            return true;
+        }
+        if (size >= threshold) {
+            grow();
+        }
+        put(pid, frameNo);
         return true;
     }
 
+    /**
+     * Store the association, the table must have a free slot.
+     * 
+     * @param pid
+     * @param frameNo
+     */
+    private void put(int pid, int frameNo) {
+        int slot = hash(pid);
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == pid) {
+                values[slot] = frameNo;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = pid;
+        values[slot] = frameNo;
+        size++;
+    }
+
     /**
      * Find a page in the hashtable, return INVALID_PAGE on failure, otherwise
      * the frame number.
@@ -131,30 +208,30 @@ public class BufHashTbl implements GlobalConst {
      */
 
     public int lookup(PageId pageNo) {
+        final int frameNo = lookup(pageNo.pid);
+        if (NeoLog.TRACE_ENABLED) {
+            NeoLog.getLog().trace(NeoLog.LOOKUP, pageNo.pid, frameNo);
+        }
+        return frameNo;
+    }
 
-        NeoLog.getLog().println("--------------------------------------------------");
-        NeoLog.getLog().println("[LOOK UP] page Number : " + pageNo);
-        NeoLog.getLog().println("--------------------------------------------------");
-        NeoLog.getLog().println(getBufHTEntryDump());
-
-        if (pageNo.pid == INVALID_PAGE) {
-            NeoLog.getLog().println("Find: Nothing : INVALID_PAGE");
-            NeoLog.getLog().println("--------------------------------------------------");
+    /**
+     * Find a page number in the hashtable.
+     * 
+     * @param pid
+     *            page number.
+     * @return the frame number, or INVALID_PAGE if the page is not in the
+     *         table.
+     */
+    public int lookup(int pid) {
+        if (pid == EMPTY) {
             return INVALID_PAGE;
         }
-        final int bucketNumber = hash(pageNo);
-        BufHTEntry bufHTEntry = ht[bucketNumber];
-
-        while (bufHTEntry != null) {
-            if (bufHTEntry.pageNo.pid == pageNo.pid) {
-                NeoLog.getLog().println("Find: Frame Number : " + bufHTEntry.frameNo);
-                NeoLog.getLog().println("--------------------------------------------------");
-                return bufHTEntry.frameNo;
+        for (int slot = hash(pid); keys[slot] != EMPTY; slot = (slot + 1) & mask) {
+            if (keys[slot] == pid) {
+                return values[slot];
             }
-            bufHTEntry = bufHTEntry.next;
         }
-        NeoLog.getLog().println("Find: Nothing : INVALID_PAGE");
-        NeoLog.getLog().println("--------------------------------------------------");
         return INVALID_PAGE;
     }
 
@@ -166,42 +243,45 @@ public class BufHashTbl implements GlobalConst {
      */
 
     public boolean remove(PageId pageNo) {
+        if (NeoLog.TRACE_ENABLED) {
+            NeoLog.getLog().trace(NeoLog.REMOVE, pageNo.pid, lookup(pageNo.pid));
+        }
+        return remove(pageNo.pid);
+    }
 
-        NeoLog.getLog().println("--------------------------------------------------");
-        NeoLog.getLog().println("[REMOVE] page Number : " + pageNo);
-        NeoLog.getLog().println("--------------------------------------------------");
-
-        if (pageNo.pid == INVALID_PAGE) {
-            NeoLog.getLog().println(getBufHTEntryDump());
-            NeoLog.getLog().println("Reomve: Nothing");
-            NeoLog.getLog().println("--------------------------------------------------");
+    /**
+     * Remove the page number from the hashtable. The entries that follow it in
+     * its probe run are shifted back into the hole, unless that would move
+     * one in front of its home slot.
+     * 
+     * @param pid
+     *            page number.
+     * @return true if the page number was removed or is INVALID_PAGE, false
+     *         if it was not in the table.
+     */
+    public boolean remove(int pid) {
+        if (pid == EMPTY) {
             return true;
         }
+        int hole = hash(pid);
+        while (keys[hole] != pid) {
+            if (keys[hole] == EMPTY) {
+                return false;
+            }
+            hole = (hole + 1) & mask;
+        }
 
-        final int bucketNumber = hash(pageNo);
-
-        BufHTEntry bufHTEntry = ht[bucketNumber];
-        BufHTEntry beforeBufHTEntry = null;
-
-        while (bufHTEntry != null) {
-            if (bufHTEntry.pageNo.pid == pageNo.pid) {
-                if (beforeBufHTEntry != null) {
-                    beforeBufHTEntry.next = bufHTEntry.next;
-                } else {
-                    ht[bucketNumber] = bufHTEntry.next;
-                }
-                NeoLog.getLog().println(getBufHTEntryDump());
-                NeoLog.getLog().println("Remove:\tFrame number: " + bufHTEntry.frameNo + " \t" + "Page Number: " + bufHTEntry.pageNo.pid + "\n");
-                NeoLog.getLog().println("--------------------------------------------------");
-                return true;
+        for (int slot = (hole + 1) & mask; keys[slot] != EMPTY; slot = (slot + 1) & mask) {
+            final int home = hash(keys[slot]);
+            if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+                keys[hole] = keys[slot];
+                values[hole] = values[slot];
+                hole = slot;
             }
-            beforeBufHTEntry = bufHTEntry;
-            bufHTEntry = bufHTEntry.next;
         }
-        NeoLog.getLog().println(getBufHTEntryDump());
-        NeoLog.getLog().println("Reomve: Nothing");
-        NeoLog.getLog().println("--------------------------------------------------");
-        return false;
+        keys[hole] = EMPTY;
+        size--;
+        return true;
     }
 
     /**
@@ -220,15 +300,9 @@ public class BufHashTbl implements GlobalConst {
     private String getBufHTEntryDump() {
         StringBuffer strbuf = new StringBuffer();
         strbuf.append("***************** BufHTEntry Dump*****************\n");
-        final int size = ht.length;
-        for (int inx = 0; inx < size; inx++) {
-            BufHTEntry bufHTEntry = ht[inx];
-            // strbuf.append("******************************************************************\n");
-            strbuf.append("BufHTEntry[" + inx + "]\n");
-            // strbuf.append("******************************************************************\n");
-            while (bufHTEntry != null) {
-                strbuf.append("\tFrame number: " + bufHTEntry.frameNo + " \t" + "Page Number: " + bufHTEntry.pageNo.pid + "\n");
-                bufHTEntry = bufHTEntry.next;
+        for (int inx = 0; inx < keys.length; inx++) {
+            if (keys[inx] != EMPTY) {
+                strbuf.append("BufHTEntry[" + inx + "]\tFrame number: " + values[inx] + " \t" + "Page Number: " + keys[inx] + "\n");
             }
         }
         return strbuf.toString();
@@ -237,9 +311,16 @@ public class BufHashTbl implements GlobalConst {
     /**
      * Returns the size of the hash table.
      * 
-     * @return size of hash table.
+     * @return number of slots of the hash table.
      */
     public int getHTsize() {
-        return (HTSIZE);
+        return keys.length;
     }
-}
\ No newline at end of file
+
+    /**
+     * @return the number of pages in the hash table.
+     */
+    public int size() {
+        return size;
+    }
+}
@@ -17,6 +17,18 @@ import global.PageId;
 import global.SystemDefs;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import diskmgr.DiskMgrException;
 import diskmgr.Page;
@@ -25,24 +37,192 @@ import diskmgr.Page;
  * The buffer manager class, it allocates new pages for the buffer pool, pins
  * and unpins the frame, frees the frame page, and uses the replacement
  * algorithm to replace the page.
+ * 
+ * pinPage, unpinPage, newPage, freePage and the flush methods may be called by
+ * many threads at once. A page is pinned and unpinned with the lock of its
+ * page table stripe held, and the replacer claims a victim frame through the
+ * latch of its FrameDesc. The old page of a victim is written out without any
+ * lock held and only removed from the page table afterwards, if nobody pinned
+ * it again in the meantime.
+ * 
+ * The frames are byte arrays on the heap, unless the buffer manager is created
+ * off-heap. Then they are slices of one direct buffer aligned to the page size
+ * of the operating system, which the garbage collector never traces or copies,
+ * and pinPage hands out pages that are views of their frames (see
+ * Page.getFrame).
+ * 
+ * Pages can be read ahead by background threads, explicitly with prefetch or
+ * by the read-ahead detector, which is off unless setReadAhead is called or
+ * the bufmgr.readahead system property gives a window. The detector watches
+ * the pages pinned from disk and the first pins of pages read ahead, and once
+ * a few follow each other with the same positive stride it reads the next
+ * pages of the run into victim frames, half a window at a time, so a scan
+ * finds its pages in the pool. It follows one run at a time.
+ * 
+ * A page cleaner thread can keep the share of dirty frames between a low and
+ * a high water mark, so that victims are mostly clean and a miss does not
+ * wait for a write first. It is off unless startPageCleaner is called or the
+ * bufmgr.cleaner system property gives the marks, as "low,high" in percent.
+ * Once more frames than the high mark are dirty, it writes unpinned dirty
+ * frames, the ones just ahead of the hand of the replacer first and in page
+ * order, until only the low mark are left.
+ * 
+ * The pool can be split into instances, given to the constructor or by the
+ * bufmgr.instances system property. Each instance is a buffer manager of its
+ * own, with its share of the frames, its page table stripes and its replacer,
+ * and holds the pages of the extents of 64 pages that hash to it. Threads
+ * working on pages of different instances never share a replacer lock, and
+ * the hits and misses can be read per instance.
+ * 
+ * The buffer manager counts its hits, misses, victims, evictions, write-backs,
+ * reads and writes, waits for pages being read in and the frames the replacer
+ * swept. The counters are LongAdders, so threads counting at once do not
+ * contend on them. getStats takes a snapshot of them, and registerMBean
+ * publishes them as the attributes of a BufMgrMBean.
  */
-public class BufMgr implements GlobalConst {
+public class BufMgr implements GlobalConst, BufMgrMBean {
+
+    /** Upper bound of the number of page table stripes, a stripe set is a long. */
+    private static final int MAX_STRIPES = 64;
+
+    /** Most pages written back by one gathering write. */
+    private static final int MAX_RUN = 64;
+
+    /** Number of background threads reading pages ahead. */
+    private static final int PREFETCH_THREADS = 2;
+
+    /** Runs waiting to be read ahead, more are dropped. */
+    private static final int PREFETCH_QUEUE = 64;
+
+    /** Steps of the same stride in a row that start read-ahead. */
+    private static final int READAHEAD_TRIGGER = 2;
+
+    /** How long the page cleaner sleeps between looks at the pool. */
+    private static final long CLEANER_PERIOD_NANOS = 10000000L;
+
+    /** Pages of an extent, 1 << EXTENT_SHIFT, go to the same instance. */
+    private static final int EXTENT_SHIFT = 6;
+
+    /** The version half of a handle returned by pin. */
+    private static final long HANDLE_VERSION = 0xffffffff00000000L;
+
+    /** The instances of a partitioned pool, null if it is not partitioned. */
+    private final BufMgr[] instances;
 
     /** Total number of buffer frames in the buffer pool. */
-    private final int numBuffers;
+    private volatile int numBuffers;
+
+    /** Alignment of the off-heap arena, the usual page size of the OS. */
+    private static final int ARENA_ALIGNMENT = 4096;
+
+    /*
+     * The frame tables below are replaced, never changed in place, when the
+     * pool is resized, and a frame keeps its descriptor and its bytes for as
+     * long as it is in the pool. So a table read before a resize is still
+     * right for every frame it has.
+     */
+
+    /** physical buffer pool, null if the pool is off-heap. */
+    private volatile byte[][] bufPool; // default = byte[NUMBUF][MAX_SPACE];
+
+    /** Frames of the off-heap pool, slices of direct buffers, null if the pool is on the heap. */
+    private volatile ByteBuffer[] framePool;
+
+    /**
+     * A buffer over each frame for gathering writes and scattering reads. It
+     * is only used by the thread writing the frame with the stripe of its
+     * page locked, or reading a page into it, and cleared after each use.
+     */
+    private volatile ByteBuffer[] ioBuffers;
 
-    /** physical buffer pool. */
-    private byte[][] bufPool; // default = byte[NUMBUF][MAX_SPACE];
+    /**
+     * The hash table, only allocated once. It is split into stripes by page
+     * number, and a stripe is only used with its lock held, so pinning pages of
+     * different stripes never waits.
+     */
+    private final BufHashTbl[] pageTable;
 
-    /** The hash table, only allocated once. */
-    private BufHashTbl hashTable = new BufHashTbl();
+    /** pageTable.length - 1, the number of stripes is a power of two. */
+    private final int stripeMask;
 
     /** An array of Descriptors one per frame. */
-    private final FrameDesc[] frmeTable; // default = new FrameDesc[NUMBUF];
+    private volatile FrameDesc[] frmeTable; // default = new FrameDesc[NUMBUF];
 
     /** The replacer object, which is only used in this class. */
     private Replacer replacer;
 
+    /** Number of pinPage calls that found the page in the buffer pool. */
+    private final LongAdder numHits = new LongAdder();
+
+    /** Number of pinPage calls that had to bring the page into a frame. */
+    private final LongAdder numMisses = new LongAdder();
+
+    /** Number of pages read in ahead of their first pin. */
+    private final LongAdder numPrefetched = new LongAdder();
+
+    /** Number of victim frames the replacer picked. */
+    private final LongAdder numVictims = new LongAdder();
+
+    /** Number of times the replacer found no victim frame. */
+    private final LongAdder numPoolExceeded = new LongAdder();
+
+    /** Number of pages taken out of their frame to make room. */
+    private final LongAdder numEvictions = new LongAdder();
+
+    /** Number of dirty victims written out before they were replaced. */
+    private final LongAdder numWriteBacks = new LongAdder();
+
+    /** Number of pins that waited for the page to be read in. */
+    private final LongAdder numPinWaits = new LongAdder();
+
+    /** Number of reads from the database, one per run of pages. */
+    private final LongAdder numReads = new LongAdder();
+
+    /** Number of bytes read from the database. */
+    private final LongAdder numReadBytes = new LongAdder();
+
+    /** Number of writes to the database, one per run of pages. */
+    private final LongAdder numWrites = new LongAdder();
+
+    /** Number of bytes written to the database. */
+    private final LongAdder numWriteBytes = new LongAdder();
+
+    /** The name this buffer manager is registered under, null if it is not. */
+    private ObjectName mbeanName;
+
+    /** Pages the detector reads ahead of a run, 0 if it is off. */
+    private volatile int readAheadWindow;
+
+    /** The threads reading pages ahead, created on first use. */
+    private volatile ThreadPoolExecutor prefetcher;
+
+    /** Lock of the read-ahead detector below. */
+    private final Object streamLock = new Object();
+
+    /** Last page of the run the detector follows. */
+    private int streamLast = INVALID_PAGE;
+
+    /** Distance between the pages of the run. */
+    private int streamStride;
+
+    /** Steps of streamStride in a row. */
+    private int streamRun;
+
+    /** Next page of the run not requested yet. */
+    private int streamNext;
+
+    /** The page cleaner thread, null if it is not running. */
+    private volatile Thread cleaner;
+
+    /** Percent of dirty frames the page cleaner cleans down to. */
+    private volatile int cleanerLowWater;
+
+    /** Percent of dirty frames above which the page cleaner starts. */
+    private volatile int cleanerHighWater;
+
+    /** Number of frames written by the page cleaner. */
+    private final LongAdder numCleaned = new LongAdder();
+
     /**
      * Factor out the common code for the two versions of Flush
      * 
@@ -75,26 +255,32 @@ public class BufMgr implements GlobalConst {
 
         int unpinnedCount = 0;
 
-        for (int inx = 0; inx < numBuffers; inx++)
+        // All dirty pages are written after the loop, sorted by page.
+        final FrameDesc[] frames = frmeTable;
+        final long[] dirtyFrames = (all_pages != 0) ? new long[frames.length] : null;
+        int numDirty = 0;
+
+        for (int inx = 0; inx < frames.length; inx++)
 
-            if ((all_pages != 0) || (frmeTable[inx].getPageId().pid == pageid.pid)) {
-                if (frmeTable[inx].pin_count() != 0) {
+            if ((all_pages != 0) || (frames[inx].getPageId().pid == pageid.pid)) {
+                // A page still being read ahead is pinned by read-ahead only.
+                if (frames[inx].pin_count() != 0 && !frames[inx].isReplacing() && !frames[inx].isPrefetched()) {
                     unpinnedCount++;
                 }
 
-                if (frmeTable[inx].isDirty()) {
-                    if (frmeTable[inx].getPageId().pid == INVALID_PAGE) {
-                        throw new PageNotFoundException(null, "BufMgr.privFlushPages(): PageNotFoundException");
+                if (all_pages != 0) {
+                    final FrameDesc frameDesc = frames[inx];
+                    synchronized (frameDesc) {
+                        if (frameDesc.isDirty()) {
+                            final int pid = frameDesc.getPageId().pid;
+                            if (pid == INVALID_PAGE) {
+                                throw new PageNotFoundException(null, "BufMgr.privFlushPages(): PageNotFoundException");
+                            }
+                            dirtyFrames[numDirty++] = ((long) pid << 32) | inx;
+                        }
                     }
-
-                    final PageId targetPageId = new PageId(frmeTable[inx].getPageId().pid);
-                    write_page(targetPageId, new Page(bufPool[inx]));
-
-                    if (!hashTable.remove(targetPageId)) {
-                        throw new HashOperationException(null, "BufMgr.privFlushPages(): HashOperationException");
-                    }
-                    frmeTable[inx].setDirty(false);
-                    frmeTable[inx].getPageId().pid = INVALID_PAGE;
+                } else if (frames[inx].isDirty()) {
+                    flushFrame(inx);
                 }
                 if (all_pages == 0) {
                     if (unpinnedCount != 0) {
@@ -103,357 +289,2311 @@ public class BufMgr implements GlobalConst {
                 }
             }
 
+        if (numDirty > 0) {
+            flushFrames(dirtyFrames, numDirty);
+        }
+
         if (all_pages != 0 && unpinnedCount != 0) {
             throw new PagePinnedException(null, "BufMgr.privFlushPages(): PagePinnedException");
         }
     }
 
     /**
-     * Create a buffer manager object.
+     * Write dirty frames to disk and remove their pages from the buffer pool.
+     * The frames are sorted by page, and each run of adjacent pages goes out
+     * in one gathering write.
      * 
-     * @param numbufs
-     *            number of buffers in the buffer pool.
-     * @param replacerArg
-     *            name of the buffer replacement policy.
+     * @param frames
+     *            page number in the high and frame number in the low half.
+     * @param count
+     *            number of frames.
      */
-
-    public BufMgr(int numbufs, String replacerArg) {
-
-        numBuffers = numbufs;
-        frmeTable = new FrameDesc[numBuffers];
-        bufPool = new byte[numBuffers][MAX_SPACE];
-
-        for (int inx = 0; inx < numBuffers; inx++) {
-            frmeTable[inx] = new FrameDesc();
+    private void flushFrames(long[] frames, int count) throws HashOperationException, BufMgrException {
+
+        // Page numbers are not negative, so this sorts by page.
+        Arrays.sort(frames, 0, count);
+
+        final ByteBuffer[] run = new ByteBuffer[MAX_RUN];
+        final PageId pageId = new PageId();
+        int start = 0;
+        while (start < count) {
+            long stripes = 1L << stripeIndex((int) (frames[start] >>> 32));
+            int end = start + 1;
+            while (end < count && end - start < MAX_RUN && (frames[end] >>> 32) == (frames[end - 1] >>> 32) + 1) {
+                stripes |= 1L << stripeIndex((int) (frames[end] >>> 32));
+                end++;
+            }
+            flushRun(stripes, frames, start, end, run, pageId);
+            start = end;
         }
-        replacer = new Clock(this);
-
-    }
-
-    // Debug use only
-    private void bmhashdisplay() {
-        // nothing
     }
 
     /**
-     * Check if this page is in buffer pool, otherwise find a frame for this
-     * page, read in and pin it. Also write out the old page if it's dirty
-     * before reading if emptyPage==TRUE, then actually no read is done to bring
-     * the page in.
-     * 
-     * @param pin_pgid
-     *            page number in the minibase.
-     * @param page
-     *            the pointer poit to the page.
-     * @param emptyPage
-     *            true (empty page); false (non-empty page)
+     * Locks the stripes of a run of adjacent pages one after the other, in
+     * the order of their numbers so two flushes can not deadlock, and writes
+     * the run. Nobody else holds two stripes at once.
      * 
-     * @exception ReplacerException
-     *                if there is a replacer error.
-     * @exception HashOperationException
-     *                if there is a hashtable error.
-     * @exception PageUnpinnedException
-     *                if there is a page that is already unpinned.
-     * @exception InvalidFrameNumberException
-     *                if there is an invalid frame number .
-     * @exception PageNotReadException
-     *                if a page cannot be read.
-     * @exception BufferPoolExceededException
-     *                if the buffer pool is full.
-     * @exception PagePinnedException
-     *                if a page is left pinned .
-     * @exception BufMgrException
-     *                other error occured in bufmgr layer
-     * @exception IOException
-     *                if there is other kinds of I/O error.
+     * @param stripes
+     *            bit set of the stripes still to lock.
      */
+    private void flushRun(long stripes, long[] frames, int from, int to, ByteBuffer[] run, PageId pageId) throws HashOperationException, BufMgrException {
 
-    public void pinPage(PageId pin_pgid, Page page, boolean emptyPage) throws ReplacerException, HashOperationException, PageUnpinnedException, InvalidFrameNumberException, PageNotReadException, BufferPoolExceededException, PagePinnedException, BufMgrException, IOException {
-
-        PageId writablePageId = new PageId(INVALID_PAGE);
-        boolean isWritable = false;
-
-        int frameNumber = hashTable.lookup(pin_pgid);
-        if (frameNumber < 0) {
-            frameNumber = replacer.pick_victim();
-            if (frameNumber < 0) {
-                throw new ReplacerException(null, "BufMgr.pinPage(): ReplacerException");
+        if (stripes != 0) {
+            synchronized (pageTable[Long.numberOfTrailingZeros(stripes)]) {
+                flushRun(stripes & (stripes - 1), frames, from, to, run, pageId);
             }
+            return;
+        }
 
-            if ((frmeTable[frameNumber].getPageId().pid != INVALID_PAGE) && (frmeTable[frameNumber].isDirty() == true)) {
-                isWritable = true;
-                writablePageId.pid = frmeTable[frameNumber].getPageId().pid;
+        // With the stripes locked the pages can not be pinned, changed or
+        // read into other frames, just as in flushFrame. Frames that changed
+        // since they were picked are left alone and split the run.
+        int length = 0;
+        for (int inx = from; inx <= to; inx++) {
+            if (inx < to) {
+                final int frameNumber = (int) frames[inx];
+                final FrameDesc frameDesc = frameDesc(frameNumber);
+                if (frameDesc != null && !frameDesc.isReplacing() && frameDesc.isDirty() && frameDesc.getPageId().pid == (int) (frames[inx] >>> 32)) {
+                    run[length++] = ioBuffers[frameNumber];
+                    continue;
+                }
             }
-
-            if (!hashTable.remove(frmeTable[frameNumber].getPageId())) {
-                throw new HashOperationException(null, "BufMgr.pinPage(): HashOperationException");
+            if (length > 0) {
+                pageId.pid = (int) (frames[inx - length] >>> 32);
+                try {
+                    write_pages(pageId, run, length);
+                } finally {
+                    for (int page = 0; page < length; page++) {
+                        run[page].clear();
+                    }
+                }
+                for (int page = inx - length; page < inx; page++) {
+                    removeFlushed((int) frames[page], (int) (frames[page] >>> 32), pageId);
+                }
+                length = 0;
             }
+        }
+    }
 
-            frmeTable[frameNumber].getPageId().pid = pin_pgid.pid;
-            frmeTable[frameNumber].setDirty(false);
+    /**
+     * Remove a page just written from the page table and its frame, with its
+     * stripe locked.
+     */
+    private void removeFlushed(int frameNumber, int pid, PageId pageId) throws HashOperationException {
 
-            if (!hashTable.insert(pin_pgid, frameNumber)) {
-                throw new HashOperationException(null, "BufMgr.pinPage(): HashOperationException");
-            }
+        final FrameDesc frameDesc = frmeTable[frameNumber];
+        pageId.pid = pid;
+        if (!stripe(pid).remove(pageId)) {
+            throw new HashOperationException(null, "BufMgr.privFlushPages(): HashOperationException");
+        }
+        synchronized (frameDesc) {
+            frameDesc.setDirty(false);
+            frameDesc.getPageId().pid = INVALID_PAGE;
+        }
+    }
+
+    /**
+     * Write a dirty frame to disk and remove its page from the buffer pool. A
+     * frame claimed by the replacer is left alone, the replacing thread writes
+     * it out itself.
+     * 
+     * @param frameNumber
+     * @throws HashOperationException
+     *             if the page is not in the page table.
+     * @throws PageNotFoundException
+     *             if the frame is dirty but holds no page.
+     * @throws BufMgrException
+     *             if the page can not be written.
+     */
+    private void flushFrame(int frameNumber) throws HashOperationException, PageNotFoundException, BufMgrException {
 
-            Page writablePage = new Page(bufPool[frameNumber]);
-            if (isWritable == true) {
-                write_page(writablePageId, writablePage);
+        final FrameDesc frameDesc = frameDesc(frameNumber);
+        if (frameDesc == null) {
+            return;
+        }
+        final int pid;
+        synchronized (frameDesc) {
+            if (!frameDesc.isDirty()) {
+                return;
             }
+            pid = frameDesc.getPageId().pid;
+        }
+        if (pid == INVALID_PAGE) {
+            throw new PageNotFoundException(null, "BufMgr.privFlushPages(): PageNotFoundException");
+        }
 
-            if (emptyPage == false) {
-                try {
-                    writablePage.setpage(bufPool[frameNumber]);
-                    read_page(pin_pgid, writablePage);
-                } catch (Exception e) {
+        final BufHashTbl table = stripe(pid);
+        synchronized (table) {
+            if (frameDesc.isReplacing() || !frameDesc.isDirty() || frameDesc.getPageId().pid != pid) {
+                return;
+            }
 
-                    final FrameDesc frameDesc = frmeTable[frameNumber];
-                    final PageId pageId = frameDesc.getPageId();
-                    if (!hashTable.remove(pageId)) {
-                        throw new HashOperationException(e, "BufMgr.pinPage(): HashOperationException");
-                    }
-                    pageId.pid = INVALID_PAGE;
-                    frameDesc.setDirty(false);
-                    if (!replacer.unpin(frameNumber)) {
-                        throw new ReplacerException(e, "BufMgr.pinPage(): ReplacerException");
-                    }
-                    throw new PageNotReadException(e, "BufMgr.pinPage(): PageNotReadException");
-                }
+            final PageId targetPageId = new PageId(pid);
+            write_page(targetPageId, framePage(frameNumber));
 
+            if (!table.remove(targetPageId)) {
+                throw new HashOperationException(null, "BufMgr.privFlushPages(): HashOperationException");
+            }
+            synchronized (frameDesc) {
+                frameDesc.setDirty(false);
+                frameDesc.getPageId().pid = INVALID_PAGE;
             }
-            page.setpage(bufPool[frameNumber]);
-        } else {
-            page.setpage(bufPool[frameNumber]);
-            replacer.pin(frameNumber);
         }
     }
 
     /**
-     * To unpin a page specified by a pageId. If pincount>0, decrement it and if
-     * it becomes zero, put it in a group of replacement candidates. if
-     * pincount=0 before this call, return error.
+     * Create a buffer manager object.
      * 
-     * @param globalPageId_in_a_DB
-     *            page number in the minibase.
-     * @param dirty
-     *            the dirty bit of the frame
+     * @param numbufs
+     *            number of buffers in the buffer pool.
+     * @param replacerArg
+     *            name of the buffer replacement policy.
+     */
+
+    public BufMgr(int numbufs, String replacerArg) {
+        this(numbufs, replacerArg, false);
+    }
+
+    /**
+     * Create a buffer manager object, with its frames on the heap or in one
+     * off-heap arena.
      * 
-     * @exception ReplacerException
-     *                if there is a replacer error.
-     * @exception PageUnpinnedException
-     *                if there is a page that is already unpinned.
-     * @exception InvalidFrameNumberException
-     *                if there is an invalid frame number .
-     * @exception HashEntryNotFoundException
-     *                if there is no entry of page in the hash table.
+     * @param numbufs
+     *            number of buffers in the buffer pool.
+     * @param replacerArg
+     *            name of the buffer replacement policy.
+     * @param offHeap
+     *            true to keep the frames in direct memory.
      */
 
-    public void unpinPage(PageId PageId_in_a_DB, boolean dirty) throws ReplacerException, PageUnpinnedException, HashEntryNotFoundException, InvalidFrameNumberException {
+    public BufMgr(int numbufs, String replacerArg, boolean offHeap) {
+        this(numbufs, replacerArg, offHeap, Integer.getInteger("bufmgr.instances", 1));
+    }
 
-        final int frameNumber = hashTable.lookup(PageId_in_a_DB);
+    /**
+     * Create a buffer manager object partitioned into instances. Each
+     * instance is a buffer manager of its own, with its share of the frames,
+     * its page table, replacer, read-ahead and page cleaner, and holds the
+     * pages of the extents that hash to it. This one only routes the calls.
+     * 
+     * @param numbufs
+     *            number of buffers in the buffer pool.
+     * @param replacerArg
+     *            name of the buffer replacement policy.
+     * @param offHeap
+     *            true to keep the frames in direct memory.
+     * @param numInstances
+     *            number of instances, 1 for a pool that is not partitioned.
+     */
 
-        if (frameNumber == INVALID_PAGE) {
-            throw new HashEntryNotFoundException(null, "BufMgr.unpinPage(): HashEntryNotFoundException");
-        }
+    public BufMgr(int numbufs, String replacerArg, boolean offHeap, int numInstances) {
 
-        final FrameDesc frameDesc = frmeTable[frameNumber];
+        if (numInstances > 1) {
+            if (numbufs < numInstances) {
+                throw new IllegalArgumentException("BufMgr: " + numbufs + " frames for " + numInstances + " instances");
+            }
+            instances = new BufMgr[numInstances];
+            for (int inx = 0; inx < numInstances; inx++) {
+                instances[inx] = new BufMgr(share(numbufs, inx), replacerArg, offHeap, 1);
+            }
+            // The frames are all in the instances.
+            numbufs = 0;
+        } else {
+            instances = null;
+        }
 
-        if (frameDesc.getPageId().pid == INVALID_PAGE) {
-            throw new InvalidFrameNumberException(null, "BufMgr.unpinPage(): InvalidFrameNumberException");
+        numBuffers = 0;
+        frmeTable = new FrameDesc[0];
+        ioBuffers = new ByteBuffer[0];
+        if (offHeap) {
+            framePool = new ByteBuffer[0];
+            bufPool = null;
+        } else {
+            bufPool = new byte[0][];
+            framePool = null;
         }
+        addFrames(numbufs);
 
-        if ((replacer.unpin(frameNumber)) != true) {
-            throw new ReplacerException(null, "BufMgr.unpinPage(): ReplacerException");
+        // About four stripes per processor, at most MAX_STRIPES.
+        final int numStripes = Integer.highestOneBit(Math.max(1, Math.min(MAX_STRIPES, 4 * Runtime.getRuntime().availableProcessors())));
+        pageTable = new BufHashTbl[numStripes];
+        for (int inx = 0; inx < numStripes; inx++) {
+            pageTable[inx] = new BufHashTbl(numBuffers / numStripes + 1);
         }
+        stripeMask = numStripes - 1;
 
-        if (dirty == true) {
-            frameDesc.setDirty(dirty);
+        replacer = newReplacer(replacerArg);
+        if (instances != null) {
+            return;
+        }
+        setReadAhead(Integer.getInteger("bufmgr.readahead", 0));
+
+        final String marks = System.getProperty("bufmgr.cleaner");
+        if (marks != null) {
+            try {
+                final int comma = marks.indexOf(',');
+                startPageCleaner(Integer.parseInt(marks.substring(0, comma).trim()), Integer.parseInt(marks.substring(comma + 1).trim()));
+            } catch (RuntimeException e) {
+                System.err.println("BufMgr: bad bufmgr.cleaner " + marks + ", no page cleaner.");
+            }
         }
 
     }
 
     /**
-     * Call DB object to allocate a run of new pages and find a frame in the
-     * buffer pool for the first page and pin it. If buffer is full, ask DB to
-     * deallocate all these pages and return error (null if error).
+     * Creates the replacer named by replacerArg. Clock is used if the name is
+     * null or unknown.
      * 
-     * @param firstpage
-     *            the address of the first page.
-     * @param howmany
-     *            total number of allocated new pages.
-     * @return the first page id of the new pages.
+     * @param replacerArg
+     *            name of the buffer replacement policy.
+     * @return the replacer object.
+     */
+    private Replacer newReplacer(String replacerArg) {
+
+        if (replacerArg == null || replacerArg.compareTo("Clock") == 0) {
+            return new Clock(this);
+        } else if (replacerArg.compareTo("LRUK") == 0) {
+            return new LRUK(this);
+        } else if (replacerArg.compareTo("2Q") == 0) {
+            return new TwoQ(this);
+        } else if (replacerArg.compareTo("ARC") == 0) {
+            return new ARC(this);
+        } else if (replacerArg.compareTo("ClockPro") == 0) {
+            return new ClockPro(this);
+        } else if (replacerArg.startsWith("TinyLFU")) {
+            // "TinyLFU" filters Clock, "TinyLFU:name" filters the named replacer.
+            final int separator = replacerArg.indexOf(':');
+            return new TinyLFU(this, newReplacer((separator < 0) ? "Clock" : replacerArg.substring(separator + 1)));
+        }
+        System.err.println("BufMgr: unknown replacer " + replacerArg + ", using Clock.");
+        return new Clock(this);
+    }
+
+    /**
+     * Adds empty frames up to newNumBuffers and publishes the longer frame
+     * tables. The frames of an off-heap pool come from a new arena, so the
+     * frames already there keep their memory.
      * 
-     * @exception BufferPoolExceededException
-     *                if the buffer pool is full.
-     * @exception HashOperationException
-     *                if there is a hashtable error.
-     * @exception ReplacerException
-     *                if there is a replacer error.
-     * @exception HashEntryNotFoundException
-     *                if there is no entry of page in the hash table.
-     * @exception InvalidFrameNumberException
-     *                if there is an invalid frame number.
-     * @exception PageUnpinnedException
-     *                if there is a page that is already unpinned.
-     * @exception PagePinnedException
-     *                if a page is left pinned.
-     * @exception PageNotReadException
-     *                if a page cannot be read.
-     * @exception IOException
-     *                if there is other kinds of I/O error.
-     * @exception BufMgrException
-     *                other error occured in bufmgr layer
-     * @exception DiskMgrException
-     *                other error occured in diskmgr layer
+     * @param newNumBuffers
      */
+    private void addFrames(int newNumBuffers) {
 
-    public PageId newPage(Page firstpage, int howmany) throws BufferPoolExceededException, HashOperationException, ReplacerException, HashEntryNotFoundException, InvalidFrameNumberException, PagePinnedException, PageUnpinnedException, PageNotReadException, BufMgrException, DiskMgrException, IOException {
+        final int oldNumBuffers = numBuffers;
+        final FrameDesc[] newFrmeTable = Arrays.copyOf(frmeTable, newNumBuffers);
+        final ByteBuffer[] newIoBuffers = Arrays.copyOf(ioBuffers, newNumBuffers);
 
-        final PageId firstPageId = new PageId();
-        allocate_page(firstPageId, howmany);
-        try {
-            pinPage(firstPageId, firstpage, true);
-            return firstPageId;
-        } catch (Exception e) {
-            deallocate_page(firstPageId, howmany);
-            return null;
+        if (framePool != null) {
+            final int added = newNumBuffers - oldNumBuffers;
+            if ((long) added * MAX_SPACE > Integer.MAX_VALUE - 2 * ARENA_ALIGNMENT) {
+                throw new IllegalArgumentException("BufMgr: " + added + " frames do not fit in one off-heap arena");
+            }
+            // alignedSlice also cuts the end down to the alignment, so the
+            // size is rounded up first.
+            final int arenaSize = (added * MAX_SPACE + ARENA_ALIGNMENT - 1) / ARENA_ALIGNMENT * ARENA_ALIGNMENT;
+            final ByteBuffer arena = ByteBuffer.allocateDirect(arenaSize + ARENA_ALIGNMENT).alignedSlice(ARENA_ALIGNMENT);
+            final ByteBuffer[] newFramePool = Arrays.copyOf(framePool, newNumBuffers);
+            for (int inx = oldNumBuffers; inx < newNumBuffers; inx++) {
+                newFramePool[inx] = arena.slice((inx - oldNumBuffers) * MAX_SPACE, MAX_SPACE);
+                newIoBuffers[inx] = newFramePool[inx].duplicate();
+            }
+            framePool = newFramePool;
+        } else {
+            final byte[][] newBufPool = Arrays.copyOf(bufPool, newNumBuffers);
+            for (int inx = oldNumBuffers; inx < newNumBuffers; inx++) {
+                newBufPool[inx] = new byte[MAX_SPACE];
+                newIoBuffers[inx] = ByteBuffer.wrap(newBufPool[inx]);
+            }
+            bufPool = newBufPool;
+        }
+        for (int inx = oldNumBuffers; inx < newNumBuffers; inx++) {
+            newFrmeTable[inx] = new FrameDesc();
         }
+
+        ioBuffers = newIoBuffers;
+        frmeTable = newFrmeTable;
+        numBuffers = newNumBuffers;
     }
 
     /**
-     * User should call this method if she needs to delete a page. this routine
-     * will call DB to deallocate the page.
+     * Returns the descriptor of a frame picked from the frame table earlier,
+     * which a resize may have dropped since.
      * 
-     * @param globalPageId
-     *            the page number in the data base.
-     * @exception InvalidBufferException
-     *                if buffer pool corrupted.
-     * @exception ReplacerException
-     *                if there is a replacer error.
-     * @exception HashOperationException
-     *                if there is a hash table error.
-     * @exception InvalidFrameNumberException
-     *                if there is an invalid frame number.
-     * @exception PageNotReadException
-     *                if a page cannot be read.
-     * @exception BufferPoolExceededException
-     *                if the buffer pool is already full.
-     * @exception PagePinnedException
-     *                if a page is left pinned.
-     * @exception PageUnpinnedException
+     * @param frameNumber
+     * @return the descriptor, or null if the frame is no longer in the pool.
+     */
+    private FrameDesc frameDesc(int frameNumber) {
+        final FrameDesc[] frames = frmeTable;
+        return (frameNumber < frames.length) ? frames[frameNumber] : null;
+    }
+
+    /**
+     * Returns the instance holding a page. The pages of an extent go to the
+     * same instance, so runs of adjacent pages are still read ahead, read and
+     * written together.
+     * 
+     * @param pid
+     *            page number.
+     * @return the instance.
+     */
+    private BufMgr instance(int pid) {
+        return instances[instanceIndex(pid)];
+    }
+
+    /**
+     * @param pid
+     *            page number.
+     * @return the number of the instance holding a page.
+     */
+    private int instanceIndex(int pid) {
+        return (BufHashTbl.mix(pid >>> EXTENT_SHIFT) & Integer.MAX_VALUE) % instances.length;
+    }
+
+    /**
+     * @param pid
+     *            page number.
+     * @return the first page of the extent after the one of pid.
+     */
+    private static int extentEnd(int pid) {
+        return ((pid >>> EXTENT_SHIFT) + 1) << EXTENT_SHIFT;
+    }
+
+    /**
+     * @param numbufs
+     *            number of buffers of the whole pool.
+     * @param instance
+     * @return the number of buffers of the instance.
+     */
+    private int share(int numbufs, int instance) {
+        return numbufs / instances.length + ((instance < numbufs % instances.length) ? 1 : 0);
+    }
+
+    /**
+     * Returns the page table stripe of a page. Its object is also the lock
+     * of the stripe.
+     * 
+     * @param pid
+     *            page number.
+     * @return the stripe.
+     */
+    private BufHashTbl stripe(int pid) {
+        return pageTable[stripeIndex(pid)];
+    }
+
+    /**
+     * @param pid
+     *            page number.
+     * @return the number of the stripe of a page.
+     */
+    private int stripeIndex(int pid) {
+        // The high bits of the hash, the stripe uses the low ones.
+        return (BufHashTbl.mix(pid) >>> 24) & stripeMask;
+    }
+
+    /**
+     * Feeds a page to the read-ahead detector, and reads the next pages of
+     * its run ahead if it continues a run and less than half a window of it
+     * is requested already.
+     * 
+     * @param pid
+     *            page number just pinned.
+     */
+    private void readAhead(int pid) {
+
+        final int window = readAheadWindow;
+        final int first;
+        final int stride;
+        final int count;
+
+        synchronized (streamLock) {
+            final int step = pid - streamLast;
+            streamLast = pid;
+            if (step <= 0 || step != streamStride) {
+                streamStride = step;
+                streamRun = 1;
+                streamNext = pid + step;
+                return;
+            }
+            if (++streamRun < READAHEAD_TRIGGER) {
+                return;
+            }
+
+            if (streamNext < pid + step) {
+                streamNext = pid + step;
+            }
+            final long last = (long) pid + (long) step * window;
+            final long pages = (last - streamNext) / step + 1;
+            if (pages < Math.max(1, window / 2)) {
+                return;
+            }
+            first = streamNext;
+            stride = step;
+            count = (int) pages;
+            streamNext = (int) (first + pages * step);
+        }
+
+        submitPrefetch(first, stride, count);
+    }
+
+    /**
+     * Queues a run of pages for the background threads. The run is dropped if
+     * the queue is full.
+     */
+    private void submitPrefetch(final int first, final int stride, final int count) {
+        prefetcher().execute(new Runnable() {
+            public void run() {
+                prefetchRun(first, stride, count);
+            }
+        });
+    }
+
+    /**
+     * @return the threads reading pages ahead, created the first time.
+     */
+    private ThreadPoolExecutor prefetcher() {
+
+        ThreadPoolExecutor executor = prefetcher;
+        if (executor == null) {
+            synchronized (streamLock) {
+                executor = prefetcher;
+                if (executor == null) {
+                    executor = new ThreadPoolExecutor(PREFETCH_THREADS, PREFETCH_THREADS, 1, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(PREFETCH_QUEUE), new ThreadFactory() {
+                        public Thread newThread(Runnable runnable) {
+                            final Thread thread = new Thread(runnable, "BufMgr prefetch");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    }, new ThreadPoolExecutor.DiscardPolicy());
+                    executor.allowCoreThreadTimeOut(true);
+                    prefetcher = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * Body of a read-ahead task: reads count pages, stride apart, into the
+     * buffer pool. It stops at the first page that cannot be brought in.
+     */
+    private void prefetchRun(int first, int stride, int count) {
+
+        final PageId pageId = new PageId();
+        try {
+            for (int inx = 0; inx < count; inx++) {
+                pageId.pid = first + inx * stride;
+                prefetchPage(pageId);
+            }
+        } catch (Exception e) {
+            // Only a hint, the page is read when it is pinned.
+        }
+    }
+
+    /**
+     * Reads one page into a victim frame, unless it is in the pool already,
+     * and leaves it unpinned and marked as read ahead.
+     * 
+     * @param pageId
+     *            the page to read.
+     */
+    private void prefetchPage(PageId pageId) throws ReplacerException, HashOperationException, PageUnpinnedException, InvalidFrameNumberException, PageNotReadException, BufferPoolExceededException, PagePinnedException, BufMgrException {
+
+        final BufHashTbl table = stripe(pageId.pid);
+        synchronized (table) {
+            if (table.lookup(pageId) >= 0) {
+                return;
+            }
+        }
+
+        final int victim = pickVictim(pageId);
+        if (victim < 0) {
+            throw new ReplacerException(null, "BufMgr.prefetchPage(): ReplacerException");
+        }
+        final int frameNumber = replacePage(victim, pageId, false, true);
+        if (frameNumber < 0) {
+            return;
+        }
+        synchronized (table) {
+            replacer.unpin(frameNumber);
+        }
+        if (frameNumber == victim) {
+            numPrefetched.increment();
+        }
+    }
+
+    /**
+     * Body of the page cleaner thread. It looks at the pool every
+     * CLEANER_PERIOD_NANOS, or when a miss had to write a dirty victim, and
+     * cleans frames while too many are dirty.
+     */
+    private void cleanLoop() {
+
+        long[] candidates = new long[0];
+
+        while (cleaner == Thread.currentThread()) {
+            final FrameDesc[] frames = frmeTable;
+            if (candidates.length < frames.length) {
+                candidates = new long[frames.length];
+            }
+            int dirty = 0;
+            for (int inx = 0; inx < frames.length; inx++) {
+                if (frames[inx].isDirty()) {
+                    dirty++;
+                }
+            }
+
+            if ((long) dirty * 100 > (long) cleanerHighWater * frames.length) {
+                final int wanted = dirty - (int) ((long) cleanerLowWater * frames.length / 100);
+                if (clean(frames, candidates, wanted) > 0) {
+                    continue;
+                }
+            }
+            LockSupport.parkNanos(CLEANER_PERIOD_NANOS);
+        }
+    }
+
+    /**
+     * Writes up to wanted unpinned dirty frames, the first ones from the hand
+     * of the replacer on, in page order.
+     * 
+     * @param frames
+     *            the frame table.
+     * @param candidates
+     *            room for a page number and frame number per frame.
+     * @param wanted
+     *            number of frames to clean.
+     * @return number of frames cleaned.
+     */
+    private int clean(FrameDesc[] frames, long[] candidates, int wanted) {
+
+        int hand = replacer.getHand();
+        if (hand < 0 || hand >= frames.length) {
+            hand = 0;
+        }
+
+        int found = 0;
+        for (int step = 0; step < frames.length && found < wanted; step++) {
+            final int inx = (hand + step) % frames.length;
+            final FrameDesc frameDesc = frames[inx];
+            final int pid = frameDesc.getPageId().pid;
+            if (frameDesc.pin_count() == 0 && frameDesc.isDirty() && pid != INVALID_PAGE) {
+                candidates[found++] = ((long) pid << 32) | inx;
+            }
+        }
+        // Page numbers are not negative, so this sorts by page.
+        Arrays.sort(candidates, 0, found);
+
+        int cleaned = 0;
+        for (int inx = 0; inx < found; inx++) {
+            if (cleanFrame((int) candidates[inx], (int) (candidates[inx] >>> 32))) {
+                cleaned++;
+            }
+        }
+        numCleaned.add(cleaned);
+        return cleaned;
+    }
+
+    /**
+     * Writes a dirty frame to disk and marks it clean, keeping the page in the
+     * buffer pool. The frame is skipped if it is pinned or no longer holds
+     * the page. It is written with the lock of its stripe held, so nobody can
+     * pin and change the page meanwhile, nor read it from disk in another
+     * frame before the write is done.
+     * 
+     * @param frameNumber
+     * @param pid
+     *            the page the frame held when it was chosen.
+     * @return true if the frame was written.
+     */
+    private boolean cleanFrame(int frameNumber, int pid) {
+
+        final FrameDesc frameDesc = frameDesc(frameNumber);
+        if (frameDesc == null) {
+            return false;
+        }
+        final BufHashTbl table = stripe(pid);
+        synchronized (table) {
+            if (frameDesc.isReplacing() || frameDesc.pin_count() != 0 || !frameDesc.isDirty() || frameDesc.getPageId().pid != pid) {
+                return false;
+            }
+            try {
+                write_page(new PageId(pid), framePage(frameNumber));
+            } catch (BufMgrException e) {
+                return false;
+            }
+            frameDesc.setDirty(false);
+        }
+        return true;
+    }
+
+    // Debug use only
+    private void bmhashdisplay() {
+        // nothing
+    }
+
+    /**
+     * Check if this page is in buffer pool, otherwise find a frame for this
+     * page, read in and pin it. Also write out the old page if it's dirty
+     * before reading if emptyPage==TRUE, then actually no read is done to bring
+     * the page in.
+     * 
+     * @param pin_pgid
+     *            page number in the minibase.
+     * @param page
+     *            the pointer poit to the page.
+     * @param emptyPage
+     *            true (empty page); false (non-empty page)
+     * 
+     * @exception ReplacerException
+     *                if there is a replacer error.
+     * @exception HashOperationException
+     *                if there is a hashtable error.
+     * @exception PageUnpinnedException
+     *                if there is a page that is already unpinned.
+     * @exception InvalidFrameNumberException
+     *                if there is an invalid frame number .
+     * @exception PageNotReadException
+     *                if a page cannot be read.
+     * @exception BufferPoolExceededException
+     *                if the buffer pool is full.
+     * @exception PagePinnedException
+     *                if a page is left pinned .
+     * @exception BufMgrException
+     *                other error occured in bufmgr layer
+     * @exception IOException
+     *                if there is other kinds of I/O error.
+     */
+
+    public void pinPage(PageId pin_pgid, Page page, boolean emptyPage) throws ReplacerException, HashOperationException, PageUnpinnedException, InvalidFrameNumberException, PageNotReadException, BufferPoolExceededException, PagePinnedException, BufMgrException, IOException {
+
+        if (instances != null) {
+            instance(pin_pgid.pid).pinPage(pin_pgid, page, emptyPage);
+            return;
+        }
+
+        attach(page, pinFrame(pin_pgid.pid, emptyPage));
+    }
+
+    /**
+     * Pins a page like pinPage, and returns the frame it is in.
+     * 
+     * @param pid
+     *            page number.
+     * @param emptyPage
+     *            true if the page is not read from disk.
+     * @return the frame number.
+     */
+    private int pinFrame(int pid, boolean emptyPage) throws ReplacerException, HashOperationException, PageUnpinnedException, InvalidFrameNumberException, PageNotReadException, BufferPoolExceededException, PagePinnedException, BufMgrException {
+
+        while (true) {
+            int frameNumber;
+            boolean read = false;
+            final BufHashTbl table = stripe(pid);
+            synchronized (table) {
+                frameNumber = table.lookup(pid);
+                if (NeoLog.TRACE_ENABLED) {
+                    NeoLog.getLog().trace(NeoLog.LOOKUP, pid, frameNumber);
+                }
+                if (frameNumber >= 0) {
+                    replacer.pin(frameNumber);
+                }
+            }
+
+            if (frameNumber >= 0) {
+                numHits.increment();
+            } else {
+                // Only a miss needs a PageId, a hit allocates nothing.
+                final PageId pin_pgid = new PageId(pid);
+                numMisses.increment();
+                frameNumber = pickVictim(pin_pgid);
+                if (frameNumber < 0) {
+                    throw new ReplacerException(null, "BufMgr.pinPage(): ReplacerException");
+                }
+                frameNumber = replacePage(frameNumber, pin_pgid, emptyPage, false);
+                if (frameNumber < 0) {
+                    continue;
+                }
+                read = !emptyPage;
+            }
+
+            // The page may still be being read in by another thread.
+            final FrameDesc frameDesc = frmeTable[frameNumber];
+            if (frameDesc.waitForRead()) {
+                numPinWaits.increment();
+            }
+            if (frameDesc.getPageId().pid != pid) {
+                // That read failed, try to read the page again.
+                replacer.unpin(frameNumber);
+                continue;
+            }
+
+            // A page read from disk or the first pin of a page read ahead
+            // moves the run of the detector.
+            if ((frameDesc.takePrefetched() || read) && readAheadWindow > 0) {
+                readAhead(pid);
+            }
+
+            return frameNumber;
+        }
+    }
+
+    /**
+     * Pins a run of pages and returns them in pages. The pages found in the
+     * buffer pool are pinned first. The replacer then picks the victims of
+     * all the missing ones in one pass, and each run of adjacent missing pages
+     * is read with one scattering read. If a page cannot be pinned, none of
+     * the run is left pinned.
+     * 
+     * @param firstPid
+     *            the first page of the run.
+     * @param count
+     *            number of pages in the run.
+     * @param pages
+     *            receives the pages, count of them at least.
+     * 
+     * @exception ReplacerException
+     *                if there is a replacer error.
+     * @exception HashOperationException
+     *                if there is a hashtable error.
+     * @exception PageUnpinnedException
+     *                if there is a page that is already unpinned.
+     * @exception InvalidFrameNumberException
+     *                if there is an invalid frame number .
+     * @exception PageNotReadException
+     *                if a page cannot be read.
+     * @exception BufferPoolExceededException
+     *                if the buffer pool has not enough unpinned frames.
+     * @exception PagePinnedException
+     *                if a page is left pinned .
+     * @exception BufMgrException
+     *                other error occured in bufmgr layer
+     * @exception IOException
+     *                if there is other kinds of I/O error.
+     */
+
+    public void pinPages(PageId firstPid, int count, Page[] pages) throws ReplacerException, HashOperationException, PageUnpinnedException, InvalidFrameNumberException, PageNotReadException, BufferPoolExceededException, PagePinnedException, BufMgrException, IOException {
+
+        if (count < 0 || pages.length < count) {
+            throw new IllegalArgumentException("BufMgr.pinPages(): " + count + " pages do not fit in " + pages.length);
+        }
+
+        if (instances != null) {
+            // One call per extent, each to the instance of the extent.
+            int start = 0;
+            boolean done = false;
+            try {
+                while (start < count) {
+                    final int end = Math.min(count, extentEnd(firstPid.pid + start) - firstPid.pid);
+                    final PageId extentPid = new PageId(firstPid.pid + start);
+                    instance(extentPid.pid).pinPages(extentPid, end - start, Arrays.copyOfRange(pages, start, end));
+                    start = end;
+                }
+                done = true;
+            } finally {
+                if (!done && start > 0) {
+                    try {
+                        unpinPages(firstPid, start, false);
+                    } catch (HashEntryNotFoundException e) {
+                        throw new HashOperationException(e, "BufMgr.pinPages(): HashOperationException");
+                    }
+                }
+            }
+            return;
+        }
+
+        // The frame of each page once it is pinned, -1 before.
+        final int[] frames = new int[count];
+        final PageId[] missing = new PageId[count];
+        int numMissing = 0;
+
+        for (int inx = 0; inx < count; inx++) {
+            final PageId pageId = new PageId(firstPid.pid + inx);
+            final BufHashTbl table = stripe(pageId.pid);
+            synchronized (table) {
+                frames[inx] = table.lookup(pageId);
+                if (frames[inx] >= 0) {
+                    replacer.pin(frames[inx]);
+                }
+            }
+            if (frames[inx] >= 0) {
+                numHits.increment();
+            } else {
+                numMisses.increment();
+                missing[numMissing++] = pageId;
+            }
+        }
+
+        boolean done = false;
+        try {
+            if (numMissing > 0) {
+                loadPages(firstPid.pid, missing, numMissing, frames);
+            }
+
+            final PageId pageId = new PageId();
+            for (int inx = 0; inx < count; inx++) {
+                pageId.pid = firstPid.pid + inx;
+                if (frames[inx] >= 0) {
+                    final FrameDesc frameDesc = frmeTable[frames[inx]];
+                    if (frameDesc.waitForRead()) {
+                        numPinWaits.increment();
+                    }
+                    if (frameDesc.getPageId().pid == pageId.pid) {
+                        frameDesc.takePrefetched();
+                        attach(pages[inx], frames[inx]);
+                        continue;
+                    }
+                    // That read failed.
+                    replacer.unpin(frames[inx]);
+                    frames[inx] = -1;
+                }
+                // Not brought in with the others, pin it on its own.
+                pinPage(pageId, pages[inx], false);
+                synchronized (stripe(pageId.pid)) {
+                    frames[inx] = stripe(pageId.pid).lookup(pageId);
+                }
+            }
+            done = true;
+        } finally {
+            if (!done) {
+                for (int inx = 0; inx < count; inx++) {
+                    if (frames[inx] >= 0) {
+                        replacer.unpin(frames[inx]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Brings the missing pages of pinPages into victim frames and pins them.
+     * A page another thread brings in meanwhile is pinned in its frame, and a
+     * page that lost its victim is left for pinPages to pin on its own.
+     * 
+     * @param firstPid
+     *            the first page of the run.
+     * @param missing
+     *            the pages not in the pool, in page order.
+     * @param numMissing
+     * @param frames
+     *            the frame of each page of the run, set for the pages pinned.
+     */
+    private void loadPages(int firstPid, PageId[] missing, int numMissing, int[] frames) throws ReplacerException, HashOperationException, PageUnpinnedException, InvalidFrameNumberException, PageNotReadException, BufferPoolExceededException, PagePinnedException, BufMgrException {
+
+        final int[] victims = new int[numMissing];
+        final int picked = replacer.pick_victims(missing, numMissing, victims);
+        numVictims.add(picked);
+        if (picked < numMissing) {
+            for (int inx = 0; inx < picked; inx++) {
+                releaseVictim(victims[inx]);
+            }
+            numPoolExceeded.increment();
+            throw new BufferPoolExceededException(null, "BufMgr.pinPages(): BufferPoolExceededException");
+        }
+
+        // The pages installed here, to be read below.
+        final PageId[] toRead = new PageId[numMissing];
+        final int[] readFrames = new int[numMissing];
+        int numRead = 0;
+
+        int next = 0;
+        try {
+            for (; next < numMissing; next++) {
+                final int frameNumber = installPage(victims[next], missing[next], false, false);
+                if (frameNumber >= 0) {
+                    frames[missing[next].pid - firstPid] = frameNumber;
+                }
+                if (frameNumber == victims[next]) {
+                    toRead[numRead] = missing[next];
+                    readFrames[numRead++] = frameNumber;
+                }
+            }
+        } finally {
+            if (next < numMissing) {
+                // installPage gave its own victim back, give back the rest
+                // and take out the pages installed so far.
+                for (int inx = next + 1; inx < numMissing; inx++) {
+                    releaseVictim(victims[inx]);
+                }
+                for (int inx = 0; inx < numRead; inx++) {
+                    frames[toRead[inx].pid - firstPid] = -1;
+                    failRead(readFrames[inx], toRead[inx], null);
+                }
+            }
+        }
+
+        // One scattering read per run of adjacent pages. After a failure the
+        // rest are not read but failed, so nobody waits for them.
+        final ByteBuffer[] run = new ByteBuffer[numRead];
+        PageNotReadException failure = null;
+        int start = 0;
+        while (start < numRead) {
+            int end = start + 1;
+            while (end < numRead && toRead[end].pid == toRead[end - 1].pid + 1) {
+                end++;
+            }
+
+            if (failure == null) {
+                for (int inx = start; inx < end; inx++) {
+                    run[inx - start] = ioBuffers[readFrames[inx]];
+                }
+                try {
+                    read_pages(toRead[start], run, end - start);
+                } catch (BufMgrException e) {
+                    failure = new PageNotReadException(e, "BufMgr.pinPages(): PageNotReadException");
+                } finally {
+                    for (int inx = 0; inx < end - start; inx++) {
+                        run[inx].clear();
+                    }
+                }
+            }
+
+            for (int inx = start; inx < end; inx++) {
+                if (failure == null) {
+                    frmeTable[readFrames[inx]].endRead();
+                } else {
+                    frames[toRead[inx].pid - firstPid] = -1;
+                    failRead(readFrames[inx], toRead[inx], failure);
+                }
+            }
+            start = end;
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Point a page at the bytes of a frame.
+     * 
+     * @param page
+     * @param frameNumber
+     */
+    private void attach(Page page, int frameNumber) {
+        if (bufPool != null) {
+            page.setpage(bufPool[frameNumber]);
+        } else {
+            page.setFrame(framePool[frameNumber]);
+        }
+    }
+
+    /**
+     * Replace the page of a frame claimed by the replacer with a new page and
+     * read it in, see installPage.
+     * 
+     * @param frameNumber
+     *            the frame claimed by the replacer.
+     * @param pin_pgid
+     *            the new page.
+     * @param emptyPage
+     *            true if the page is not read from disk.
+     * @param prefetch
+     *            true if the page is read ahead of its first pin.
+     * @return the frame holding the new page, pinned, which is another frame
+     *         if another thread brought the page in meanwhile, or -1 if the
+     *         old page was pinned again and the frame was given back.
+     */
+    private int replacePage(int frameNumber, PageId pin_pgid, boolean emptyPage, boolean prefetch) throws ReplacerException, HashOperationException, PageUnpinnedException, InvalidFrameNumberException, PageNotReadException, BufMgrException {
+
+        final int installed = installPage(frameNumber, pin_pgid, emptyPage, prefetch);
+        if (installed == frameNumber && emptyPage == false) {
+            try {
+                read_page(pin_pgid, framePage(frameNumber));
+            } catch (Exception e) {
+                failRead(frameNumber, pin_pgid, e);
+                throw new PageNotReadException(e, "BufMgr.pinPage(): PageNotReadException");
+            }
+            frmeTable[frameNumber].endRead();
+        }
+        return installed;
+    }
+
+    /**
+     * Replace the page of a frame claimed by the replacer with a new page,
+     * after evict took the old one out. The new page goes into the page table
+     * before it is read, with the frame marked as being read, so the other
+     * threads pinning it wait for this read instead of starting another one.
+     * The caller reads the page and calls endRead, or failRead.
+     * 
+     * @param frameNumber
+     *            the frame claimed by the replacer.
+     * @param pin_pgid
+     *            the new page.
+     * @param emptyPage
+     *            true if the page is not read from disk.
+     * @param prefetch
+     *            true if the page is read ahead of its first pin.
+     * @return the frame holding the new page, pinned, which is another frame
+     *         if another thread brought the page in meanwhile, or -1 if the
+     *         old page was pinned again and the frame was given back.
+     */
+    private int installPage(int frameNumber, PageId pin_pgid, boolean emptyPage, boolean prefetch) throws ReplacerException, HashOperationException, PageUnpinnedException, InvalidFrameNumberException, BufMgrException {
+
+        if (!evict(frameNumber)) {
+            return -1;
+        }
+
+        final FrameDesc frameDesc = frmeTable[frameNumber];
+        final BufHashTbl table = stripe(pin_pgid.pid);
+        synchronized (table) {
+            final int otherFrame = table.lookup(pin_pgid);
+            if (otherFrame >= 0) {
+                replacer.unpin(frameNumber);
+                replacer.pin(otherFrame);
+                return otherFrame;
+            }
+
+            synchronized (frameDesc) {
+                frameDesc.getPageId().pid = pin_pgid.pid;
+                frameDesc.setDirty(false);
+                if (emptyPage == false) {
+                    frameDesc.startRead();
+                }
+                frameDesc.setPrefetched(prefetch);
+                frameDesc.setReplacing(false);
+            }
+            if (!table.insert(pin_pgid, frameNumber)) {
+                throw new HashOperationException(null, "BufMgr.pinPage(): HashOperationException");
+            }
+        }
+
+        return frameNumber;
+    }
+
+    /**
+     * Take the old page out of a frame claimed by the replacer. A dirty page
+     * is written out first, while it is still in the page table, and it only
+     * leaves the table if nobody pinned or dirtied it in the meantime.
+     * Otherwise, or if the write fails, the frame is given back.
+     * 
+     * @param frameNumber
+     *            the frame claimed by the replacer.
+     * @return true if the frame is empty now, false if it was given back.
+     */
+    private boolean evict(int frameNumber) throws ReplacerException, HashOperationException, PageUnpinnedException, InvalidFrameNumberException, BufMgrException {
+
+        final FrameDesc frameDesc = frmeTable[frameNumber];
+        final int oldPid = frameDesc.getPageId().pid;
+
+        if (oldPid != INVALID_PAGE) {
+            final PageId oldPageId = new PageId(oldPid);
+            final BufHashTbl oldTable = stripe(oldPid);
+
+            if (frameDesc.isDirty()) {
+                // The cleaner is behind, wake it up.
+                final Thread thread = cleaner;
+                if (thread != null) {
+                    LockSupport.unpark(thread);
+                }
+
+                frameDesc.setDirty(false);
+                try {
+                    write_page(oldPageId, framePage(frameNumber));
+                } catch (BufMgrException e) {
+                    synchronized (oldTable) {
+                        frameDesc.setDirty(true);
+                        frameDesc.setReplacing(false);
+                        replacer.unpin(frameNumber);
+                    }
+                    throw e;
+                }
+                numWriteBacks.increment();
+            }
+
+            synchronized (oldTable) {
+                // Pins and unpins of the old page hold this lock, so its pin
+                // count and dirty bit can not change while we look at them.
+                if (frameDesc.getPageId().pid == oldPid) {
+                    if (frameDesc.pin_count() != 1 || frameDesc.isDirty()) {
+                        frameDesc.setReplacing(false);
+                        replacer.unpin(frameNumber);
+                        return false;
+                    }
+                    if (!oldTable.remove(oldPageId)) {
+                        throw new HashOperationException(null, "BufMgr.pinPage(): HashOperationException");
+                    }
+                    synchronized (frameDesc) {
+                        frameDesc.getPageId().pid = INVALID_PAGE;
+                    }
+                    numEvictions.increment();
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Take a page whose read failed out of the page table and its frame, wake
+     * up the threads waiting for it and unpin the frame.
+     * 
+     * @param frameNumber
+     *            the frame installPage put the page in.
+     * @param pin_pgid
+     *            the page.
+     * @param cause
+     *            the error of the read.
+     */
+    private void failRead(int frameNumber, PageId pin_pgid, Exception cause) throws ReplacerException, HashOperationException, PageUnpinnedException, InvalidFrameNumberException {
+
+        final FrameDesc frameDesc = frmeTable[frameNumber];
+        final BufHashTbl table = stripe(pin_pgid.pid);
+        boolean removed;
+        synchronized (table) {
+            removed = table.remove(pin_pgid);
+            synchronized (frameDesc) {
+                frameDesc.getPageId().pid = INVALID_PAGE;
+                frameDesc.setDirty(false);
+            }
+        }
+        frameDesc.endRead();
+        if (!removed) {
+            throw new HashOperationException(cause, "BufMgr.pinPage(): HashOperationException");
+        }
+        if (!replacer.unpin(frameNumber)) {
+            throw new ReplacerException(cause, "BufMgr.pinPage(): ReplacerException");
+        }
+    }
+
+    /**
+     * Picks a victim frame for the given page with the replacer, and counts
+     * it, or counts that the buffer pool has no frame left.
+     * 
+     * @param pageId
+     *            the page which will be read into the victim frame.
+     * @return the victim frame, -1 if no frame is available.
+     */
+    private int pickVictim(PageId pageId) throws PagePinnedException, BufferPoolExceededException {
+
+        final int victim;
+        try {
+            victim = replacer.pick_victim(pageId);
+        } catch (BufferPoolExceededException e) {
+            numPoolExceeded.increment();
+            throw e;
+        }
+        if (victim >= 0) {
+            numVictims.increment();
+        }
+        return victim;
+    }
+
+    /**
+     * Give back a frame claimed by the replacer without using it.
+     * 
+     * @param frameNumber
+     */
+    private void releaseVictim(int frameNumber) throws PageUnpinnedException, InvalidFrameNumberException {
+
+        final FrameDesc frameDesc = frmeTable[frameNumber];
+        final int pid = frameDesc.getPageId().pid;
+        if (pid == INVALID_PAGE) {
+            frameDesc.setReplacing(false);
+            replacer.unpin(frameNumber);
+            return;
+        }
+        synchronized (stripe(pid)) {
+            frameDesc.setReplacing(false);
+            replacer.unpin(frameNumber);
+        }
+    }
+
+    /**
+     * To unpin a page specified by a pageId. If pincount>0, decrement it and if
+     * it becomes zero, put it in a group of replacement candidates. if
+     * pincount=0 before this call, return error.
+     * 
+     * @param globalPageId_in_a_DB
+     *            page number in the minibase.
+     * @param dirty
+     *            the dirty bit of the frame
+     * 
+     * @exception ReplacerException
+     *                if there is a replacer error.
+     * @exception PageUnpinnedException
+     *                if there is a page that is already unpinned.
+     * @exception InvalidFrameNumberException
+     *                if there is an invalid frame number .
+     * @exception HashEntryNotFoundException
+     *                if there is no entry of page in the hash table.
+     */
+
+    public void unpinPage(PageId PageId_in_a_DB, boolean dirty) throws ReplacerException, PageUnpinnedException, HashEntryNotFoundException, InvalidFrameNumberException {
+
+        if (instances != null) {
+            instance(PageId_in_a_DB.pid).unpinPage(PageId_in_a_DB, dirty);
+            return;
+        }
+
+        final BufHashTbl table = stripe(PageId_in_a_DB.pid);
+        synchronized (table) {
+            final int frameNumber = table.lookup(PageId_in_a_DB);
+
+            if (frameNumber == INVALID_PAGE) {
+                throw new HashEntryNotFoundException(null, "BufMgr.unpinPage(): HashEntryNotFoundException");
+            }
+
+            final FrameDesc frameDesc = frmeTable[frameNumber];
+
+            if (frameDesc.getPageId().pid == INVALID_PAGE) {
+                throw new InvalidFrameNumberException(null, "BufMgr.unpinPage(): InvalidFrameNumberException");
+            }
+
+            if ((replacer.unpin(frameNumber)) != true) {
+                throw new ReplacerException(null, "BufMgr.unpinPage(): ReplacerException");
+            }
+
+            if (dirty == true) {
+                frameDesc.setDirty(dirty);
+            }
+        }
+    }
+
+    /**
+     * Unpins a run of pages pinned with pinPages. Every page is unpinned even
+     * if one of them fails, and the first error is thrown at the end.
+     * 
+     * @param firstPid
+     *            the first page of the run.
+     * @param count
+     *            number of pages in the run.
+     * @param dirty
+     *            the dirty bit of the frames.
+     * 
+     * @exception ReplacerException
+     *                if there is a replacer error.
+     * @exception PageUnpinnedException
+     *                if there is a page that is already unpinned.
+     * @exception InvalidFrameNumberException
+     *                if there is an invalid frame number .
+     * @exception HashEntryNotFoundException
+     *                if there is no entry of page in the hash table.
+     */
+
+    public void unpinPages(PageId firstPid, int count, boolean dirty) throws ReplacerException, PageUnpinnedException, HashEntryNotFoundException, InvalidFrameNumberException {
+
+        final PageId pageId = new PageId();
+        Exception error = null;
+
+        for (int inx = 0; inx < count; inx++) {
+            pageId.pid = firstPid.pid + inx;
+            try {
+                unpinPage(pageId, dirty);
+            } catch (Exception e) {
+                if (error == null) {
+                    error = e;
+                }
+            }
+        }
+
+        if (error instanceof ReplacerException) {
+            throw (ReplacerException) error;
+        } else if (error instanceof PageUnpinnedException) {
+            throw (PageUnpinnedException) error;
+        } else if (error instanceof HashEntryNotFoundException) {
+            throw (HashEntryNotFoundException) error;
+        } else if (error instanceof InvalidFrameNumberException) {
+            throw (InvalidFrameNumberException) error;
+        } else if (error != null) {
+            throw (RuntimeException) error;
+        }
+    }
+
+    /**
+     * Pins a page like pinPage, but takes the page number and returns a handle
+     * of the frame instead of filling in a Page. The handle is the frame
+     * number in the low half and the version of the frame in the high half,
+     * so unpin finds the frame without a page table lookup and can tell a
+     * handle whose pin was released already and whose frame holds another
+     * page now. A pin of a page in the pool allocates nothing.
+     * 
+     * @param pid
+     *            page number in the minibase.
+     * @param emptyPage
+     *            true (empty page); false (non-empty page)
+     * @return the handle, for attachPage and unpin.
+     * 
+     * @exception ReplacerException
+     *                if there is a replacer error.
+     * @exception HashOperationException
+     *                if there is a hashtable error.
+     * @exception PageUnpinnedException
+     *                if there is a page that is already unpinned.
+     * @exception InvalidFrameNumberException
+     *                if there is an invalid frame number .
+     * @exception PageNotReadException
+     *                if a page cannot be read.
+     * @exception BufferPoolExceededException
+     *                if the buffer pool is full.
+     * @exception PagePinnedException
+     *                if a page is left pinned .
+     * @exception BufMgrException
+     *                other error occured in bufmgr layer
+     */
+
+    public long pin(int pid, boolean emptyPage) throws ReplacerException, HashOperationException, PageUnpinnedException, InvalidFrameNumberException, PageNotReadException, BufferPoolExceededException, PagePinnedException, BufMgrException {
+
+        if (instances != null) {
+            // The frame numbers of the instances are interleaved.
+            final int instance = instanceIndex(pid);
+            final long handle = instances[instance].pin(pid, emptyPage);
+            return (handle & HANDLE_VERSION) | ((int) handle * instances.length + instance);
+        }
+
+        final int frameNumber = pinFrame(pid, emptyPage);
+        return ((long) FrameDesc.version(frmeTable[frameNumber].getState()) << 32) | frameNumber;
+    }
+
+    /**
+     * Unpins the page of a handle returned by pin. The frame is found from
+     * the handle, and the page table is not searched.
+     * 
+     * @param handle
+     *            the handle of the pin.
+     * @param dirty
+     *            the dirty bit of the frame.
+     * 
+     * @exception ReplacerException
+     *                if there is a replacer error.
+     * @exception PageUnpinnedException
+     *                if there is a page that is already unpinned.
+     * @exception InvalidFrameNumberException
+     *                if the handle is not the one of a page in the pool.
+     */
+
+    public void unpin(long handle, boolean dirty) throws ReplacerException, PageUnpinnedException, InvalidFrameNumberException {
+
+        if (instances != null) {
+            handleInstance(handle).unpin(instanceHandle(handle), dirty);
+            return;
+        }
+
+        final int frameNumber = (int) handle;
+        final FrameDesc frameDesc = (frameNumber >= 0) ? frameDesc(frameNumber) : null;
+        final int pid = (frameDesc != null) ? frameDesc.getPageId().pid : INVALID_PAGE;
+        if (pid == INVALID_PAGE) {
+            throw new InvalidFrameNumberException(null, "BufMgr.unpin(): InvalidFrameNumberException");
+        }
+
+        synchronized (stripe(pid)) {
+            // While it is pinned the frame keeps its page and its version.
+            if (frameDesc.getPageId().pid != pid || FrameDesc.version(frameDesc.getState()) != (int) (handle >>> 32)) {
+                throw new InvalidFrameNumberException(null, "BufMgr.unpin(): InvalidFrameNumberException");
+            }
+
+            if ((replacer.unpin(frameNumber)) != true) {
+                throw new ReplacerException(null, "BufMgr.unpin(): ReplacerException");
+            }
+
+            if (dirty == true) {
+                frameDesc.setDirty(dirty);
+            }
+        }
+    }
+
+    /**
+     * Points a page at the frame of a handle returned by pin. The caller can
+     * keep one Page for all its pins, so that allocates nothing either.
+     * 
+     * @param handle
+     *            the handle of a pin not released yet.
+     * @param page
+     *            the page to point at the frame.
+     * 
+     * @exception InvalidFrameNumberException
+     *                if the handle is not the one of a frame in the pool.
+     */
+
+    public void attachPage(long handle, Page page) throws InvalidFrameNumberException {
+
+        if (instances != null) {
+            handleInstance(handle).attachPage(instanceHandle(handle), page);
+            return;
+        }
+
+        final int frameNumber = (int) handle;
+        if (frameNumber < 0 || frameNumber >= numBuffers) {
+            throw new InvalidFrameNumberException(null, "BufMgr.attachPage(): InvalidFrameNumberException");
+        }
+        attach(page, frameNumber);
+    }
+
+    /**
+     * @param handle
+     *            a handle of a partitioned pool.
+     * @return the instance of the frame of the handle.
+     */
+    private BufMgr handleInstance(long handle) throws InvalidFrameNumberException {
+        if ((int) handle < 0) {
+            throw new InvalidFrameNumberException(null, "BufMgr.handleInstance(): InvalidFrameNumberException");
+        }
+        return instances[(int) handle % instances.length];
+    }
+
+    /**
+     * @param handle
+     *            a handle of a partitioned pool.
+     * @return the handle within the instance of its frame.
+     */
+    private long instanceHandle(long handle) {
+        return (handle & HANDLE_VERSION) | ((int) handle / instances.length);
+    }
+
+    /**
+     * Call DB object to allocate a run of new pages and find a frame in the
+     * buffer pool for the first page and pin it. If buffer is full, ask DB to
+     * deallocate all these pages and return error (null if error).
+     * 
+     * @param firstpage
+     *            the address of the first page.
+     * @param howmany
+     *            total number of allocated new pages.
+     * @return the first page id of the new pages.
+     * 
+     * @exception BufferPoolExceededException
+     *                if the buffer pool is full.
+     * @exception HashOperationException
+     *                if there is a hashtable error.
+     * @exception ReplacerException
+     *                if there is a replacer error.
+     * @exception HashEntryNotFoundException
+     *                if there is no entry of page in the hash table.
+     * @exception InvalidFrameNumberException
+     *                if there is an invalid frame number.
+     * @exception PageUnpinnedException
+     *                if there is a page that is already unpinned.
+     * @exception PagePinnedException
+     *                if a page is left pinned.
+     * @exception PageNotReadException
+     *                if a page cannot be read.
+     * @exception IOException
+     *                if there is other kinds of I/O error.
+     * @exception BufMgrException
+     *                other error occured in bufmgr layer
+     * @exception DiskMgrException
+     *                other error occured in diskmgr layer
+     */
+
+    public PageId newPage(Page firstpage, int howmany) throws BufferPoolExceededException, HashOperationException, ReplacerException, HashEntryNotFoundException, InvalidFrameNumberException, PagePinnedException, PageUnpinnedException, PageNotReadException, BufMgrException, DiskMgrException, IOException {
+
+        final PageId firstPageId = new PageId();
+        allocate_page(firstPageId, howmany);
+        try {
+            pinPage(firstPageId, firstpage, true);
+            return firstPageId;
+        } catch (Exception e) {
+            deallocate_page(firstPageId, howmany);
+            return null;
+        }
+    }
+
+    /**
+     * User should call this method if she needs to delete a page. this routine
+     * will call DB to deallocate the page.
+     * 
+     * @param globalPageId
+     *            the page number in the data base.
+     * @exception InvalidBufferException
+     *                if buffer pool corrupted.
+     * @exception ReplacerException
+     *                if there is a replacer error.
+     * @exception HashOperationException
+     *                if there is a hash table error.
+     * @exception InvalidFrameNumberException
+     *                if there is an invalid frame number.
+     * @exception PageNotReadException
+     *                if a page cannot be read.
+     * @exception BufferPoolExceededException
+     *                if the buffer pool is already full.
+     * @exception PagePinnedException
+     *                if a page is left pinned.
+     * @exception PageUnpinnedException
+     *                if there is a page that is already unpinned.
+     * @exception HashEntryNotFoundException
+     *                if there is no entry of page in the hash table.
+     * @exception IOException
+     *                if there is other kinds of I/O error.
+     * @exception BufMgrException
+     *                other error occured in bufmgr layer
+     * @exception DiskMgrException
+     *                other error occured in diskmgr layer
+     */
+
+    public void freePage(PageId globalPageId) throws InvalidBufferException, ReplacerException, HashOperationException, InvalidFrameNumberException, PageNotReadException, BufferPoolExceededException, PagePinnedException, PageUnpinnedException, HashEntryNotFoundException, BufMgrException, DiskMgrException, IOException {
+
+        if (instances != null) {
+            instance(globalPageId.pid).freePage(globalPageId);
+            return;
+        }
+
+        final BufHashTbl table = stripe(globalPageId.pid);
+        boolean busy = true;
+
+        while (busy) {
+            synchronized (table) {
+                final int frameNumber = table.lookup(globalPageId);
+
+                if (frameNumber >= numBuffers) {
+                    throw new InvalidBufferException(null, "BufMgr.freePage(): InvalidBufferException");
+                }
+
+                if (frameNumber < 0) {
+                    busy = false;
+                } else {
+                    final FrameDesc frameDesc = frmeTable[frameNumber];
+
+                    // With the replacer locked no victim can be claimed, so
+                    // the pin count only counts the pins of the callers.
+                    synchronized (replacer) {
+                        if (!frameDesc.isReplacing() && !frameDesc.isReading()) {
+                            try {
+                                replacer.free(frameNumber);
+                            } catch (PagePinnedException ppe) {
+                                throw new ReplacerException(ppe, "BufMgr.freePage(): ReplacerException");
+                            }
+                            busy = false;
+                        }
+                    }
+
+                    if (!busy) {
+                        if (!table.remove(globalPageId)) {
+                            throw new HashOperationException(null, "BufMgr.freePage(): HashOperationException");
+                        }
+                        synchronized (frameDesc) {
+                            frameDesc.getPageId().pid = INVALID_PAGE;
+                            frameDesc.setDirty(false);
+                        }
+                    }
+                }
+            }
+            if (busy) {
+                // The frame is being replaced or read in, wait for it.
+                Thread.yield();
+            }
+        }
+
+        deallocate_page(globalPageId);
+    }
+
+    /**
+     * Sets the number of pages the read-ahead detector reads ahead of a run.
+     * It is at most a quarter of the buffer pool, so read-ahead does not push
+     * out everything else.
+     * 
+     * @param pages
+     *            the read-ahead window, 0 turns read-ahead off.
+     */
+
+    public void setReadAhead(int pages) {
+        if (instances != null) {
+            for (int inx = 0; inx < instances.length; inx++) {
+                instances[inx].setReadAhead(pages);
+            }
+            return;
+        }
+        readAheadWindow = Math.max(0, Math.min(pages, numBuffers / 4));
+    }
+
+    /**
+     * Gets the number of pages the read-ahead detector reads ahead of a run.
+     * 
+     * @return the read-ahead window, 0 if read-ahead is off.
+     */
+
+    public int getReadAhead() {
+        if (instances != null) {
+            return instances[0].getReadAhead();
+        }
+        return readAheadWindow;
+    }
+
+    /**
+     * Asks the background threads to read a run of pages into the buffer pool
+     * and returns at once. Pages already in the pool are skipped, and the run
+     * stops early when no frame is free or a page cannot be read, as the
+     * pages are only a hint. The pages are left unpinned.
+     * 
+     * @param firstPid
+     *            the first page of the run.
+     * @param count
+     *            number of pages in the run.
+     */
+
+    public void prefetch(PageId firstPid, int count) {
+        if (instances != null) {
+            int start = 0;
+            while (start < count) {
+                final int end = Math.min(count, extentEnd(firstPid.pid + start) - firstPid.pid);
+                instance(firstPid.pid + start).prefetch(new PageId(firstPid.pid + start), end - start);
+                start = end;
+            }
+        } else if (count > 0) {
+            submitPrefetch(firstPid.pid, 1, count);
+        }
+    }
+
+    /**
+     * Starts the page cleaner, or changes its water marks if it is running.
+     * 
+     * @param lowWater
+     *            percent of the frames left dirty by the cleaner.
+     * @param highWater
+     *            percent of the frames that may be dirty before it starts.
+     */
+
+    public synchronized void startPageCleaner(int lowWater, int highWater) {
+
+        if (lowWater < 0 || lowWater > highWater || highWater > 100) {
+            throw new IllegalArgumentException("BufMgr.startPageCleaner(): bad water marks " + lowWater + ", " + highWater);
+        }
+        if (instances != null) {
+            for (int inx = 0; inx < instances.length; inx++) {
+                instances[inx].startPageCleaner(lowWater, highWater);
+            }
+            return;
+        }
+        cleanerLowWater = lowWater;
+        cleanerHighWater = highWater;
+
+        if (cleaner == null) {
+            final Thread thread = new Thread(new Runnable() {
+                public void run() {
+                    cleanLoop();
+                }
+            }, "BufMgr page cleaner");
+            thread.setDaemon(true);
+            cleaner = thread;
+            thread.start();
+        }
+    }
+
+    /**
+     * Stops the page cleaner and waits until it has finished its last write.
+     * Nothing is done if it is not running.
+     */
+
+    public synchronized void stopPageCleaner() {
+
+        if (instances != null) {
+            for (int inx = 0; inx < instances.length; inx++) {
+                instances[inx].stopPageCleaner();
+            }
+            return;
+        }
+
+        final Thread thread = cleaner;
+        if (thread == null) {
+            return;
+        }
+        cleaner = null;
+        LockSupport.unpark(thread);
+
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Added to flush a particular page of the buffer pool to disk
+     * 
+     * @param pageid
+     *            the page number in the database.
+     * 
+     * @exception HashOperationException
+     *                if there is a hashtable error.
+     * @exception PageUnpinnedException
+     *                if there is a page that is already unpinned.
+     * @exception PagePinnedException
+     *                if a page is left pinned.
+     * @exception PageNotFoundException
+     *                if a page is not found.
+     * @exception BufMgrException
+     *                other error occured in bufmgr layer
+     * @exception IOException
+     *                if there is other kinds of I/O error.
+     */
+
+    public void flushPage(PageId pageid) throws HashOperationException, PageUnpinnedException, PagePinnedException, PageNotFoundException, BufMgrException, IOException {
+        if (instances != null) {
+            instance(pageid.pid).flushPage(pageid);
+            return;
+        }
+        privFlushPages(pageid, 0);
+    }
+
+    /**
+     * Flushes all pages of the buffer pool to disk
+     * 
+     * @exception HashOperationException
+     *                if there is a hashtable error.
+     * @exception PageUnpinnedException
+     *                if there is a page that is already unpinned.
+     * @exception PagePinnedException
+     *                if a page is left pinned.
+     * @exception PageNotFoundException
+     *                if a page is not found.
+     * @exception BufMgrException
+     *                other error occured in bufmgr layer
+     * @exception IOException
+     *                if there is other kinds of I/O error.
+     */
+
+    public void flushAllPages() throws HashOperationException, PageUnpinnedException, PagePinnedException, PageNotFoundException, BufMgrException, IOException {
+        if (instances != null) {
+            // Pinned pages do not stop the other instances from flushing.
+            PagePinnedException pinned = null;
+            for (int inx = 0; inx < instances.length; inx++) {
+                try {
+                    instances[inx].flushAllPages();
+                } catch (PagePinnedException e) {
+                    pinned = e;
+                }
+            }
+            if (pinned != null) {
+                throw pinned;
+            }
+            return;
+        }
+        privFlushPages(new PageId(INVALID_PAGE), 1);
+    }
+
+    /**
+     * Gets the total number of buffers.
+     * 
+     * @return total number of buffer frames.
+     */
+
+    public int getNumBuffers() {
+        int sum = numBuffers;
+        if (instances != null) {
+            for (int inx = 0; inx < instances.length; inx++) {
+                sum += instances[inx].getNumBuffers();
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Gets the number of instances the buffer pool is partitioned into.
+     * 
+     * @return the number of instances, 1 if the pool is not partitioned.
+     */
+
+    public int getNumInstances() {
+        return (instances != null) ? instances.length : 1;
+    }
+
+    /**
+     * Gets the number of pinPage calls of one instance that found the page in
+     * the buffer pool.
+     * 
+     * @param instance
+     *            the instance, from 0 to getNumInstances() - 1.
+     * @return number of buffer hits of the instance.
+     */
+
+    public long getNumHits(int instance) {
+        return (instances != null) ? instances[instance].getNumHits() : numHits.sum();
+    }
+
+    /**
+     * Gets the number of pinPage calls of one instance that had to read the
+     * page.
+     * 
+     * @param instance
+     *            the instance, from 0 to getNumInstances() - 1.
+     * @return number of buffer misses of the instance.
+     */
+
+    public long getNumMisses(int instance) {
+        return (instances != null) ? instances[instance].getNumMisses() : numMisses.sum();
+    }
+
+    /**
+     * Changes the number of frames of the buffer pool while it is in use, and
+     * keeps the pages in it. Growing adds empty frames at the end. Shrinking
+     * empties the frames at the end, writing their dirty pages out, and fails
+     * without changing the pool if any of them is pinned. Only the replacer
+     * and the dropped pages are updated, pins of other pages go on meanwhile.
+     * 
+     * @param newNumBuffers
+     *            the new number of frames, at least 1.
+     * 
+     * @exception PagePinnedException
+     *                if a frame to drop is pinned.
+     * @exception HashOperationException
+     *                if there is a hashtable error.
+     * @exception ReplacerException
+     *                if there is a replacer error.
+     * @exception PageUnpinnedException
      *                if there is a page that is already unpinned.
-     * @exception HashEntryNotFoundException
-     *                if there is no entry of page in the hash table.
-     * @exception IOException
-     *                if there is other kinds of I/O error.
+     * @exception InvalidFrameNumberException
+     *                if there is an invalid frame number.
      * @exception BufMgrException
-     *                other error occured in bufmgr layer
-     * @exception DiskMgrException
-     *                other error occured in diskmgr layer
+     *                if a dirty page can not be written.
      */
 
-    public void freePage(PageId globalPageId) throws InvalidBufferException, ReplacerException, HashOperationException, InvalidFrameNumberException, PageNotReadException, BufferPoolExceededException, PagePinnedException, PageUnpinnedException, HashEntryNotFoundException, BufMgrException, DiskMgrException, IOException {
+    public synchronized void resize(int newNumBuffers) throws PagePinnedException, HashOperationException, ReplacerException, PageUnpinnedException, InvalidFrameNumberException, BufMgrException {
 
-        final int frameNumber = hashTable.lookup(globalPageId);
+        if (newNumBuffers < ((instances != null) ? instances.length : 1)) {
+            throw new IllegalArgumentException("BufMgr.resize(): " + newNumBuffers + " frames");
+        }
 
-        if (frameNumber >= numBuffers) {
-            throw new InvalidBufferException(null, "BufMgr.freePage(): InvalidBufferException");
+        if (instances != null) {
+            // On failure the instances already shrunk grow back, without
+            // their dropped pages.
+            final int[] oldNumBuffers = new int[instances.length];
+            int inx = 0;
+            boolean done = false;
+            try {
+                for (; inx < instances.length; inx++) {
+                    oldNumBuffers[inx] = instances[inx].getNumBuffers();
+                    instances[inx].resize(share(newNumBuffers, inx));
+                }
+                done = true;
+            } finally {
+                if (!done) {
+                    for (int undo = 0; undo < inx; undo++) {
+                        instances[undo].resize(oldNumBuffers[undo]);
+                    }
+                }
+            }
+            return;
         }
 
-        if (frameNumber < 0) {
-            deallocate_page(globalPageId);
+        final int oldNumBuffers = numBuffers;
+        if (newNumBuffers > oldNumBuffers) {
+            // The new frames are in the tables before the replacer hands
+            // them out.
+            addFrames(newNumBuffers);
+            replacer.resize(this);
+            return;
+        }
+        if (newNumBuffers == oldNumBuffers) {
             return;
         }
 
+        // Claim the frames to drop, so no replacer picks them, then take
+        // their pages out as a replacement would. The frames
+        // [newNumBuffers, claimed) are claimed, and given back on failure
+        // except the one evict already gave back.
+        int claimed = newNumBuffers;
+        int givenBack = -1;
+        boolean done = false;
         try {
-            replacer.free(frameNumber);
-        } catch (PagePinnedException ppe) {
-            throw new ReplacerException(ppe, "BufMgr.freePage(): ReplacerException");
+            for (; claimed < oldNumBuffers; claimed++) {
+                if (!replacer.claim(frmeTable[claimed], claimed)) {
+                    throw new PagePinnedException(null, "BufMgr.resize(): PagePinnedException");
+                }
+            }
+            for (int inx = newNumBuffers; inx < oldNumBuffers; inx++) {
+                givenBack = inx;
+                if (!evict(inx)) {
+                    throw new PagePinnedException(null, "BufMgr.resize(): PagePinnedException");
+                }
+                givenBack = -1;
+            }
+            done = true;
+        } finally {
+            if (!done) {
+                for (int inx = newNumBuffers; inx < claimed; inx++) {
+                    if (inx != givenBack) {
+                        releaseVictim(inx);
+                    }
+                }
+            }
         }
 
-        final FrameDesc frameDesc = frmeTable[frameNumber];
-        final PageId pageId = frameDesc.getPageId();
+        // The dropped frames hold no page and stay claimed, so nobody uses
+        // them once the shorter tables are out.
+        frmeTable = Arrays.copyOf(frmeTable, newNumBuffers);
+        ioBuffers = Arrays.copyOf(ioBuffers, newNumBuffers);
+        if (framePool != null) {
+            framePool = Arrays.copyOf(framePool, newNumBuffers);
+        } else {
+            bufPool = Arrays.copyOf(bufPool, newNumBuffers);
+        }
+        numBuffers = newNumBuffers;
+        replacer.resize(this);
+        setReadAhead(readAheadWindow);
+    }
+
+    /**
+     * Gets the total number of unpinned buffer frames.
+     * 
+     * @return total number of unpinned buffer frames.
+     */
+
+    public int getNumUnpinnedBuffers() {
 
-        if (!hashTable.remove(pageId)) {
-            throw new HashOperationException(null, "BufMgr.freePage(): HashOperationException");
+        int count = 0;
+        final FrameDesc[] frames = frmeTable;
+        for (int inx = 0; inx < frames.length; inx++) {
+            if (frames[inx].pin_count() == 0) {
+                count++;
+            }
+        }
+        if (instances != null) {
+            for (int inx = 0; inx < instances.length; inx++) {
+                count += instances[inx].getNumUnpinnedBuffers();
+            }
         }
+        return count;
+    }
 
-        pageId.pid = INVALID_PAGE;
-        frameDesc.setDirty(false);
-        deallocate_page(globalPageId);
+    /**
+     * Gets the number of pinPage calls that found the page in the buffer pool.
+     * 
+     * @return number of buffer hits.
+     */
+
+    public long getNumHits() {
+        long sum = numHits.sum();
+        if (instances != null) {
+            for (int inx = 0; inx < instances.length; inx++) {
+                sum += instances[inx].getNumHits();
+            }
+        }
+        return sum;
     }
 
     /**
-     * Added to flush a particular page of the buffer pool to disk
+     * Gets the number of pinPage calls that had to bring the page into a
+     * frame.
      * 
-     * @param pageid
-     *            the page number in the database.
+     * @return number of buffer misses.
+     */
+
+    public long getNumMisses() {
+        long sum = numMisses.sum();
+        if (instances != null) {
+            for (int inx = 0; inx < instances.length; inx++) {
+                sum += instances[inx].getNumMisses();
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Gets the number of pages read in by prefetch or read-ahead before they
+     * were pinned.
      * 
-     * @exception HashOperationException
-     *                if there is a hashtable error.
-     * @exception PageUnpinnedException
-     *                if there is a page that is already unpinned.
-     * @exception PagePinnedException
-     *                if a page is left pinned.
-     * @exception PageNotFoundException
-     *                if a page is not found.
-     * @exception BufMgrException
-     *                other error occured in bufmgr layer
-     * @exception IOException
-     *                if there is other kinds of I/O error.
+     * @return number of pages read ahead.
      */
 
-    public void flushPage(PageId pageid) throws HashOperationException, PageUnpinnedException, PagePinnedException, PageNotFoundException, BufMgrException, IOException {
-        privFlushPages(pageid, 0);
+    public long getNumPrefetched() {
+        long sum = numPrefetched.sum();
+        if (instances != null) {
+            for (int inx = 0; inx < instances.length; inx++) {
+                sum += instances[inx].getNumPrefetched();
+            }
+        }
+        return sum;
     }
 
     /**
-     * Flushes all pages of the buffer pool to disk
+     * Gets the number of dirty frames written by the page cleaner.
      * 
-     * @exception HashOperationException
-     *                if there is a hashtable error.
-     * @exception PageUnpinnedException
-     *                if there is a page that is already unpinned.
-     * @exception PagePinnedException
-     *                if a page is left pinned.
-     * @exception PageNotFoundException
-     *                if a page is not found.
-     * @exception BufMgrException
-     *                other error occured in bufmgr layer
-     * @exception IOException
-     *                if there is other kinds of I/O error.
+     * @return number of frames cleaned.
      */
 
-    public void flushAllPages() throws HashOperationException, PageUnpinnedException, PagePinnedException, PageNotFoundException, BufMgrException, IOException {
-        privFlushPages(new PageId(INVALID_PAGE), 1);
+    public long getNumCleaned() {
+        long sum = numCleaned.sum();
+        if (instances != null) {
+            for (int inx = 0; inx < instances.length; inx++) {
+                sum += instances[inx].getNumCleaned();
+            }
+        }
+        return sum;
     }
 
     /**
-     * Gets the total number of buffers.
+     * Gets the number of victim frames the replacer picked.
      * 
-     * @return total number of buffer frames.
+     * @return number of victims.
      */
 
-    public int getNumBuffers() {
-        return numBuffers;
+    public long getNumVictims() {
+        long sum = numVictims.sum();
+        if (instances != null) {
+            for (int inx = 0; inx < instances.length; inx++) {
+                sum += instances[inx].getNumVictims();
+            }
+        }
+        return sum;
     }
 
     /**
-     * Gets the total number of unpinned buffer frames.
+     * Gets the number of times a page could not be brought in because every
+     * frame was pinned, that is the BufferPoolExceededExceptions thrown.
      * 
-     * @return total number of unpinned buffer frames.
+     * @return number of times the buffer pool was exceeded.
      */
 
-    public int getNumUnpinnedBuffers() {
+    public long getNumPoolExceeded() {
+        long sum = numPoolExceeded.sum();
+        if (instances != null) {
+            for (int inx = 0; inx < instances.length; inx++) {
+                sum += instances[inx].getNumPoolExceeded();
+            }
+        }
+        return sum;
+    }
 
-        int count = 0;
-        final int size = replacer.getNumberOfBuffer();
-        for (int inx = 0; inx < size; inx++) {
-            if (frmeTable[inx].pin_count() == 0) {
-                count++;
+    /**
+     * Gets the number of pages taken out of their frame to make room for
+     * another page.
+     * 
+     * @return number of evictions.
+     */
+
+    public long getNumEvictions() {
+        long sum = numEvictions.sum();
+        if (instances != null) {
+            for (int inx = 0; inx < instances.length; inx++) {
+                sum += instances[inx].getNumEvictions();
             }
         }
-        return count;
+        return sum;
+    }
+
+    /**
+     * Gets the number of dirty victims written out before they were replaced.
+     * The page cleaner and the flush methods are not counted.
+     * 
+     * @return number of dirty write-backs.
+     */
+
+    public long getNumWriteBacks() {
+        long sum = numWriteBacks.sum();
+        if (instances != null) {
+            for (int inx = 0; inx < instances.length; inx++) {
+                sum += instances[inx].getNumWriteBacks();
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Gets the number of pins that found their page still being read in and
+     * waited for it.
+     * 
+     * @return number of pin waits.
+     */
+
+    public long getNumPinWaits() {
+        long sum = numPinWaits.sum();
+        if (instances != null) {
+            for (int inx = 0; inx < instances.length; inx++) {
+                sum += instances[inx].getNumPinWaits();
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Gets the number of reads from the database. A run of pages read with
+     * one scattering read counts once.
+     * 
+     * @return number of reads.
+     */
+
+    public long getNumReads() {
+        long sum = numReads.sum();
+        if (instances != null) {
+            for (int inx = 0; inx < instances.length; inx++) {
+                sum += instances[inx].getNumReads();
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Gets the number of bytes read from the database.
+     * 
+     * @return bytes read.
+     */
+
+    public long getNumReadBytes() {
+        long sum = numReadBytes.sum();
+        if (instances != null) {
+            for (int inx = 0; inx < instances.length; inx++) {
+                sum += instances[inx].getNumReadBytes();
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Gets the number of writes to the database. A run of pages written with
+     * one gathering write counts once.
+     * 
+     * @return number of writes.
+     */
+
+    public long getNumWrites() {
+        long sum = numWrites.sum();
+        if (instances != null) {
+            for (int inx = 0; inx < instances.length; inx++) {
+                sum += instances[inx].getNumWrites();
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Gets the number of bytes written to the database.
+     * 
+     * @return bytes written.
+     */
+
+    public long getNumWriteBytes() {
+        long sum = numWriteBytes.sum();
+        if (instances != null) {
+            for (int inx = 0; inx < instances.length; inx++) {
+                sum += instances[inx].getNumWriteBytes();
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Gets the number of frames the replacer looked at to pick its victims.
+     * Divided by getNumVictims it is the length of the sweep per victim. Only
+     * Clock, alone or behind TinyLFU, counts them.
+     * 
+     * @return number of frames swept.
+     */
+
+    public long getSweepSteps() {
+        long sum = replacer.getSweepSteps();
+        if (instances != null) {
+            for (int inx = 0; inx < instances.length; inx++) {
+                sum += instances[inx].getSweepSteps();
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Takes a snapshot of the counters of the buffer manager, summed over its
+     * instances. The counters are read one after the other while the buffer
+     * manager is in use, so the snapshot is not atomic.
+     * 
+     * @return the counters.
+     */
+
+    public BufMgrStats getStats() {
+        return new BufMgrStats(this);
+    }
+
+    /**
+     * Registers the buffer manager with the platform MBean server, so its
+     * counters can be watched with JMX, under the object name
+     * bufmgr:type=BufMgr,name=<name>.
+     * 
+     * @param name
+     *            the name of the buffer manager.
+     * @exception BufMgrException
+     *                if it can not be registered.
+     */
+
+    public synchronized void registerMBean(String name) throws BufMgrException {
+
+        if (mbeanName != null) {
+            throw new BufMgrException(null, "BufMgr.registerMBean(): BufMgrException");
+        }
+        try {
+            final ObjectName objectName = new ObjectName("bufmgr:type=BufMgr,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            mbeanName = objectName;
+        } catch (Exception e) {
+            throw new BufMgrException(e, "BufMgr.registerMBean(): BufMgrException");
+        }
+    }
+
+    /**
+     * Unregisters the buffer manager from the platform MBean server, if it is
+     * registered.
+     * 
+     * @exception BufMgrException
+     *                if it can not be unregistered.
+     */
+
+    public synchronized void unregisterMBean() throws BufMgrException {
+
+        if (mbeanName == null) {
+            return;
+        }
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.unregisterMBean(mbeanName);
+        } catch (Exception e) {
+            throw new BufMgrException(e, "BufMgr.unregisterMBean(): BufMgrException");
+        }
+        mbeanName = null;
+    }
+
+    /**
+     * Gets the current target size p of the recency list of an ARC replacer,
+     * to watch the policy adapt to the workload.
+     * 
+     * @return p, or -1 if the replacer is not ARC. For a partitioned pool,
+     *         p of the first instance.
+     */
+
+    public int getAdaptiveTarget() {
+        if (instances != null) {
+            return instances[0].getAdaptiveTarget();
+        }
+        if (replacer instanceof ARC) {
+            return ((ARC) replacer).getP();
+        }
+        return -1;
+    }
+
+    /**
+     * Tells whether the replacer remembers a page as a replaced one: in a
+     * ghost list of ARC or 2Q, as a test entry of CLOCK-Pro, or by the history
+     * LRU-K keeps. A page in the buffer pool never is.
+     * 
+     * @param pid
+     *            page number.
+     * @return true if the page number is remembered.
+     */
+
+    public boolean isGhost(int pid) {
+        if (instances != null) {
+            return instance(pid).isGhost(pid);
+        }
+        return replacer.isGhost(pid);
+    }
+
+    /**
+     * Tells whether the frames of the buffer pool are off-heap. Pages pinned
+     * in an off-heap pool must be used through Page.getFrame.
+     * 
+     * @return true if the pool is off-heap.
+     */
+
+    public boolean isOffHeap() {
+        return framePool != null;
+    }
+
+    /**
+     * A page over the bytes of a frame, to read or write it.
+     * 
+     * @param frameNumber
+     * @return the page.
+     */
+    private Page framePage(int frameNumber) {
+        return (bufPool != null) ? new Page(bufPool[frameNumber]) : new Page(framePool[frameNumber]);
     }
 
     /**
@@ -480,6 +2620,54 @@ public class BufMgr implements GlobalConst {
         } catch (Exception e) {
             throw new BufMgrException(e, "BufMgr.write_page(): BufMgrException");
         }
+        numWrites.increment();
+        numWriteBytes.add(MINIBASE_PAGESIZE);
+    }
+
+    /**
+     * write a run of pages
+     * 
+     * @param pageno
+     *            the first page of the run
+     * @param pages
+     *            a buffer over each page
+     * @param count
+     *            the number of pages
+     * @throws BufMgrException
+     */
+
+    private void write_pages(PageId pageno, ByteBuffer[] pages, int count) throws BufMgrException {
+
+        try {
+            SystemDefs.JavabaseDB.write_pages(pageno, pages, count);
+        } catch (Exception e) {
+            throw new BufMgrException(e, "BufMgr.write_pages(): BufMgrException");
+        }
+        numWrites.increment();
+        numWriteBytes.add((long) count * MINIBASE_PAGESIZE);
+    }
+
+    /**
+     * read a run of pages
+     * 
+     * @param pageno
+     *            the first page of the run
+     * @param pages
+     *            a buffer over each frame to read into
+     * @param count
+     *            the number of pages
+     * @throws BufMgrException
+     */
+
+    private void read_pages(PageId pageno, ByteBuffer[] pages, int count) throws BufMgrException {
+
+        try {
+            SystemDefs.JavabaseDB.read_pages(pageno, pages, count);
+        } catch (Exception e) {
+            throw new BufMgrException(e, "BufMgr.read_pages(): BufMgrException");
+        }
+        numReads.increment();
+        numReadBytes.add((long) count * MINIBASE_PAGESIZE);
     }
 
     /**
@@ -499,6 +2687,8 @@ public class BufMgr implements GlobalConst {
         } catch (Exception e) {
             throw new BufMgrException(e, "BufMgr.read_page(): BufMgrException");
         }
+        numReads.increment();
+        numReadBytes.add(MINIBASE_PAGESIZE);
 
     }
 
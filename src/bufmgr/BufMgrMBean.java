@@ -0,0 +1,56 @@
+/* ------------------------------------------------------------------------
+ * @source  : BufMgrMBean.java
+ * @desc    : BufMgrMBean interface
+ * ------------------------------------------------------------------------
+ *
+ * ------------------------------------------------------------------------
+ * VER  DATE         AUTHOR                           DESCRIPTION
+ * ---  -----------  -------------------------------  ---------------------
+ * 1.0  03.04. 2009  Wolff Jeffrey, KwangSoo Yang     Initialization
+ *
+ * ------------------------------------------------------------------------ */
+
+package bufmgr;
+
+/**
+ * The management interface of the buffer manager, the counters it publishes
+ * as read-only JMX attributes once BufMgr.registerMBean is called. See the
+ * getters of BufMgr for what each one counts.
+ */
+public interface BufMgrMBean {
+
+    int getNumBuffers();
+
+    int getNumUnpinnedBuffers();
+
+    int getNumInstances();
+
+    long getNumHits();
+
+    long getNumMisses();
+
+    long getNumVictims();
+
+    long getNumPoolExceeded();
+
+    long getNumEvictions();
+
+    long getNumWriteBacks();
+
+    long getNumPinWaits();
+
+    long getNumReads();
+
+    long getNumReadBytes();
+
+    long getNumWrites();
+
+    long getNumWriteBytes();
+
+    long getSweepSteps();
+
+    long getNumPrefetched();
+
+    long getNumCleaned();
+
+}
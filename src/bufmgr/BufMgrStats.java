@@ -0,0 +1,168 @@
+/* ------------------------------------------------------------------------
+ * @source  : BufMgrStats.java
+ * @desc    : BufMgrStats class
+ * ------------------------------------------------------------------------
+ *
+ * ------------------------------------------------------------------------
+ * VER  DATE         AUTHOR                           DESCRIPTION
+ * ---  -----------  -------------------------------  ---------------------
+ * 1.0  03.04. 2009  Wolff Jeffrey, KwangSoo Yang     Initialization
+ *
+ * ------------------------------------------------------------------------ */
+
+package bufmgr;
+
+/**
+ * A snapshot of the counters of a buffer manager, taken by BufMgr.getStats.
+ * It does not change once taken, so two snapshots can be subtracted to get
+ * the counts of the interval between them.
+ */
+public final class BufMgrStats {
+
+    private final int numBuffers;
+
+    private final int numUnpinnedBuffers;
+
+    private final long numHits;
+
+    private final long numMisses;
+
+    private final long numVictims;
+
+    private final long numPoolExceeded;
+
+    private final long numEvictions;
+
+    private final long numWriteBacks;
+
+    private final long numPinWaits;
+
+    private final long numReads;
+
+    private final long numReadBytes;
+
+    private final long numWrites;
+
+    private final long numWriteBytes;
+
+    private final long sweepSteps;
+
+    private final long numPrefetched;
+
+    private final long numCleaned;
+
+    /**
+     * Reads the counters of the given buffer manager.
+     * 
+     * @param bufmgr
+     */
+    BufMgrStats(BufMgr bufmgr) {
+        numBuffers = bufmgr.getNumBuffers();
+        numUnpinnedBuffers = bufmgr.getNumUnpinnedBuffers();
+        numHits = bufmgr.getNumHits();
+        numMisses = bufmgr.getNumMisses();
+        numVictims = bufmgr.getNumVictims();
+        numPoolExceeded = bufmgr.getNumPoolExceeded();
+        numEvictions = bufmgr.getNumEvictions();
+        numWriteBacks = bufmgr.getNumWriteBacks();
+        numPinWaits = bufmgr.getNumPinWaits();
+        numReads = bufmgr.getNumReads();
+        numReadBytes = bufmgr.getNumReadBytes();
+        numWrites = bufmgr.getNumWrites();
+        numWriteBytes = bufmgr.getNumWriteBytes();
+        sweepSteps = bufmgr.getSweepSteps();
+        numPrefetched = bufmgr.getNumPrefetched();
+        numCleaned = bufmgr.getNumCleaned();
+    }
+
+    public int getNumBuffers() {
+        return numBuffers;
+    }
+
+    public int getNumUnpinnedBuffers() {
+        return numUnpinnedBuffers;
+    }
+
+    public long getNumHits() {
+        return numHits;
+    }
+
+    public long getNumMisses() {
+        return numMisses;
+    }
+
+    public long getNumVictims() {
+        return numVictims;
+    }
+
+    public long getNumPoolExceeded() {
+        return numPoolExceeded;
+    }
+
+    public long getNumEvictions() {
+        return numEvictions;
+    }
+
+    public long getNumWriteBacks() {
+        return numWriteBacks;
+    }
+
+    public long getNumPinWaits() {
+        return numPinWaits;
+    }
+
+    public long getNumReads() {
+        return numReads;
+    }
+
+    public long getNumReadBytes() {
+        return numReadBytes;
+    }
+
+    public long getNumWrites() {
+        return numWrites;
+    }
+
+    public long getNumWriteBytes() {
+        return numWriteBytes;
+    }
+
+    public long getSweepSteps() {
+        return sweepSteps;
+    }
+
+    public long getNumPrefetched() {
+        return numPrefetched;
+    }
+
+    public long getNumCleaned() {
+        return numCleaned;
+    }
+
+    /**
+     * Gets the share of the pins that found their page in the pool.
+     * 
+     * @return hits / (hits + misses), 0 if nothing was pinned.
+     */
+    public double getHitRatio() {
+        final long pins = numHits + numMisses;
+        return (pins == 0) ? 0.0 : (double) numHits / pins;
+    }
+
+    /**
+     * Gets the mean number of frames the replacer swept per victim.
+     * 
+     * @return sweep steps / victims, 0 if no victim was picked.
+     */
+    public double getSweepStepsPerVictim() {
+        return (numVictims == 0) ? 0.0 : (double) sweepSteps / numVictims;
+    }
+
+    /**
+     * Returns the counters as a string.
+     */
+    public String toString() {
+        return "hits=" + numHits + " misses=" + numMisses + " victims=" + numVictims + " poolExceeded=" + numPoolExceeded + " evictions=" + numEvictions + " writeBacks=" + numWriteBacks + " pinWaits=" + numPinWaits + " reads=" + numReads + "/" + numReadBytes + "B writes=" + numWrites + "/" + numWriteBytes + "B sweepSteps=" + sweepSteps + " prefetched=" + numPrefetched + " cleaned=" + numCleaned;
+    }
+
+}
@@ -12,29 +12,32 @@
 
 package bufmgr;
 
+import global.PageId;
+
 /**
  * A clock algorithm for buffer pool replacement policy. It picks up the frame
  * in the buffer pool to be replaced. This is the default replacement policy.
+ * 
+ * Only pick_victim takes the lock of the clock, to move the hand. The status
+ * of a frame is its FrameDesc state: pinned while the pin count is not zero,
+ * referenced while the reference bit set by the last unpin is on. So pin and
+ * unpin are single atomic updates of the frame, and threads pinning pages
+ * never wait for each other.
  */
 public class Clock extends Replacer {
 
     private int target;
 
-    private final int noProblemStatus = 0;
-
-    private final int referencedSatus = 1;
-
-    private final int pinnedStatus = 2;
-
     private final int limitLoop = 2;
 
-    private final int numberOfBuffer;
+    private volatile int numberOfBuffer;
 
-    private final int limitCount;
+    private int limitCount;
 
-    private final int frameStatus[];
+    private volatile FrameDesc[] frameDescArray;
 
-    private final FrameDesc[] frameDescArray;
+    /** Frames the hand moved over, written only with the clock locked. */
+    private volatile long sweepSteps;
 
     /**
      * Creates a clock object.
@@ -44,7 +47,6 @@ public class Clock extends Replacer {
     public Clock(BufMgr javamgr) {
         target = 0;
         numberOfBuffer = javamgr.getNumBuffers();
-        frameStatus = new int[numberOfBuffer];
         limitCount = numberOfBuffer * limitLoop;  // One loop is enough. yet I give one more chance.
         frameDescArray = javamgr.frameTable();
     }
@@ -58,28 +60,49 @@ public class Clock extends Replacer {
      * @throws BufferPoolExceededException.
      */
 
-    public int pick_victim() throws BufferPoolExceededException, PagePinnedException {
+    public synchronized int pick_victim() throws BufferPoolExceededException, PagePinnedException {
+        return pick_victim(null);
+    }
+
+    /**
+     * Moves the hand to the next unpinned frame whose reference bit is off,
+     * clearing the reference bits on the way. The hand stays on the frame,
+     * so it is chosen again if it is not taken.
+     * 
+     * @param pageId
+     *            ignored.
+     * @return the frame number.
+     * @throws BufferPoolExceededException
+     *             if every frame is pinned.
+     */
+    synchronized int peek_victim(PageId pageId) throws BufferPoolExceededException {
 
         for (int inx = 0; inx < limitCount; inx++) {
-            if (frameStatus[target] == noProblemStatus) {
-                break;
-            } else if (frameStatus[target] == referencedSatus) {
-                frameStatus[target] = noProblemStatus;
+            final FrameDesc frameDesc = frameDescArray[target];
+            final long state = frameDesc.getState();
+            if (FrameDesc.pinCount(state) == 0) {
+                if (!FrameDesc.isReferenced(state)) {
+                    sweepSteps += inx + 1;
+                    return target;
+                }
+                frameDesc.clearReference(state);
             }
             target = (target + 1) % numberOfBuffer;
         }
 
-        if (frameStatus[target] != noProblemStatus) {
-            throw new BufferPoolExceededException(null, "Clock.pick_victim(): BufferPoolExceededException");
-        }
-
-        if (frameDescArray[target].pin_count() != 0) {
-            throw new PagePinnedException(null, "Clock.pick_victim: PagePinnedException");
-        }
-        frameStatus[target] = pinnedStatus;
-        frameDescArray[target].pin();
+        sweepSteps += limitCount;
+        throw new BufferPoolExceededException(null, "Clock.pick_victim(): BufferPoolExceededException");
+    }
 
-        return target;
+    /**
+     * Claims the frame. The clock keeps nothing about the pages.
+     * 
+     * @param frameNumber
+     * @param pageId
+     * @return false if the frame is pinned.
+     */
+    synchronized boolean commit_victim(int frameNumber, PageId pageId) {
+        return frameDescArray[frameNumber].claim();
     }
 
     /**
@@ -113,7 +136,6 @@ public class Clock extends Replacer {
     public void pin(int frameNumber) throws InvalidFrameNumberException {
         checkFrameNumberBound(frameNumber);
         frameDescArray[frameNumber].pin();
-        frameStatus[frameNumber] = pinnedStatus;
     }
 
     /**
@@ -128,9 +150,6 @@ public class Clock extends Replacer {
             throw new PageUnpinnedException(null, "Clock.unpin(): PageUnpinnedException.");
         }
         frameDescArray[frameNumber].unpin();
-        if (frameDescArray[frameNumber].pin_count() == 0) {
-            frameStatus[frameNumber] = referencedSatus;
-        }
         return true;
     }
 
@@ -141,19 +160,41 @@ public class Clock extends Replacer {
      */
 
     public void free(int frameNumber) throws PagePinnedException {
-        if (frameDescArray[frameNumber].pin_count() > 1) {
+        final FrameDesc frameDesc = frameDescArray[frameNumber];
+        if (frameDesc.pin_count() > 1) {
             throw new PagePinnedException(null, "Clock.free(): PagePinnedException.");
         } else {
-            frameDescArray[frameNumber].unpin();
-            frameStatus[frameNumber] = noProblemStatus;
+            frameDesc.unpin();
+            long state;
+            do {
+                state = frameDesc.getState();
+            } while (FrameDesc.isReferenced(state) && !frameDesc.clearReference(state));
         }
     }
 
     /**
-     * Displays information from clock replacement algorithm.
+     * Takes the new frame table. Frames past the hand are swept the next
+     * time around.
+     * 
+     * @param javamgr
+     */
+    synchronized void resize(BufMgr javamgr) {
+        frameDescArray = javamgr.frameTable();
+        numberOfBuffer = javamgr.getNumBuffers();
+        limitCount = numberOfBuffer * limitLoop;
+        if (target >= numberOfBuffer) {
+            target = 0;
+        }
+    }
+
+    /**
+     * Returns information from clock replacement algorithm.
+     * 
+     * @return the frame the hand points at and the frames it swept.
      */
 
-    public void info() {
+    public synchronized String info() {
+        return "Clock: hand=" + target + " swept=" + sweepSteps;
     }
 
     /**
@@ -163,4 +204,18 @@ public class Clock extends Replacer {
         return numberOfBuffer;
     }
 
+    /**
+     * return the frame the clock hand points at.
+     */
+    int getHand() {
+        return target;
+    }
+
+    /**
+     * return the frames the hand looked at to pick its victims.
+     */
+    long getSweepSteps() {
+        return sweepSteps;
+    }
+
 }
\ No newline at end of file
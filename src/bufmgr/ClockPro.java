@@ -0,0 +1,728 @@
+/* ------------------------------------------------------------------------
+ * @source  : ClockPro.java
+ * @desc    : ClockPro class
+ * ------------------------------------------------------------------------
+ *
+ * ------------------------------------------------------------------------
+ * VER  DATE         AUTHOR                           DESCRIPTION
+ * ---  -----------  -------------------------------  ---------------------
+ * 1.0  03.04. 2009  Wolff Jeffrey, KwangSoo Yang     Initialization
+ *
+ * ------------------------------------------------------------------------ */
+
+package bufmgr;
+
+import global.PageId;
+
+import java.util.Arrays;
+
+/**
+ * A CLOCK-Pro algorithm for buffer pool replacement policy. Resident pages are
+ * hot or cold. A cold page is in its test period from the time it is put at
+ * the head of the clock until a hot or test hand passes it, and a cold page
+ * replaced during its test period stays in the clock as a non-resident test
+ * entry that only keeps its page number. A cold page referenced during its
+ * test period turns hot, and so does a page pinned again while its test entry
+ * is still in the clock. Three hands sweep the one circular list:
+ * <ul>
+ * <li>the cold hand replaces unreferenced cold pages. A referenced cold page
+ * turns hot if it is in its test period, else it goes back to the head of the
+ * clock and starts a new one,</li>
+ * <li>the hot hand turns unreferenced hot pages cold when there are more hot
+ * pages than the memory left to them, ends the test period of the cold pages
+ * it passes and drops the test entries it passes,</li>
+ * <li>the test hand does the same to cold pages and test entries when there
+ * are too many test entries.</li>
+ * </ul>
+ * The target number of cold pages grows when a page is referenced during its
+ * test period and shrinks when a test period ends without one, so the policy
+ * resists scans and loops like LIRS while every replacement costs O(1) hand
+ * steps amortized, like Clock.
+ */
+public class ClockPro extends Replacer {
+
+    private static final int NIL = -1;
+
+    private static final byte COLD = 0;
+
+    private static final byte HOT = 1;
+
+    private static final byte TEST = 2;
+
+    /** The target number of cold pages starts at 1/32 of the frames. */
+    private static final int INITIAL_COLD_DIVISOR = 32;
+
+    private int numberOfBuffer;
+
+    /** Target number of resident cold pages. */
+    private int coldTarget;
+
+    private int countHot;
+
+    private int countCold;
+
+    private int countTest;
+
+    /** Number of frames with a non-zero pin count. */
+    private int countPinned;
+
+    private int handHot;
+
+    private int handCold;
+
+    private int handTest;
+
+    /*
+     * The clock entries. An entry is a slot in these arrays, linked in a
+     * circle by next/prev. There are at most numberOfBuffer resident and
+     * numberOfBuffer test entries.
+     */
+    private int[] next;
+
+    private int[] prev;
+
+    private int[] slotPid;
+
+    private int[] slotFrame;
+
+    private byte[] slotType;
+
+    private boolean[] slotRef;
+
+    /** Whether the cold page or test entry is in its test period. */
+    private boolean[] slotInTest;
+
+    private int freeSlot;
+
+    /** Clock entry of each frame, NIL if the frame holds no page. */
+    private int[] frameSlot;
+
+    /** Frames not holding any page. */
+    private final FrameList freeList;
+
+    /** Maps the page number of a test entry to its slot. */
+    private final BufHashTbl testTable;
+
+    private FrameDesc[] frameDescArray;
+
+    /**
+     * Creates a CLOCK-Pro object. The target number of cold pages starts at a
+     * few percent of the frames and grows with the test hits, so the hot hand
+     * does not turn every hot page cold from the start.
+     *
+     * @param javamgr
+     */
+    public ClockPro(BufMgr javamgr) {
+        numberOfBuffer = javamgr.getNumBuffers();
+        frameDescArray = javamgr.frameTable();
+        coldTarget = Math.max(1, numberOfBuffer / INITIAL_COLD_DIVISOR);
+        countHot = 0;
+        countCold = 0;
+        countTest = 0;
+        countPinned = 0;
+        handHot = NIL;
+        handCold = NIL;
+        handTest = NIL;
+
+        final int numberOfSlot = 2 * numberOfBuffer + 1;
+        next = new int[numberOfSlot];
+        prev = new int[numberOfSlot];
+        slotPid = new int[numberOfSlot];
+        slotFrame = new int[numberOfSlot];
+        slotType = new byte[numberOfSlot];
+        slotRef = new boolean[numberOfSlot];
+        slotInTest = new boolean[numberOfSlot];
+        for (int inx = 0; inx < numberOfSlot; inx++) {
+            next[inx] = inx + 1;
+        }
+        next[numberOfSlot - 1] = NIL;
+        freeSlot = 0;
+
+        frameSlot = new int[numberOfBuffer];
+        freeList = new FrameList(numberOfBuffer);
+        for (int inx = 0; inx < numberOfBuffer; inx++) {
+            frameSlot[inx] = NIL;
+            freeList.addLast(inx);
+        }
+        testTable = new BufHashTbl(numberOfBuffer);
+    }
+
+    /**
+     * Picks up the victim frame to be replaced according to the CLOCK-Pro
+     * algorithm when the new page is not known.
+     *
+     * @return the victim frame number.
+     * @throws BufferPoolExceededException
+     *             if every frame is pinned.
+     */
+
+    public synchronized int pick_victim() throws BufferPoolExceededException, PagePinnedException {
+        return pick_victim(null);
+    }
+
+    /**
+     * Chooses the victim frame according to the CLOCK-Pro algorithm: a free
+     * frame, else the frame of the resident cold page the cold hand stops at.
+     * The hand stays on it, so it is chosen again if it is not taken.
+     *
+     * @param pageId
+     *            ignored.
+     * @return the victim frame number.
+     * @throws BufferPoolExceededException
+     *             if every frame is pinned.
+     */
+    synchronized int peek_victim(PageId pageId) throws BufferPoolExceededException {
+
+        if (countPinned >= numberOfBuffer) {
+            throw new BufferPoolExceededException(null, "ClockPro.pick_victim(): BufferPoolExceededException");
+        }
+
+        final int victim = freeList.first();
+        if (victim >= 0) {
+            return victim;
+        }
+
+        final int limitCount = 8 * (countHot + countCold + countTest + 1);
+        for (int inx = 0; inx < limitCount; inx++) {
+            // After a full revolution without a victim the cold pages left
+            // are pinned, so let the hot hand supply more cold pages.
+            if (inx > countHot + countCold + countTest) {
+                runHandHot();
+            }
+            final int frameNumber = runHandCold();
+            if (frameNumber != NIL) {
+                return frameNumber;
+            }
+        }
+        throw new BufferPoolExceededException(null, "ClockPro.pick_victim(): BufferPoolExceededException");
+    }
+
+    /**
+     * Claims the frame for the given page, replaces the page in it and puts
+     * the new page at the head of the clock, hot if it has a test entry and
+     * cold otherwise.
+     *
+     * @param frameNumber
+     * @param pageId
+     * @return false if the frame is pinned.
+     */
+    synchronized boolean commit_victim(int frameNumber, PageId pageId) {
+
+        if (!frameDescArray[frameNumber].claim()) {
+            return false;
+        }
+        countPinned++;
+
+        if (!freeList.remove(frameNumber)) {
+            evict(frameNumber);
+        }
+        link(frameNumber, (pageId != null) ? pageId.pid : INVALID_PAGE);
+        return true;
+    }
+
+    /**
+     * Take the page out of the frame and its entry out of the clock. A cold
+     * page in its test period leaves a test entry in its place.
+     *
+     * @param frameNumber
+     */
+    private void evict(int frameNumber) {
+
+        final int slot = frameSlot[frameNumber];
+        if (slot == NIL) {
+            return;
+        }
+        frameSlot[frameNumber] = NIL;
+
+        if (slotType[slot] == HOT) {
+            countHot--;
+            unlink(slot);
+            releaseSlot(slot);
+            return;
+        }
+        countCold--;
+
+        // The frame descriptor, not the entry, tells which page is replaced:
+        // a page read in without its page number has none in its entry.
+        final int victimPid = frameDescArray[frameNumber].getPageId().pid;
+        if (slotInTest[slot] && victimPid != INVALID_PAGE && testTable.lookup(victimPid) == INVALID_PAGE) {
+            slotType[slot] = TEST;
+            slotFrame[slot] = NIL;
+            slotPid[slot] = victimPid;
+            testTable.insert(victimPid, slot);
+            countTest++;
+            if (handCold == slot) {
+                handCold = next[slot];
+            }
+        } else {
+            // The test period is over, the page was never read in, or it is
+            // already remembered.
+            unlink(slot);
+            releaseSlot(slot);
+        }
+        while (countTest > numberOfBuffer) {
+            runHandTest();
+        }
+    }
+
+    /**
+     * Link a clock entry for a page put in a frame, hot if the page has a
+     * test entry and cold otherwise.
+     *
+     * @param frameNumber
+     * @param pid
+     *            the page, INVALID_PAGE if it is not known.
+     */
+    private void link(int frameNumber, int pid) {
+
+        int slot = NIL;
+        if (pid != INVALID_PAGE) {
+            slot = testTable.lookup(pid);
+        }
+
+        if (slot != NIL) {
+            // Re-referenced during its test period: the page comes back hot.
+            growColdTarget();
+            testTable.remove(pid);
+            unlink(slot);
+            countTest--;
+            insert(slot, pid, frameNumber, HOT);
+            countHot++;
+        } else {
+            slot = allocSlot();
+            insert(slot, pid, frameNumber, COLD);
+            countCold++;
+        }
+    }
+
+    /**
+     * A frame on the free list keeps its page until it is reused. If it is
+     * pinned or claimed meanwhile it leaves the list and gets a clock entry
+     * again, so every frame on the list is unpinned and its head can always
+     * be reused.
+     *
+     * @param frameNumber
+     * @param pid
+     *            the page the frame will hold, INVALID_PAGE if it is not known.
+     */
+    private void takeFree(int frameNumber, int pid) {
+        if (freeList.remove(frameNumber)) {
+            link(frameNumber, pid);
+        }
+    }
+
+    /**
+     * Move the cold hand by one entry. A referenced cold page turns hot if it
+     * is in its test period, else it moves to the head of the clock and starts
+     * a new test period. The hand stops at an unreferenced unpinned one, which
+     * is the next to be replaced.
+     *
+     * @return the frame of the cold page the hand stopped at, or NIL if it
+     *         moved on.
+     */
+    private int runHandCold() {
+
+        final int slot = handCold;
+        if (slot == NIL) {
+            return NIL;
+        }
+
+        if (slotType[slot] == COLD && frameDescArray[slotFrame[slot]].pin_count() == 0) {
+            if (slotRef[slot]) {
+                if (slotInTest[slot]) {
+                    growColdTarget();
+                    countCold--;
+                    countHot++;
+                    moveToHead(slot, HOT);
+                } else {
+                    moveToHead(slot, COLD);
+                }
+            } else {
+                return slotFrame[slot];
+            }
+        }
+
+        if (handCold == slot) {
+            handCold = next[slot];
+        }
+        while (countHot > numberOfBuffer - coldTarget && countHot > 0) {
+            runHandHot();
+        }
+        return NIL;
+    }
+
+    /**
+     * Move the hot hand by one entry. An unreferenced hot page turns cold, the
+     * reference bit of a referenced one is cleared. The test period of a cold
+     * page it passes ends, and a test entry it passes is dropped.
+     */
+    private void runHandHot() {
+
+        if (handHot == handTest) {
+            runHandTest();
+        }
+        final int slot = handHot;
+        if (slot == NIL) {
+            return;
+        }
+        if (slotType[slot] == HOT) {
+            if (slotRef[slot]) {
+                slotRef[slot] = false;
+            } else {
+                slotType[slot] = COLD;
+                slotInTest[slot] = false;
+                countHot--;
+                countCold++;
+            }
+        } else {
+            endTest(slot);
+        }
+        if (handHot == slot) {
+            handHot = next[handHot];
+        }
+    }
+
+    /**
+     * Move the test hand by one entry. The test period of a cold page it
+     * passes ends, and a test entry it passes is dropped. The cold page the
+     * cold hand stopped at keeps its test period.
+     */
+    private void runHandTest() {
+
+        if (handTest == handCold && countCold > 0) {
+            runHandCold();
+        }
+        final int slot = handTest;
+        if (slot == NIL) {
+            return;
+        }
+        if (slot == handCold && slotType[slot] == COLD) {
+            handTest = next[slot];
+            return;
+        }
+        if (slotType[slot] != HOT) {
+            endTest(slot);
+        }
+        if (handTest == slot) {
+            handTest = next[handTest];
+        }
+    }
+
+    /**
+     * End the test period of a cold page or test entry. The page was not
+     * referenced during it, so the target number of cold pages shrinks, and
+     * a test entry is dropped.
+     *
+     * @param slot
+     */
+    private void endTest(int slot) {
+        if (slotInTest[slot] && coldTarget > 1) {
+            coldTarget--;
+        }
+        slotInTest[slot] = false;
+        if (slotType[slot] == TEST) {
+            testTable.remove(slotPid[slot]);
+            unlink(slot);
+            releaseSlot(slot);
+            countTest--;
+        }
+    }
+
+    /**
+     * A page was referenced during its test period, so the target number of
+     * cold pages grows.
+     */
+    private void growColdTarget() {
+        if (coldTarget < numberOfBuffer) {
+            coldTarget++;
+        }
+    }
+
+    /**
+     * Move the resident entry to the head of the clock with its reference bit
+     * cleared. A cold page starts a new test period there.
+     *
+     * @param slot
+     * @param type
+     *            HOT or COLD.
+     */
+    private void moveToHead(int slot, byte type) {
+        unlink(slot);
+        insert(slot, slotPid[slot], slotFrame[slot], type);
+    }
+
+    /**
+     * Link the entry at the head of the clock, just behind the hot hand. A
+     * cold page starts its test period.
+     *
+     * @param slot
+     * @param pid
+     * @param frameNumber
+     * @param type
+     */
+    private void insert(int slot, int pid, int frameNumber, byte type) {
+        slotPid[slot] = pid;
+        slotFrame[slot] = frameNumber;
+        slotType[slot] = type;
+        slotRef[slot] = false;
+        slotInTest[slot] = (type == COLD);
+        frameSlot[frameNumber] = slot;
+
+        if (handHot == NIL) {
+            next[slot] = slot;
+            prev[slot] = slot;
+            handHot = slot;
+            handCold = slot;
+            handTest = slot;
+        } else {
+            next[slot] = handHot;
+            prev[slot] = prev[handHot];
+            next[prev[handHot]] = slot;
+            prev[handHot] = slot;
+        }
+    }
+
+    /**
+     * Unlink the entry from the clock, moving any hand that points at it.
+     *
+     * @param slot
+     */
+    private void unlink(int slot) {
+        if (next[slot] == slot) {
+            handHot = NIL;
+            handCold = NIL;
+            handTest = NIL;
+            return;
+        }
+        if (handHot == slot) {
+            handHot = next[slot];
+        }
+        if (handCold == slot) {
+            handCold = next[slot];
+        }
+        if (handTest == slot) {
+            handTest = next[slot];
+        }
+        next[prev[slot]] = next[slot];
+        prev[next[slot]] = prev[slot];
+    }
+
+    /**
+     * @return a free clock entry.
+     */
+    private int allocSlot() {
+        final int slot = freeSlot;
+        freeSlot = next[slot];
+        return slot;
+    }
+
+    /**
+     * Give the clock entry back.
+     *
+     * @param slot
+     */
+    private void releaseSlot(int slot) {
+        next[slot] = freeSlot;
+        freeSlot = slot;
+    }
+
+    /**
+     * Returns the name of the CLOCK-Pro algorithm as a string.
+     *
+     * @return "ClockPro", the name of the algorithm.
+     */
+
+    public final String name() {
+        return "ClockPro";
+    }
+
+    /**
+     * @param pid
+     * @return true if the page number has a test entry.
+     */
+    synchronized boolean isGhost(int pid) {
+        return pid != INVALID_PAGE && testTable.lookup(pid) != INVALID_PAGE;
+    }
+
+    /**
+     * check frame number bound. if the bound is more than the number of buffer
+     * or less than 0, throw exception.
+     *
+     * @param frameNumber
+     * @throws InvalidFrameNumberException
+     */
+    public void checkFrameNumberBound(int frameNumber) throws InvalidFrameNumberException {
+        if (frameNumber < 0 || frameNumber >= numberOfBuffer) {
+            throw new InvalidFrameNumberException(null, "ClockPro.checkFrameNumberRange: InvalidFrameNumberException");
+        }
+    }
+
+    /**
+     * pin frame, and set the reference bit of its page.
+     *
+     * @param frameNumber
+     */
+    public synchronized void pin(int frameNumber) throws InvalidFrameNumberException {
+        checkFrameNumberBound(frameNumber);
+        if (frameDescArray[frameNumber].pin() == 1) {
+            countPinned++;
+        }
+        takeFree(frameNumber, frameDescArray[frameNumber].getPageId().pid);
+        if (frameSlot[frameNumber] != NIL) {
+            slotRef[frameSlot[frameNumber]] = true;
+        }
+    }
+
+    /**
+     * unpin frame
+     *
+     * @param frameNumber
+     */
+
+    public synchronized boolean unpin(int frameNumber) throws PageUnpinnedException, InvalidFrameNumberException {
+        checkFrameNumberBound(frameNumber);
+        if (frameDescArray[frameNumber].pin_count() == 0) {
+            throw new PageUnpinnedException(null, "ClockPro.unpin(): PageUnpinnedException.");
+        }
+        if (frameDescArray[frameNumber].unpin() == 0) {
+            countPinned--;
+        }
+        return true;
+    }
+
+    /**
+     * free frame
+     *
+     * @param frameNumber
+     */
+
+    public synchronized void free(int frameNumber) throws PagePinnedException {
+        if (frameDescArray[frameNumber].pin_count() > 1) {
+            throw new PagePinnedException(null, "ClockPro.free(): PagePinnedException.");
+        } else {
+            if (frameDescArray[frameNumber].pin_count() == 1) {
+                countPinned--;
+            }
+            frameDescArray[frameNumber].unpin();
+
+            final int slot = frameSlot[frameNumber];
+            if (slot != NIL) {
+                if (slotType[slot] == HOT) {
+                    countHot--;
+                } else {
+                    countCold--;
+                }
+                unlink(slot);
+                releaseSlot(slot);
+                frameSlot[frameNumber] = NIL;
+            }
+            if (!freeList.contains(frameNumber)) {
+                freeList.addLast(frameNumber);
+            }
+        }
+    }
+
+    /**
+     * Claims the frame and counts its pin, as pick_victim does.
+     *
+     * @param frameDesc
+     * @param frameNumber
+     * @return false if the frame is pinned.
+     */
+    synchronized boolean claim(FrameDesc frameDesc, int frameNumber) {
+        if (!frameDesc.claim()) {
+            return false;
+        }
+        countPinned++;
+        takeFree(frameNumber, INVALID_PAGE);
+        return true;
+    }
+
+    /**
+     * Takes the new frame table. Added frames go to the free list and get
+     * room for their clock entries. The entries of dropped frames leave the
+     * clock, and their pins by the buffer manager are not counted any more.
+     * Test entries stay, the test hand drops the ones over the new limit.
+     *
+     * @param javamgr
+     */
+    synchronized void resize(BufMgr javamgr) {
+        final int oldNumberOfBuffer = numberOfBuffer;
+        final FrameDesc[] oldFrameDescArray = frameDescArray;
+        frameDescArray = javamgr.frameTable();
+        numberOfBuffer = javamgr.getNumBuffers();
+
+        for (int inx = numberOfBuffer; inx < oldNumberOfBuffer; inx++) {
+            final int slot = frameSlot[inx];
+            if (slot != NIL) {
+                if (slotType[slot] == HOT) {
+                    countHot--;
+                } else {
+                    countCold--;
+                }
+                unlink(slot);
+                releaseSlot(slot);
+            }
+            if (oldFrameDescArray[inx].pin_count() != 0) {
+                countPinned--;
+            }
+        }
+        freeList.resize(numberOfBuffer);
+        frameSlot = Arrays.copyOf(frameSlot, numberOfBuffer);
+        for (int inx = oldNumberOfBuffer; inx < numberOfBuffer; inx++) {
+            frameSlot[inx] = NIL;
+            freeList.addLast(inx);
+        }
+
+        final int numberOfSlot = 2 * numberOfBuffer + 1;
+        if (numberOfSlot > next.length) {
+            final int oldNumberOfSlot = next.length;
+            next = Arrays.copyOf(next, numberOfSlot);
+            prev = Arrays.copyOf(prev, numberOfSlot);
+            slotPid = Arrays.copyOf(slotPid, numberOfSlot);
+            slotFrame = Arrays.copyOf(slotFrame, numberOfSlot);
+            slotType = Arrays.copyOf(slotType, numberOfSlot);
+            slotRef = Arrays.copyOf(slotRef, numberOfSlot);
+            slotInTest = Arrays.copyOf(slotInTest, numberOfSlot);
+            for (int inx = oldNumberOfSlot; inx < numberOfSlot; inx++) {
+                releaseSlot(inx);
+            }
+        }
+
+        coldTarget = Math.min(coldTarget, numberOfBuffer);
+        while (countTest > numberOfBuffer) {
+            runHandTest();
+        }
+        while (countHot > numberOfBuffer - coldTarget && countHot > 0) {
+            runHandHot();
+        }
+    }
+
+    /**
+     * Returns information from CLOCK-Pro replacement algorithm.
+     * 
+     * @return the cold target and the number of hot, cold and test pages.
+     */
+
+    public synchronized String info() {
+        return "ClockPro: coldTarget=" + coldTarget + " hot=" + countHot + " cold=" + countCold + " test=" + countTest;
+    }
+
+    /**
+     * return the number of buffers.
+     */
+    public int getNumberOfBuffer() {
+        return numberOfBuffer;
+    }
+
+    /**
+     * return the frame of the entry under the cold hand, the next page to
+     * be replaced.
+     */
+    int getHand() {
+        final int slot = handCold;
+        final int frame = (slot != NIL) ? slotFrame[slot] : NIL;
+        return (frame != NIL) ? frame : 0;
+    }
+
+}
@@ -15,18 +15,61 @@ package bufmgr;
 import global.GlobalConst;
 import global.PageId;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
 /**
  * A frame description class. It describes each page in the buffer pool, the
  * page number in the file, whether it is dirty or not, its pin count, and the
  * pin count change when pinning or unpinning a page.
+ * 
+ * The pin count, the dirty bit, the reference bit used by the clock, the
+ * flags telling whether a replacer has claimed the frame, the page is still
+ * being read in or was read ahead and not pinned yet, and a version counted
+ * up every time the frame is claimed all live in one long. It is changed by
+ * compare-and-set through a VarHandle, so pinning and unpinning a page is one
+ * atomic update without any lock, and a replacer learns everything about the
+ * frame from one read. The descriptor is still the monitor the threads
+ * waiting for a read sleep on, and the buffer manager holds it while it
+ * changes the page number.
  */
 public class FrameDesc implements GlobalConst {
 
-    private final PageId pageId;
+    /** Pin count, bits 0 to 23 of the state. */
+    private static final long PIN_MASK = 0xffffffL;
+
+    /** Set while the page in the frame differs from the one on disk. */
+    private static final long DIRTY = 1L << 24;
+
+    /** Set when the last pin is released, cleared by the clock hand. */
+    private static final long REFERENCED = 1L << 25;
+
+    /** Set from claim() until the new page is in the page table. */
+    private static final long REPLACING = 1L << 26;
+
+    /** Set while the page is read from disk into the frame. */
+    private static final long READING = 1L << 27;
+
+    /** Set when read-ahead brought the page in, until it is first pinned. */
+    private static final long PREFETCHED = 1L << 28;
+
+    /** The version is kept in the high 32 bits. */
+    private static final int VERSION_SHIFT = 32;
+
+    private static final VarHandle STATE;
+
+    static {
+        try {
+            STATE = MethodHandles.lookup().findVarHandle(FrameDesc.class, "state", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
 
-    private boolean dirty;
+    private final PageId pageId;
 
-    private int pin_cnt;
+    /** Pin count, flags and version, only changed through STATE. */
+    private volatile long state;
 
     /**
      * Creates a FrameDesc object, initialize pageNo, dirty and pin_count.
@@ -34,8 +77,41 @@ public class FrameDesc implements GlobalConst {
     public FrameDesc() {
         pageId = new PageId();
         pageId.pid = INVALID_PAGE;
-        dirty = false;
-        pin_cnt = 0;
+        state = 0;
+    }
+
+    /**
+     * Returns the whole state word, to be decoded with the static methods
+     * below.
+     * 
+     * @return the state.
+     */
+    public long getState() {
+        return state;
+    }
+
+    /**
+     * @param state
+     * @return the pin count in the state.
+     */
+    public static int pinCount(long state) {
+        return (int) (state & PIN_MASK);
+    }
+
+    /**
+     * @param state
+     * @return true if the reference bit is set in the state.
+     */
+    public static boolean isReferenced(long state) {
+        return (state & REFERENCED) != 0;
+    }
+
+    /**
+     * @param state
+     * @return the version in the state.
+     */
+    public static int version(long state) {
+        return (int) (state >>> VERSION_SHIFT);
     }
 
     /**
@@ -44,28 +120,197 @@ public class FrameDesc implements GlobalConst {
      * @return the pin count number.
      */
     public int pin_count() {
-        return pin_cnt;
+        return pinCount(state);
     }
 
     /**
      * Increments the pin count of a certain frame page when the page is pinned.
      * 
      * @return the incremented pin count.
+     * @exception IllegalStateException
+     *                if the pin count is at its maximum, which would carry
+     *                into the dirty bit.
      */
     public int pin() {
-        return (++pin_cnt);
+        long current;
+        do {
+            current = state;
+            if (pinCount(current) == PIN_MASK) {
+                throw new IllegalStateException("FrameDesc.pin(): too many pins of the frame");
+            }
+        } while (!STATE.weakCompareAndSet(this, current, current + 1));
+        return pinCount(current + 1);
     }
     
     /** 
      * Decrements the pin count of a frame when the page is
      * unpinned.  If the pin count is equal to or less than
-     * zero, the pin count will be zero.
+     * zero, the pin count will be zero. When the last pin
+     * is released the reference bit is set, and the frame
+     * is no longer being replaced.
      *
      * @return the decremented pin count.
      */
     public int unpin() {
-        pin_cnt = (pin_cnt > 0) ? pin_cnt - 1 : 0;
-        return pin_cnt;
+        long current;
+        long next;
+        do {
+            current = state;
+            final int count = pinCount(current);
+            if (count == 0) {
+                return 0;
+            }
+            next = current - 1;
+            if (count == 1) {
+                next = (next | REFERENCED) & ~REPLACING;
+            }
+        } while (!STATE.weakCompareAndSet(this, current, next));
+        return pinCount(next);
+    }
+
+    /**
+     * Pins the frame for a replacer if nobody has it pinned, marks it as
+     * being replaced and counts its version up.
+     * 
+     * @return true if the frame was claimed.
+     */
+    public boolean claim() {
+        long current;
+        do {
+            current = state;
+            if (pinCount(current) != 0) {
+                return false;
+            }
+        } while (!STATE.weakCompareAndSet(this, current, ((current & ~(REFERENCED | PREFETCHED)) | REPLACING | 1) + (1L << VERSION_SHIFT)));
+        return true;
+    }
+
+    /**
+     * Clears the reference bit if the state did not change since it was read.
+     * 
+     * @param expected
+     *            the state read before.
+     * @return true if the bit was cleared.
+     */
+    public boolean clearReference(long expected) {
+        return STATE.compareAndSet(this, expected, expected & ~REFERENCED);
+    }
+
+    /**
+     * @return the version, counted up every time the frame is claimed.
+     */
+    public int getVersion() {
+        return version(state);
+    }
+
+    /**
+     * Sets or clears the bits of the mask.
+     * 
+     * @param mask
+     * @param on
+     */
+    private void setFlag(long mask, boolean on) {
+        long current;
+        long next;
+        do {
+            current = state;
+            next = on ? (current | mask) : (current & ~mask);
+        } while (current != next && !STATE.weakCompareAndSet(this, current, next));
+    }
+
+    /**
+     * @return true if the frame is claimed to replace its page.
+     */
+    public boolean isReplacing() {
+        return (state & REPLACING) != 0;
+    }
+
+    /**
+     * set replacing status
+     * @param replacing
+     */
+    public void setReplacing(boolean replacing) {
+        setFlag(REPLACING, replacing);
+    }
+
+    /**
+     * @return true if read-ahead brought the page in and nobody pinned it yet.
+     */
+    public boolean isPrefetched() {
+        return (state & PREFETCHED) != 0;
+    }
+
+    /**
+     * set prefetched status
+     * @param prefetched
+     */
+    public void setPrefetched(boolean prefetched) {
+        setFlag(PREFETCHED, prefetched);
+    }
+
+    /**
+     * Clears the prefetched flag.
+     * 
+     * @return true if it was set, only for one of the callers.
+     */
+    public boolean takePrefetched() {
+        long current;
+        do {
+            current = state;
+            if ((current & PREFETCHED) == 0) {
+                return false;
+            }
+        } while (!STATE.weakCompareAndSet(this, current, current & ~PREFETCHED));
+        return true;
+    }
+
+    /**
+     * Marks the page as being read in.
+     */
+    public void startRead() {
+        setFlag(READING, true);
+    }
+
+    /**
+     * Marks the read as finished and wakes up the threads waiting for it.
+     */
+    public void endRead() {
+        setFlag(READING, false);
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * @return true if the page is being read in.
+     */
+    public boolean isReading() {
+        return (state & READING) != 0;
+    }
+
+    /**
+     * Waits until the page is not being read in any more.
+     * 
+     * @return true if the page was being read in and had to be waited for.
+     */
+    public boolean waitForRead() {
+        if (!isReading()) {
+            return false;
+        }
+        boolean interrupted = false;
+        synchronized (this) {
+            while (isReading()) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return true;
     }
     
     /**
@@ -85,7 +330,7 @@ public class FrameDesc implements GlobalConst {
      */
 
     public boolean isDirty() {
-        return dirty;
+        return (state & DIRTY) != 0;
     }
     
     /**
@@ -94,6 +339,6 @@ public class FrameDesc implements GlobalConst {
      */
 
     public void setDirty(boolean dirty) {
-        this.dirty = dirty;
+        setFlag(DIRTY, dirty);
     }
 }
\ No newline at end of file
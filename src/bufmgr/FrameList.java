@@ -0,0 +1,185 @@
+/* ------------------------------------------------------------------------
+ * @source  : FrameList.java
+ * @desc    : FrameList class
+ * ------------------------------------------------------------------------
+ *
+ * ------------------------------------------------------------------------
+ * VER  DATE         AUTHOR                           DESCRIPTION
+ * ---  -----------  -------------------------------  ---------------------
+ * 1.0  03.04. 2009  Wolff Jeffrey, KwangSoo Yang     Initialization
+ *
+ * ------------------------------------------------------------------------ */
+
+package bufmgr;
+
+import java.util.Arrays;
+
+/**
+ * A doubly linked list of frame numbers, used by the list based replacement
+ * policies. The links are kept in int arrays indexed by frame number, so
+ * moving a frame inside or between lists never allocates. A frame is in a
+ * list at most once.
+ */
+class FrameList {
+
+    private static final int NIL = -1;
+
+    private int[] next;
+
+    private int[] prev;
+
+    private boolean[] linked;
+
+    private int head;
+
+    private int tail;
+
+    private int size;
+
+    /**
+     * Creates an empty list for frames 0 .. numberOfBuffer - 1.
+     * 
+     * @param numberOfBuffer
+     */
+    public FrameList(int numberOfBuffer) {
+        next = new int[numberOfBuffer];
+        prev = new int[numberOfBuffer];
+        linked = new boolean[numberOfBuffer];
+        head = NIL;
+        tail = NIL;
+        size = 0;
+    }
+
+    /**
+     * Makes room for frames 0 .. numberOfBuffer - 1. Frames beyond are taken
+     * out of the list first.
+     * 
+     * @param numberOfBuffer
+     */
+    public void resize(int numberOfBuffer) {
+        for (int inx = numberOfBuffer; inx < linked.length; inx++) {
+            remove(inx);
+        }
+        next = Arrays.copyOf(next, numberOfBuffer);
+        prev = Arrays.copyOf(prev, numberOfBuffer);
+        linked = Arrays.copyOf(linked, numberOfBuffer);
+    }
+
+    /**
+     * check whether the frame is in this list.
+     * 
+     * @param frameNo
+     * @return true if the frame is linked in this list.
+     */
+    public boolean contains(int frameNo) {
+        return linked[frameNo];
+    }
+
+    /**
+     * add the frame at the head (most recent end) of the list.
+     * 
+     * @param frameNo
+     */
+    public void addFirst(int frameNo) {
+        prev[frameNo] = NIL;
+        next[frameNo] = head;
+        if (head != NIL) {
+            prev[head] = frameNo;
+        } else {
+            tail = frameNo;
+        }
+        head = frameNo;
+        linked[frameNo] = true;
+        size++;
+    }
+
+    /**
+     * add the frame at the tail (oldest end) of the list.
+     * 
+     * @param frameNo
+     */
+    public void addLast(int frameNo) {
+        next[frameNo] = NIL;
+        prev[frameNo] = tail;
+        if (tail != NIL) {
+            next[tail] = frameNo;
+        } else {
+            head = frameNo;
+        }
+        tail = frameNo;
+        linked[frameNo] = true;
+        size++;
+    }
+
+    /**
+     * unlink the frame. Nothing happens if it is not in this list.
+     * 
+     * @param frameNo
+     * @return true if the frame was in this list.
+     */
+    public boolean remove(int frameNo) {
+        if (!linked[frameNo]) {
+            return false;
+        }
+        if (prev[frameNo] != NIL) {
+            next[prev[frameNo]] = next[frameNo];
+        } else {
+            head = next[frameNo];
+        }
+        if (next[frameNo] != NIL) {
+            prev[next[frameNo]] = prev[frameNo];
+        } else {
+            tail = prev[frameNo];
+        }
+        linked[frameNo] = false;
+        size--;
+        return true;
+    }
+
+    /**
+     * move the frame to the head of the list.
+     * 
+     * @param frameNo
+     */
+    public void moveToFirst(int frameNo) {
+        remove(frameNo);
+        addFirst(frameNo);
+    }
+
+    /**
+     * @return the frame at the head, or -1 if the list is empty.
+     */
+    public int first() {
+        return head;
+    }
+
+    /**
+     * @return the frame at the tail, or -1 if the list is empty.
+     */
+    public int last() {
+        return tail;
+    }
+
+    /**
+     * @param frameNo
+     * @return the frame behind frameNo (towards the tail), or -1.
+     */
+    public int next(int frameNo) {
+        return next[frameNo];
+    }
+
+    /**
+     * @param frameNo
+     * @return the frame before frameNo (towards the head), or -1.
+     */
+    public int prev(int frameNo) {
+        return prev[frameNo];
+    }
+
+    /**
+     * @return the number of frames in the list.
+     */
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,165 @@
+/* ------------------------------------------------------------------------
+ * @source  : FrequencySketch.java
+ * @desc    : FrequencySketch class
+ * ------------------------------------------------------------------------
+ *
+ * ------------------------------------------------------------------------
+ * VER  DATE         AUTHOR                           DESCRIPTION
+ * ---  -----------  -------------------------------  ---------------------
+ * 1.0  03.04. 2009  Wolff Jeffrey, KwangSoo Yang     Initialization
+ *
+ * ------------------------------------------------------------------------ */
+
+package bufmgr;
+
+/**
+ * A Count-Min sketch that estimates how often each page number was pinned
+ * recently. The counters are 4 bits wide, sixteen to a long, and every page
+ * number is counted in four of them. The table has one long per frame
+ * (rounded up to a power of two), so its size does not depend on the number
+ * of pages seen, and it is resized with the pool. After ten increments per
+ * frame every counter is halved, so old popularity fades away.
+ */
+class FrequencySketch {
+
+    private static final long[] SEED = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    private long[] table;
+
+    private int tableMask;
+
+    private int sampleSize;
+
+    private int size;
+
+    /**
+     * Creates a sketch for a buffer pool.
+     * 
+     * @param numberOfBuffer
+     *            the number of frames in the buffer pool.
+     */
+    public FrequencySketch(int numberOfBuffer) {
+        final int length = tableLength(numberOfBuffer);
+        table = new long[length];
+        tableMask = length - 1;
+        sampleSize = 10 * Math.max(numberOfBuffer, 1);
+        size = 0;
+    }
+
+    /**
+     * Resizes the sketch for a pool that grew or shrank, keeping the counts.
+     * A counter is kept at every index its page numbers map to in the new
+     * table, and counters that fall together keep the larger count, so no
+     * page is estimated less often pinned than before.
+     * 
+     * @param numberOfBuffer
+     *            the new number of frames in the buffer pool.
+     */
+    public void resize(int numberOfBuffer) {
+        final int length = tableLength(numberOfBuffer);
+        if (length != table.length) {
+            final long[] newTable = new long[length];
+            final int newMask = length - 1;
+            for (int inx = 0; inx < Math.max(length, table.length); inx++) {
+                newTable[inx & newMask] = max(newTable[inx & newMask], table[inx & tableMask]);
+            }
+            table = newTable;
+            tableMask = newMask;
+        }
+        sampleSize = 10 * Math.max(numberOfBuffer, 1);
+        while (size >= sampleSize) {
+            reset();
+        }
+    }
+
+    /**
+     * @param numberOfBuffer
+     * @return the number of longs of the table, a power of two.
+     */
+    private static int tableLength(int numberOfBuffer) {
+        int length = 16;
+        while (length < numberOfBuffer) {
+            length <<= 1;
+        }
+        return length;
+    }
+
+    /**
+     * @param a
+     * @param b
+     * @return sixteen counters, each the larger of the counters of a and b.
+     */
+    private static long max(long a, long b) {
+        long max = 0;
+        for (int shift = 0; shift < 64; shift += 4) {
+            max |= Math.max((a >>> shift) & 0xfL, (b >>> shift) & 0xfL) << shift;
+        }
+        return max;
+    }
+
+    /**
+     * Count one more pin of the page.
+     * 
+     * @param pid
+     *            page number.
+     */
+    public void increment(int pid) {
+        boolean added = false;
+        for (int depth = 0; depth < SEED.length; depth++) {
+            final long hash = hash(pid, depth);
+            final int index = (int) hash & tableMask;
+            final int shift = (int) (hash >>> 60) << 2;
+            if (((table[index] >>> shift) & 0xfL) != 0xfL) {
+                table[index] += 1L << shift;
+                added = true;
+            }
+        }
+        if (added && ++size >= sampleSize) {
+            reset();
+        }
+    }
+
+    /**
+     * Estimate how often the page was pinned.
+     * 
+     * @param pid
+     *            page number.
+     * @return the estimated count, between 0 and 15.
+     */
+    public int frequency(int pid) {
+        int frequency = 0xf;
+        for (int depth = 0; depth < SEED.length; depth++) {
+            final long hash = hash(pid, depth);
+            final int index = (int) hash & tableMask;
+            final int shift = (int) (hash >>> 60) << 2;
+            frequency = Math.min(frequency, (int) ((table[index] >>> shift) & 0xfL));
+        }
+        return frequency;
+    }
+
+    /**
+     * Halve every counter.
+     */
+    private void reset() {
+        for (int inx = 0; inx < table.length; inx++) {
+            table[inx] = (table[inx] >>> 1) & RESET_MASK;
+        }
+        size >>>= 1;
+    }
+
+    /**
+     * Mix the page number with the seed of the given row.
+     * 
+     * @param pid
+     * @param depth
+     * @return a 64 bit hash.
+     */
+    private static long hash(int pid, int depth) {
+        long hash = (pid + SEED[depth]) * SEED[depth];
+        hash ^= hash >>> 32;
+        hash *= 0x9e3779b97f4a7c15L;
+        return hash ^ (hash >>> 29);
+    }
+}
@@ -0,0 +1,217 @@
+/* ------------------------------------------------------------------------
+ * @source  : GhostList.java
+ * @desc    : GhostList class
+ * ------------------------------------------------------------------------
+ *
+ * ------------------------------------------------------------------------
+ * VER  DATE         AUTHOR                           DESCRIPTION
+ * ---  -----------  -------------------------------  ---------------------
+ * 1.0  03.04. 2009  Wolff Jeffrey, KwangSoo Yang     Initialization
+ *
+ * ------------------------------------------------------------------------ */
+
+package bufmgr;
+
+import global.GlobalConst;
+
+import java.util.Arrays;
+
+/**
+ * A bounded list of the page numbers of recently replaced pages. It only keeps
+ * page numbers, never frames or page contents, and finds a page through a
+ * BufHashTbl that maps the page number to its slot in the list. When the list
+ * is full the oldest page number is dropped.
+ */
+class GhostList implements GlobalConst {
+
+    private static final int NIL = -1;
+
+    private int capacity;
+
+    private int[] pageNo;
+
+    private int[] next;
+
+    private int[] prev;
+
+    private final BufHashTbl slotTable;
+
+    private int head;
+
+    private int tail;
+
+    private int freeSlot;
+
+    private int size;
+
+    /**
+     * Creates an empty ghost list.
+     * 
+     * @param capacity
+     *            the maximum number of page numbers kept.
+     */
+    public GhostList(int capacity) {
+        this.capacity = (capacity > 0) ? capacity : 1;
+        pageNo = new int[this.capacity];
+        next = new int[this.capacity];
+        prev = new int[this.capacity];
+        slotTable = new BufHashTbl(this.capacity);
+        head = NIL;
+        tail = NIL;
+        size = 0;
+
+        // Chain all slots into the free list.
+        for (int inx = 0; inx < this.capacity; inx++) {
+            next[inx] = inx + 1;
+        }
+        next[this.capacity - 1] = NIL;
+        freeSlot = 0;
+    }
+
+    /**
+     * Changes the maximum number of page numbers kept. When it shrinks the
+     * oldest page numbers are dropped, and the slots are kept for later.
+     * 
+     * @param newCapacity
+     */
+    public void resize(int newCapacity) {
+        newCapacity = (newCapacity > 0) ? newCapacity : 1;
+        while (size > newCapacity) {
+            removeLast();
+        }
+        if (newCapacity > pageNo.length) {
+            final int oldLength = pageNo.length;
+            pageNo = Arrays.copyOf(pageNo, newCapacity);
+            next = Arrays.copyOf(next, newCapacity);
+            prev = Arrays.copyOf(prev, newCapacity);
+            for (int inx = oldLength; inx < newCapacity; inx++) {
+                next[inx] = (inx + 1 < newCapacity) ? inx + 1 : freeSlot;
+            }
+            freeSlot = oldLength;
+        }
+        capacity = newCapacity;
+    }
+
+    /**
+     * @param pid
+     *            page number.
+     * @return true if the page number is in the list.
+     */
+    public boolean contains(int pid) {
+        if (pid == INVALID_PAGE) {
+            return false;
+        }
+        return slotTable.lookup(pid) != INVALID_PAGE;
+    }
+
+    /**
+     * @param pid
+     *            page number.
+     * @return the slot of the page number, or -1 if it is not in the list.
+     *         A slot stays the same while its page number is in the list and
+     *         is below the largest capacity the list had, so a caller can
+     *         keep data of its own per slot.
+     */
+    public int slotOf(int pid) {
+        if (pid == INVALID_PAGE) {
+            return NIL;
+        }
+        final int slot = slotTable.lookup(pid);
+        return (slot == INVALID_PAGE) ? NIL : slot;
+    }
+
+    /**
+     * add the page number at the head (most recent end). The oldest page
+     * number is dropped if the list is full.
+     * 
+     * @param pid
+     *            page number.
+     */
+    public void addFirst(int pid) {
+        if (pid == INVALID_PAGE || contains(pid)) {
+            return;
+        }
+        if (size == capacity) {
+            removeLast();
+        }
+        final int slot = freeSlot;
+        freeSlot = next[slot];
+
+        pageNo[slot] = pid;
+        prev[slot] = NIL;
+        next[slot] = head;
+        if (head != NIL) {
+            prev[head] = slot;
+        } else {
+            tail = slot;
+        }
+        head = slot;
+        size++;
+
+        slotTable.insert(pid, slot);
+    }
+
+    /**
+     * remove the page number from the list.
+     * 
+     * @param pid
+     *            page number.
+     * @return true if the page number was in the list.
+     */
+    public boolean remove(int pid) {
+        if (pid == INVALID_PAGE) {
+            return false;
+        }
+        final int slot = slotTable.lookup(pid);
+        if (slot == INVALID_PAGE) {
+            return false;
+        }
+        unlink(slot);
+        return true;
+    }
+
+    /**
+     * remove the oldest page number.
+     * 
+     * @return the page number removed, or INVALID_PAGE if the list is empty.
+     */
+    public int removeLast() {
+        if (tail == NIL) {
+            return INVALID_PAGE;
+        }
+        final int pid = pageNo[tail];
+        unlink(tail);
+        return pid;
+    }
+
+    /**
+     * @return the number of page numbers in the list.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * unlink the slot and give it back to the free list.
+     * 
+     * @param slot
+     */
+    private void unlink(int slot) {
+        if (prev[slot] != NIL) {
+            next[prev[slot]] = next[slot];
+        } else {
+            head = next[slot];
+        }
+        if (next[slot] != NIL) {
+            prev[next[slot]] = prev[slot];
+        } else {
+            tail = prev[slot];
+        }
+        size--;
+
+        slotTable.remove(pageNo[slot]);
+
+        next[slot] = freeSlot;
+        freeSlot = slot;
+    }
+}
@@ -0,0 +1,438 @@
+/* ------------------------------------------------------------------------
+ * @source  : LRUK.java
+ * @desc    : LRUK class
+ * ------------------------------------------------------------------------
+ *
+ * ------------------------------------------------------------------------
+ * VER  DATE         AUTHOR                           DESCRIPTION
+ * ---  -----------  -------------------------------  ---------------------
+ * 1.0  03.04. 2009  Wolff Jeffrey, KwangSoo Yang     Initialization
+ *
+ * ------------------------------------------------------------------------ */
+
+package bufmgr;
+
+import global.PageId;
+
+import java.util.Arrays;
+
+/**
+ * An LRU-K algorithm for buffer pool replacement policy. It remembers the last
+ * K reference times of every page in the pool and picks up the unpinned frame
+ * whose K-th most recent reference is the oldest. A page referenced fewer than
+ * K times has an infinite backward K-distance, so pages touched once by a scan
+ * are replaced before pages that are re-pinned, and ties are broken by the
+ * most recent reference (plain LRU).
+ * <p>
+ * The history of a replaced page is kept in a bounded list of page numbers, as
+ * many as there are frames, so a page read in again gets its history back
+ * instead of starting over like a scan page. The unpinned frames are kept in a
+ * heap ordered by their K-th reference, so a victim is found in O(log n). A
+ * frame's history only changes while it is pinned or claimed, out of the heap.
+ */
+public class LRUK extends Replacer {
+
+    private static final int DEFAULT_K = 2;
+
+    private final int k;
+
+    private int numberOfBuffer;
+
+    /**
+     * Reference history, K slots per frame. history[frame * k] is the most
+     * recent reference time and history[frame * k + k - 1] the K-th most
+     * recent one. 0 means "no reference".
+     */
+    private long history[];
+
+    /** Page numbers of replaced pages whose history is kept. */
+    private final GhostList retained;
+
+    /** History of the replaced pages, K slots per slot of retained. */
+    private long retainedHistory[];
+
+    /** The unpinned frames, a binary heap with the victim first. */
+    private int heap[];
+
+    /** Position of each frame in the heap, -1 if it is pinned. */
+    private int heapIndex[];
+
+    private int heapSize;
+
+    private long currentTime;
+
+    private FrameDesc[] frameDescArray;
+
+    /**
+     * Creates an LRU-2 object.
+     *
+     * @param javamgr
+     */
+    public LRUK(BufMgr javamgr) {
+        this(javamgr, DEFAULT_K);
+    }
+
+    /**
+     * Creates an LRU-K object.
+     *
+     * @param javamgr
+     * @param k
+     *            number of reference times remembered per page.
+     */
+    public LRUK(BufMgr javamgr, int k) {
+        this.k = (k > 0) ? k : DEFAULT_K;
+        currentTime = 0;
+        numberOfBuffer = javamgr.getNumBuffers();
+        history = new long[numberOfBuffer * this.k];
+        retained = new GhostList(numberOfBuffer);
+        retainedHistory = new long[Math.max(1, numberOfBuffer) * this.k];
+        frameDescArray = javamgr.frameTable();
+
+        heap = new int[numberOfBuffer];
+        heapIndex = new int[numberOfBuffer];
+        heapSize = 0;
+        for (int inx = 0; inx < numberOfBuffer; inx++) {
+            heapIndex[inx] = -1;
+            heapAdd(inx);
+        }
+    }
+
+    /**
+     * Picks up the victim frame to be replaced according to the LRU-K
+     * algorithm when the new page is not known.
+     *
+     * @return the victim frame number.
+     * @throws BufferPoolExceededException
+     *             if every frame is pinned.
+     */
+
+    public synchronized int pick_victim() throws BufferPoolExceededException, PagePinnedException {
+        return pick_victim(null);
+    }
+
+    /**
+     * Chooses the victim frame according to the LRU-K algorithm, the first
+     * one of the heap.
+     *
+     * @param pageId
+     *            ignored.
+     * @return the victim frame number.
+     * @throws BufferPoolExceededException
+     *             if every frame is pinned.
+     */
+    synchronized int peek_victim(PageId pageId) throws BufferPoolExceededException {
+        if (heapSize == 0) {
+            throw new BufferPoolExceededException(null, "LRUK.pick_victim(): BufferPoolExceededException");
+        }
+        return heap[0];
+    }
+
+    /**
+     * Claims the frame for the given page. The history of the page replaced
+     * is kept, and the history kept for the new page, if any, comes back.
+     *
+     * @param frameNumber
+     * @param pageId
+     * @return false if the frame is pinned.
+     */
+    synchronized boolean commit_victim(int frameNumber, PageId pageId) {
+        if (!frameDescArray[frameNumber].claim()) {
+            return false;
+        }
+        heapRemove(frameNumber);
+
+        retain(frameNumber);
+        restore(frameNumber, (pageId != null) ? pageId.pid : INVALID_PAGE);
+        reference(frameNumber);
+        return true;
+    }
+
+    /**
+     * @param pid
+     * @return true if the history of the page is kept.
+     */
+    synchronized boolean isGhost(int pid) {
+        return retained.contains(pid);
+    }
+
+    /**
+     * Returns the name of the LRU-K algorithm as a string.
+     *
+     * @return "LRUK", the name of the algorithm.
+     */
+
+    public final String name() {
+        return "LRUK";
+    }
+
+    /**
+     * check frame number bound. if the bound is more than the number of buffer
+     * or less than 0, throw exception.
+     *
+     * @param frameNumber
+     * @throws InvalidFrameNumberException
+     */
+    public void checkFrameNumberBound(int frameNumber) throws InvalidFrameNumberException {
+        if (frameNumber < 0 || frameNumber >= numberOfBuffer) {
+            throw new InvalidFrameNumberException(null, "LRUK.checkFrameNumberRange: InvalidFrameNumberException");
+        }
+    }
+
+    /**
+     * pin frame, and record the reference time.
+     *
+     * @param frameNumber
+     */
+    public synchronized void pin(int frameNumber) throws InvalidFrameNumberException {
+        checkFrameNumberBound(frameNumber);
+        if (frameDescArray[frameNumber].pin() == 1) {
+            heapRemove(frameNumber);
+        }
+        reference(frameNumber);
+    }
+
+    /**
+     * unpin frame
+     *
+     * @param frameNumber
+     */
+
+    public synchronized boolean unpin(int frameNumber) throws PageUnpinnedException, InvalidFrameNumberException {
+        checkFrameNumberBound(frameNumber);
+        if (frameDescArray[frameNumber].pin_count() == 0) {
+            throw new PageUnpinnedException(null, "LRUK.unpin(): PageUnpinnedException.");
+        }
+        if (frameDescArray[frameNumber].unpin() == 0) {
+            heapAdd(frameNumber);
+        }
+        return true;
+    }
+
+    /**
+     * free frame. The page is gone, so its history is not kept.
+     *
+     * @param frameNumber
+     */
+
+    public synchronized void free(int frameNumber) throws PagePinnedException {
+        if (frameDescArray[frameNumber].pin_count() > 1) {
+            throw new PagePinnedException(null, "LRUK.free(): PagePinnedException.");
+        } else {
+            heapRemove(frameNumber);
+            clearHistory(frameNumber);
+            frameDescArray[frameNumber].unpin();
+            if (frameDescArray[frameNumber].pin_count() == 0) {
+                heapAdd(frameNumber);
+            }
+        }
+    }
+
+    /**
+     * Claims the frame and takes it out of the heap.
+     *
+     * @param frameDesc
+     * @param frameNumber
+     * @return false if the frame is pinned.
+     */
+    synchronized boolean claim(FrameDesc frameDesc, int frameNumber) {
+        if (!frameDesc.claim()) {
+            return false;
+        }
+        heapRemove(frameNumber);
+        return true;
+    }
+
+    /**
+     * Takes the new frame table. Added frames start without history and go in
+     * the heap, dropped ones were claimed and are out of it already. As many
+     * histories of replaced pages are kept as there are frames.
+     *
+     * @param javamgr
+     */
+    synchronized void resize(BufMgr javamgr) {
+        final int oldNumberOfBuffer = numberOfBuffer;
+        frameDescArray = javamgr.frameTable();
+        numberOfBuffer = javamgr.getNumBuffers();
+        history = Arrays.copyOf(history, numberOfBuffer * k);
+        retained.resize(numberOfBuffer);
+        if (numberOfBuffer * k > retainedHistory.length) {
+            retainedHistory = Arrays.copyOf(retainedHistory, numberOfBuffer * k);
+        }
+
+        heap = Arrays.copyOf(heap, numberOfBuffer);
+        heapIndex = Arrays.copyOf(heapIndex, numberOfBuffer);
+        for (int inx = oldNumberOfBuffer; inx < numberOfBuffer; inx++) {
+            heapIndex[inx] = -1;
+            heapAdd(inx);
+        }
+    }
+
+    /**
+     * Shift the history of the frame and store the current time as its most
+     * recent reference.
+     *
+     * @param frameNumber
+     */
+    private void reference(int frameNumber) {
+        final int base = frameNumber * k;
+        for (int inx = k - 1; inx > 0; inx--) {
+            history[base + inx] = history[base + inx - 1];
+        }
+        history[base] = ++currentTime;
+    }
+
+    /**
+     * Forget every reference of the frame.
+     *
+     * @param frameNumber
+     */
+    private void clearHistory(int frameNumber) {
+        final int base = frameNumber * k;
+        for (int inx = 0; inx < k; inx++) {
+            history[base + inx] = 0;
+        }
+    }
+
+    /**
+     * Keep the history of the page in the frame, which is being replaced. The
+     * oldest history kept is dropped if the list is full.
+     *
+     * @param frameNumber
+     */
+    private void retain(int frameNumber) {
+        final int pid = frameDescArray[frameNumber].getPageId().pid;
+        if (pid == INVALID_PAGE) {
+            return;
+        }
+        retained.remove(pid);
+        retained.addFirst(pid);
+        System.arraycopy(history, frameNumber * k, retainedHistory, retained.slotOf(pid) * k, k);
+    }
+
+    /**
+     * Give the frame the history kept for the page, or none if there is none.
+     *
+     * @param frameNumber
+     * @param pid
+     *            the page read into the frame, INVALID_PAGE if it is not
+     *            known.
+     */
+    private void restore(int frameNumber, int pid) {
+        final int slot = retained.slotOf(pid);
+        if (slot < 0) {
+            clearHistory(frameNumber);
+            return;
+        }
+        System.arraycopy(retainedHistory, slot * k, history, frameNumber * k, k);
+        retained.remove(pid);
+    }
+
+    /**
+     * @param a
+     * @param b
+     * @return true if frame a is replaced before frame b: its K-th reference
+     *         is older, or the same and its last reference is older.
+     */
+    private boolean before(int a, int b) {
+        final long kthA = history[a * k + k - 1];
+        final long kthB = history[b * k + k - 1];
+        return kthA < kthB || (kthA == kthB && history[a * k] < history[b * k]);
+    }
+
+    /**
+     * Put the unpinned frame in the heap.
+     *
+     * @param frameNumber
+     */
+    private void heapAdd(int frameNumber) {
+        if (heapIndex[frameNumber] >= 0) {
+            return;
+        }
+        heap[heapSize] = frameNumber;
+        heapIndex[frameNumber] = heapSize;
+        heapSize++;
+        siftUp(heapSize - 1);
+    }
+
+    /**
+     * Take the frame out of the heap, if it is in.
+     *
+     * @param frameNumber
+     */
+    private void heapRemove(int frameNumber) {
+        final int pos = heapIndex[frameNumber];
+        if (pos < 0) {
+            return;
+        }
+        heapIndex[frameNumber] = -1;
+        heapSize--;
+        if (pos == heapSize) {
+            return;
+        }
+        heap[pos] = heap[heapSize];
+        heapIndex[heap[pos]] = pos;
+        siftDown(pos);
+        siftUp(pos);
+    }
+
+    /**
+     * Move the frame at the position up while it comes before its parent.
+     *
+     * @param pos
+     */
+    private void siftUp(int pos) {
+        final int frame = heap[pos];
+        while (pos > 0) {
+            final int parent = (pos - 1) / 2;
+            if (!before(frame, heap[parent])) {
+                break;
+            }
+            heap[pos] = heap[parent];
+            heapIndex[heap[pos]] = pos;
+            pos = parent;
+        }
+        heap[pos] = frame;
+        heapIndex[frame] = pos;
+    }
+
+    /**
+     * Move the frame at the position down while a child comes before it.
+     *
+     * @param pos
+     */
+    private void siftDown(int pos) {
+        final int frame = heap[pos];
+        while (2 * pos + 1 < heapSize) {
+            int child = 2 * pos + 1;
+            if (child + 1 < heapSize && before(heap[child + 1], heap[child])) {
+                child++;
+            }
+            if (!before(heap[child], frame)) {
+                break;
+            }
+            heap[pos] = heap[child];
+            heapIndex[heap[pos]] = pos;
+            pos = child;
+        }
+        heap[pos] = frame;
+        heapIndex[frame] = pos;
+    }
+
+    /**
+     * Returns information from LRU-K replacement algorithm.
+     *
+     * @return K, the unpinned frames and the histories kept.
+     */
+
+    public synchronized String info() {
+        return "LRUK: k=" + k + " unpinned=" + heapSize + " retained=" + retained.size();
+    }
+
+    /**
+     * return the number of buffers.
+     */
+    public int getNumberOfBuffer() {
+        return numberOfBuffer;
+    }
+
+}
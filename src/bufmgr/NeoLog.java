@@ -15,6 +15,15 @@ package bufmgr;
 /**
  * this is special log to debugging the frame/page status. If you want to change
  * the directory, you should change the value of "output" variable.
+ * 
+ * The log is off unless the system property bufmgr.log is "trace" (for
+ * example java -Dbufmgr.log=trace tests.BMTest). The level is read once into
+ * a static final field, so a call guarded by TRACE_ENABLED is dropped by the
+ * compiler when the log is off. When it is on, trace() packs an operation
+ * into one long and stores it in a preallocated ring buffer without locking
+ * or allocating, and a daemon thread turns the records into text lines and
+ * writes them to the log file in batches. If the ring is overrun the oldest
+ * records are lost and the number lost is written instead.
  */
 import java.io.File;
 import java.io.FileOutputStream;
@@ -22,9 +31,42 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
 
 public class NeoLog {
 
+    /** Nothing is logged. */
+    public static final int OFF = 0;
+
+    /** Every page table operation is logged. */
+    public static final int TRACE = 1;
+
+    /** The level given by the bufmgr.log system property. */
+    public static final int LEVEL = parseLevel(System.getProperty("bufmgr.log"));
+
+    /** True if trace() records anything, test it before calling trace(). */
+    public static final boolean TRACE_ENABLED = LEVEL >= TRACE;
+
+    /** Operation codes of trace records. */
+    public static final int INSERT = 1;
+
+    public static final int LOOKUP = 2;
+
+    public static final int REMOVE = 3;
+
+    private static final String[] OP_NAMES = { "", "[INSERT]", "[LOOK UP]", "[REMOVE]" };
+
+    /** Number of records in the ring, a power of two. */
+    private static final int RING_SIZE = 1 << 16;
+
+    /** Bytes of text written to the file at once. */
+    private static final int BATCH_SIZE = 64 * 1024;
+
+    /** How long the writer thread sleeps when the ring is empty. */
+    private static final long IDLE_NANOS = 1000000L;
+
     private static final NeoLog log = new NeoLog();
 
     private FileChannel channel;
@@ -35,11 +77,27 @@ public class NeoLog {
 
     private String output;
 
+    /** Records, op in the top 8 bits, frame in the next 24, page in the low 32. */
+    private AtomicLongArray ring;
+
+    /** ring[i] holds record number seq[i] - 1, 0 means never written. */
+    private AtomicLongArray seq;
+
+    /** Number of records claimed by trace(). */
+    private final AtomicLong head = new AtomicLong();
+
+    /** Number of records handled by the writer thread. */
+    private volatile long tail;
+
     /**
      * default constructor
      * 
      */
     private NeoLog() {
+        if (!TRACE_ENABLED) {
+            channel = null;
+            return;
+        }
         try {
 
             String osType = System.getProperty("os.name");
@@ -58,7 +116,37 @@ public class NeoLog {
             channel = out.getChannel();
         } catch (Exception e) {
             channel = null;
+            return;
+        }
+
+        ring = new AtomicLongArray(RING_SIZE);
+        seq = new AtomicLongArray(RING_SIZE);
+
+        final Thread writer = new Thread(new Runnable() {
+            public void run() {
+                drainLoop();
+            }
+        }, "NeoLog writer");
+        writer.setDaemon(true);
+        writer.start();
+
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            public void run() {
+                flush();
+            }
+        }, "NeoLog flush"));
+    }
+
+    /**
+     * @param value
+     *            the bufmgr.log property, may be null.
+     * @return the log level it names, OFF if it is null or unknown.
+     */
+    private static int parseLevel(String value) {
+        if (value != null && value.equalsIgnoreCase("trace")) {
+            return TRACE;
         }
+        return OFF;
     }
 
     /**
@@ -70,6 +158,150 @@ public class NeoLog {
         return log;
     }
 
+    /**
+     * Record a page table operation. It only stores one long in the ring
+     * buffer, so callers on the pin path may use it.
+     * 
+     * @param op
+     *            INSERT, LOOKUP or REMOVE.
+     * @param pid
+     *            page number.
+     * @param frameNo
+     *            frame number, or INVALID_PAGE if there is none.
+     */
+    public void trace(int op, int pid, int frameNo) {
+        if (ring == null) {
+            return;
+        }
+        final long number = head.getAndIncrement();
+        final int inx = (int) number & (RING_SIZE - 1);
+        // Mark the slot as being written first, so the writer thread never
+        // takes a half-replaced record for the one it expects.
+        seq.set(inx, 0);
+        ring.setRelease(inx, ((long) op << 56) | ((long) (frameNo & 0xffffff) << 32) | (pid & 0xffffffffL));
+        seq.setRelease(inx, number + 1);
+    }
+
+    /**
+     * Write out every record traced so far. Returns at once if the log is off.
+     */
+    public void flush() {
+        if (ring == null) {
+            return;
+        }
+        final long target = head.get();
+        while (tail < target) {
+            LockSupport.parkNanos(IDLE_NANOS);
+        }
+    }
+
+    /**
+     * Body of the writer thread: move records from the ring into the file
+     * until the program ends.
+     */
+    private void drainLoop() {
+        final ByteBuffer batch = ByteBuffer.allocateDirect(BATCH_SIZE);
+        long next = 0;
+        long lost = 0;
+
+        while (true) {
+            final long claimed = head.get();
+            if (claimed - next > RING_SIZE) {
+                // The producers went round the ring before we could read.
+                lost += claimed - RING_SIZE - next;
+                next = claimed - RING_SIZE;
+            }
+
+            boolean stalled = (next == claimed);
+            while (next < claimed) {
+                final int inx = (int) next & (RING_SIZE - 1);
+                final long before = seq.getAcquire(inx);
+                if (before < next + 1) {
+                    // Claimed but not stored yet, try again later.
+                    stalled = true;
+                    break;
+                }
+                final long record = ring.getAcquire(inx);
+                if (before == next + 1 && seq.getAcquire(inx) == before) {
+                    if (lost > 0) {
+                        appendLost(batch, lost);
+                        lost = 0;
+                    }
+                    appendRecord(batch, record);
+                } else {
+                    lost++;
+                }
+                next++;
+                if (batch.remaining() < 128) {
+                    write(batch);
+                }
+            }
+            write(batch);
+            tail = next;
+
+            if (stalled) {
+                LockSupport.parkNanos(IDLE_NANOS);
+            }
+        }
+    }
+
+    /**
+     * Append one record as a text line like "[INSERT] page 7 frame 3".
+     */
+    private static void appendRecord(ByteBuffer batch, long record) {
+        final int op = (int) (record >>> 56);
+        final int frameNo = (int) (record << 8 >> 40);
+        final int pid = (int) record;
+
+        appendAscii(batch, (op > 0 && op < OP_NAMES.length) ? OP_NAMES[op] : "[?]");
+        appendAscii(batch, " page ");
+        appendNumber(batch, pid);
+        appendAscii(batch, " frame ");
+        appendNumber(batch, frameNo);
+        batch.put((byte) '\n');
+    }
+
+    private static void appendLost(ByteBuffer batch, long lost) {
+        appendAscii(batch, "[LOST] ");
+        appendNumber(batch, lost);
+        appendAscii(batch, " records\n");
+    }
+
+    private static void appendAscii(ByteBuffer batch, String str) {
+        for (int inx = 0; inx < str.length(); inx++) {
+            batch.put((byte) str.charAt(inx));
+        }
+    }
+
+    private static void appendNumber(ByteBuffer batch, long value) {
+        if (value < 0) {
+            batch.put((byte) '-');
+            value = -value;
+        }
+        long divisor = 1;
+        while (value / divisor >= 10) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            batch.put((byte) ('0' + (value / divisor) % 10));
+        }
+    }
+
+    /**
+     * Write the batch to the log file and clear it.
+     */
+    private void write(ByteBuffer batch) {
+        batch.flip();
+        try {
+            while (batch.hasRemaining()) {
+                channel.write(batch);
+            }
+        } catch (IOException e) {
+            System.err.println("Log.write() error: " + e);
+        }
+        batch.clear();
+    }
+
     /**
      * write log into file
      * 
@@ -81,7 +313,6 @@ public class NeoLog {
     private void print(String str, boolean newline) {
 
         if (channel == null) {
-            System.err.println("Log.print() error: channel is null");
             return;
         }
 
@@ -96,7 +327,7 @@ public class NeoLog {
     }
 
     /**
-     * write log into file
+     * write log into file, nothing is done if the log is off.
      * 
      * @param str
      */
@@ -105,7 +336,7 @@ public class NeoLog {
     }
 
     /**
-     * write log into file
+     * write log into file, nothing is done if the log is off.
      * 
      * @param str
      */
@@ -12,11 +12,23 @@
 package bufmgr;
 
 import global.GlobalConst;
+import global.PageId;
 
 /**
  * Repalcer class It is a abstract class to implement Replacement algorithm.(eg,
  * Clock)
  * 
+ * The buffer manager calls a replacer from many threads at once. pick_victim
+ * must take its victim with FrameDesc.claim(), and a replacer whose pin and
+ * unpin update shared lists synchronizes them with pick_victim. free is called
+ * with the replacer locked.
+ * 
+ * Picking a victim is two steps: peek_victim chooses the frame, and
+ * commit_victim claims it and records the new page. A replacer wrapping
+ * another one, like TinyLFU, decides between the two steps which frame the
+ * page actually takes, so the wrapped replacer only records replacements
+ * that happen.
+ * 
  * @author Wolff Jeffrey, KwangSoo Yang
  * 
  */
@@ -32,6 +44,96 @@ abstract class Replacer implements GlobalConst {
      */
     public abstract int pick_victim() throws PagePinnedException, BufferPoolExceededException;
 
+    /**
+     * Picks up the victim frame to be replaced for the given page: the frame
+     * chosen by peek_victim, committed by commit_victim. A frame pinned in
+     * between is given up and another one chosen.
+     * 
+     * @param pageId
+     *            the page which will be read into the victim frame, null if
+     *            it is not known.
+     * @return -1 if no frame is available. head of the list otherwise.
+     * @throws BufferPoolExceededException.
+     */
+    public synchronized int pick_victim(PageId pageId) throws PagePinnedException, BufferPoolExceededException {
+        for (;;) {
+            final int victim = peek_victim(pageId);
+            if (commit_victim(victim, pageId)) {
+                return victim;
+            }
+        }
+    }
+
+    /**
+     * Chooses the frame pick_victim would replace for the given page, without
+     * claiming it or recording anything about the page. The frame was
+     * unpinned when it was chosen. Hands may still move and reference bits be
+     * cleared, as they are while a victim is looked for.
+     * 
+     * @param pageId
+     *            the page which will be read into the frame, null if it is
+     *            not known.
+     * @return the frame number.
+     * @throws BufferPoolExceededException
+     *             if every frame is pinned.
+     */
+    abstract int peek_victim(PageId pageId) throws BufferPoolExceededException;
+
+    /**
+     * Claims the frame for the given page and records that the page replaces
+     * the one in the frame, as pick_victim does for its victim. The frame
+     * does not have to be the one peek_victim chose.
+     * 
+     * @param frameNo
+     *            the frame the page is read into.
+     * @param pageId
+     *            the page, null if it is not known.
+     * @return false if the frame is pinned, and nothing was recorded.
+     */
+    abstract boolean commit_victim(int frameNo, PageId pageId);
+
+    /**
+     * Tells whether the replacer remembers the page as a replaced one, in a
+     * ghost list or by its history. A page in the buffer pool never is.
+     * Replacers that only know the pages in the pool return false.
+     * 
+     * @param pid
+     *            page number.
+     * @return true if the page number is remembered.
+     */
+    boolean isGhost(int pid) {
+        return false;
+    }
+
+    /**
+     * Picks up the victim frames for a run of pages in one pass, with the
+     * replacer locked, so they are taken one after the other. It stops early
+     * when no more frames are available, and the caller gives back the
+     * frames picked if it needs them all.
+     * 
+     * @param pageIds
+     *            the pages which will be read into the victim frames.
+     * @param count
+     *            number of victims wanted.
+     * @param frames
+     *            receives the victim frames.
+     * @return the number of victims picked.
+     * @throws PagePinnedException
+     */
+    public synchronized int pick_victims(PageId[] pageIds, int count, int[] frames) throws PagePinnedException {
+        for (int inx = 0; inx < count; inx++) {
+            try {
+                frames[inx] = pick_victim(pageIds[inx]);
+            } catch (BufferPoolExceededException e) {
+                return inx;
+            }
+            if (frames[inx] < 0) {
+                return inx;
+            }
+        }
+        return count;
+    }
+
     /**
      * pin frame
      * 
@@ -59,4 +161,60 @@ abstract class Replacer implements GlobalConst {
      */
     abstract public int getNumberOfBuffer();
 
+    /**
+     * Returns information from the replacement algorithm, for debugging.
+     * 
+     * @return one line describing the state of the replacer.
+     */
+    abstract public String info();
+
+    /**
+     * Takes over the frames of the buffer manager after it grew or shrank its
+     * pool, with frameTable() and getNumBuffers() already changed. Added
+     * frames hold no page and are free. Frames dropped by a shrink hold no
+     * page either and were claimed by the buffer manager with claim(), and
+     * the replacer forgets them. The rest of its state is kept, so the pages
+     * in the pool keep their history.
+     * 
+     * @param javamgr
+     */
+    abstract void resize(BufMgr javamgr);
+
+    /**
+     * Claims the given frame as pick_victim claims its victim, for the buffer
+     * manager to empty it. It is given back with unpin. It takes the lock of
+     * the replacer, so a frame pick_victim found unpinned is still unpinned
+     * when it claims it.
+     * 
+     * @param frameDesc
+     *            the descriptor of the frame.
+     * @param frameNo
+     * @return false if the frame is pinned.
+     */
+    synchronized boolean claim(FrameDesc frameDesc, int frameNo) {
+        return frameDesc.claim();
+    }
+
+    /**
+     * Returns the frame the replacer looks at next, so the page cleaner can
+     * write the dirty frames just ahead of it. It is only a hint, read without
+     * locking. Replacers without a hand return 0.
+     * 
+     * @return a frame number.
+     */
+    int getHand() {
+        return 0;
+    }
+
+    /**
+     * Returns the number of frames the replacer looked at to pick its
+     * victims, so the buffer manager can report how far it sweeps per victim.
+     * Replacers without a hand return 0.
+     * 
+     * @return the number of frames swept since the replacer was created.
+     */
+    long getSweepSteps() {
+        return 0;
+    }
+
 }
@@ -0,0 +1,277 @@
+/* ------------------------------------------------------------------------
+ * @source  : TinyLFU.java
+ * @desc    : TinyLFU class
+ * ------------------------------------------------------------------------
+ *
+ * ------------------------------------------------------------------------
+ * VER  DATE         AUTHOR                           DESCRIPTION
+ * ---  -----------  -------------------------------  ---------------------
+ * 1.0  03.04. 2009  Wolff Jeffrey, KwangSoo Yang     Initialization
+ *
+ * ------------------------------------------------------------------------ */
+
+package bufmgr;
+
+import global.PageId;
+
+/**
+ * A W-TinyLFU admission filter in front of another replacer. Every pin is
+ * counted in a FrequencySketch. On a miss the wrapped replacer chooses its
+ * victim as usual, but the new page only takes the victim's frame if it was
+ * pinned more often recently than the victim's page. Otherwise it replaces the
+ * least recently used page of a small window of frames holding pages that
+ * were not admitted, so pages pinned once by ad-hoc queries churn the window
+ * and leave the working set alone.
+ * <p>
+ * The window frames stay known to the wrapped replacer. The filter asks it for
+ * its victim with peek_victim, which records nothing, and then commits the
+ * new page with commit_victim against the frame it actually takes, the victim
+ * or the window frame. So the wrapped replacer sees the page of that frame
+ * replaced, and the victim it chose keeps its page and its place.
+ */
+public class TinyLFU extends Replacer {
+
+    private final Replacer main;
+
+    private final FrequencySketch sketch;
+
+    /** Frames holding pages that were not admitted, in LRU order. */
+    private final FrameList window;
+
+    private int windowSize;
+
+    private FrameDesc[] frameDescArray;
+
+    /**
+     * Creates a TinyLFU filter. The window holds one percent of the frames.
+     * 
+     * @param javamgr
+     * @param main
+     *            the replacer that picks victims among admitted pages.
+     */
+    public TinyLFU(BufMgr javamgr, Replacer main) {
+        this.main = main;
+        frameDescArray = javamgr.frameTable();
+        sketch = new FrequencySketch(javamgr.getNumBuffers());
+        window = new FrameList(javamgr.getNumBuffers());
+        windowSize = Math.max(1, javamgr.getNumBuffers() / 100);
+    }
+
+    /**
+     * Picks up the victim frame when the new page is not known. No admission
+     * is done.
+     * 
+     * @return the victim frame number.
+     * @throws BufferPoolExceededException
+     *             if every frame is pinned.
+     */
+
+    public synchronized int pick_victim() throws BufferPoolExceededException, PagePinnedException {
+        return super.pick_victim(null);
+    }
+
+    /**
+     * Picks up the frame for the given page. The page takes the victim of the
+     * wrapped replacer if it is more frequent than the victim's page, a window
+     * frame otherwise. Pin the frame so that other process can not pick it as
+     * a victim.
+     * 
+     * @param pageId
+     *            the page which will be read into the frame.
+     * @return the frame number.
+     * @throws BufferPoolExceededException
+     *             if every frame is pinned.
+     */
+
+    public synchronized int pick_victim(PageId pageId) throws BufferPoolExceededException, PagePinnedException {
+
+        if (pageId == null || pageId.pid == INVALID_PAGE) {
+            return super.pick_victim(pageId);
+        }
+
+        sketch.increment(pageId.pid);
+        for (;;) {
+            final int victim = main.peek_victim(pageId);
+            final int victimPid = frameDescArray[victim].getPageId().pid;
+
+            // Admitted, the page replaces the victim. Else it goes in the
+            // window: in the victim's frame if the victim is in the window
+            // too or the window is not full, else in its least recently used
+            // unpinned frame.
+            boolean admitted = victimPid == INVALID_PAGE || sketch.frequency(pageId.pid) > sketch.frequency(victimPid);
+            int frameNumber = victim;
+            if (!admitted && !window.contains(victim) && window.size() >= windowSize) {
+                frameNumber = lastUnpinned(window);
+                if (frameNumber < 0) {
+                    // Every window frame is pinned, so the page has to be
+                    // admitted.
+                    frameNumber = victim;
+                    admitted = true;
+                }
+            }
+
+            if (!main.commit_victim(frameNumber, pageId)) {
+                // Pinned since it was looked at, choose again.
+                continue;
+            }
+            if (admitted) {
+                window.remove(frameNumber);
+            } else if (window.contains(frameNumber)) {
+                window.moveToFirst(frameNumber);
+            } else {
+                window.addFirst(frameNumber);
+            }
+            return frameNumber;
+        }
+    }
+
+    /**
+     * Chooses the victim of the filtered replacer, without admission.
+     * 
+     * @param pageId
+     * @return the victim frame number.
+     * @throws BufferPoolExceededException
+     *             if every frame is pinned.
+     */
+    synchronized int peek_victim(PageId pageId) throws BufferPoolExceededException {
+        return main.peek_victim(pageId);
+    }
+
+    /**
+     * Commits the page through the filtered replacer. The frame leaves the
+     * window.
+     * 
+     * @param frameNumber
+     * @param pageId
+     * @return false if the frame is pinned.
+     */
+    synchronized boolean commit_victim(int frameNumber, PageId pageId) {
+        if (!main.commit_victim(frameNumber, pageId)) {
+            return false;
+        }
+        window.remove(frameNumber);
+        return true;
+    }
+
+    /**
+     * @param list
+     * @return the unpinned frame nearest to the tail of the list, or -1.
+     */
+    private int lastUnpinned(FrameList list) {
+        for (int inx = list.last(); inx >= 0; inx = list.prev(inx)) {
+            if (frameDescArray[inx].pin_count() == 0) {
+                return inx;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the name of the algorithm as a string.
+     * 
+     * @return "TinyLFU", the name of the algorithm.
+     */
+
+    public final String name() {
+        return "TinyLFU";
+    }
+
+    /**
+     * pin frame, and count the pin of its page.
+     * 
+     * @param frameNumber
+     */
+    public synchronized void pin(int frameNumber) throws InvalidFrameNumberException {
+        main.pin(frameNumber);
+        sketch.increment(frameDescArray[frameNumber].getPageId().pid);
+        if (window.contains(frameNumber)) {
+            window.moveToFirst(frameNumber);
+        }
+    }
+
+    /**
+     * unpin frame
+     * 
+     * @param frameNumber
+     */
+
+    public synchronized boolean unpin(int frameNumber) throws PageUnpinnedException, InvalidFrameNumberException {
+        return main.unpin(frameNumber);
+    }
+
+    /**
+     * free frame
+     * 
+     * @param frameNumber
+     */
+
+    public synchronized void free(int frameNumber) throws PagePinnedException {
+        main.free(frameNumber);
+        window.remove(frameNumber);
+    }
+
+    /**
+     * Claims the frame through the filtered replacer.
+     * 
+     * @param frameDesc
+     * @param frameNumber
+     * @return false if the frame is pinned.
+     */
+    synchronized boolean claim(FrameDesc frameDesc, int frameNumber) {
+        return main.claim(frameDesc, frameNumber);
+    }
+
+    /**
+     * @param pid
+     * @return true if the filtered replacer remembers the page.
+     */
+    synchronized boolean isGhost(int pid) {
+        return main.isGhost(pid);
+    }
+
+    /**
+     * Resizes the filtered replacer, the window and the sketch. The sketch
+     * keeps its counts.
+     * 
+     * @param javamgr
+     */
+    synchronized void resize(BufMgr javamgr) {
+        main.resize(javamgr);
+        frameDescArray = javamgr.frameTable();
+        window.resize(javamgr.getNumBuffers());
+        sketch.resize(javamgr.getNumBuffers());
+        windowSize = Math.max(1, javamgr.getNumBuffers() / 100);
+    }
+
+    /**
+     * Returns information from the admission filter.
+     * 
+     * @return the number of pages in the window and its capacity.
+     */
+
+    public synchronized String info() {
+        return "TinyLFU: window=" + window.size() + "/" + windowSize;
+    }
+
+    /**
+     * return the number of buffers.
+     */
+    public int getNumberOfBuffer() {
+        return main.getNumberOfBuffer();
+    }
+
+    /**
+     * return the hand of the filtered replacer.
+     */
+    int getHand() {
+        return main.getHand();
+    }
+
+    /**
+     * return the frames swept by the filtered replacer.
+     */
+    long getSweepSteps() {
+        return main.getSweepSteps();
+    }
+
+}
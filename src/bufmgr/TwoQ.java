@@ -0,0 +1,284 @@
+/* ------------------------------------------------------------------------
+ * @source  : TwoQ.java
+ * @desc    : TwoQ class
+ * ------------------------------------------------------------------------
+ *
+ * ------------------------------------------------------------------------
+ * VER  DATE         AUTHOR                           DESCRIPTION
+ * ---  -----------  -------------------------------  ---------------------
+ * 1.0  03.04. 2009  Wolff Jeffrey, KwangSoo Yang     Initialization
+ *
+ * ------------------------------------------------------------------------ */
+
+package bufmgr;
+
+import global.PageId;
+
+/**
+ * A 2Q algorithm for buffer pool replacement policy. A page read in for the
+ * first time goes to the A1in FIFO. When it is replaced from A1in its page
+ * number is remembered in the A1out ghost queue, and only a page that is
+ * pinned again while it is in A1out is brought into the Am LRU list. Pages
+ * touched once by a sequential scan therefore go through A1in and never push
+ * frequently re-pinned pages out of Am.
+ */
+public class TwoQ extends Replacer {
+
+    private int numberOfBuffer;
+
+    /** Maximum size of A1in before its pages are replaced first. */
+    private int kin;
+
+    /** Frames not holding any page. */
+    private final FrameList freeList;
+
+    /** Frames holding pages referenced once, in FIFO order. */
+    private final FrameList a1in;
+
+    /** Frames holding pages re-referenced after leaving A1in, in LRU order. */
+    private final FrameList am;
+
+    /** Page numbers of pages recently replaced from A1in. */
+    private final GhostList a1out;
+
+    private FrameDesc[] frameDescArray;
+
+    /**
+     * Creates a 2Q object. A1in holds a quarter of the frames and A1out
+     * remembers half as many page numbers as there are frames.
+     *
+     * @param javamgr
+     */
+    public TwoQ(BufMgr javamgr) {
+        numberOfBuffer = javamgr.getNumBuffers();
+        frameDescArray = javamgr.frameTable();
+        kin = Math.max(1, numberOfBuffer / 4);
+        freeList = new FrameList(numberOfBuffer);
+        a1in = new FrameList(numberOfBuffer);
+        am = new FrameList(numberOfBuffer);
+        a1out = new GhostList(Math.max(1, numberOfBuffer / 2));
+
+        for (int inx = 0; inx < numberOfBuffer; inx++) {
+            freeList.addLast(inx);
+        }
+    }
+
+    /**
+     * Picks up the victim frame to be replaced according to the 2Q algorithm
+     * when the new page is not known.
+     *
+     * @return the victim frame number.
+     * @throws BufferPoolExceededException
+     *             if every frame is pinned.
+     */
+
+    public synchronized int pick_victim() throws BufferPoolExceededException, PagePinnedException {
+        return pick_victim(null);
+    }
+
+    /**
+     * Chooses the victim frame according to the 2Q algorithm: a free frame,
+     * else a page from A1in if it is over its size, from Am otherwise.
+     *
+     * @param pageId
+     *            ignored.
+     * @return the victim frame number.
+     * @throws BufferPoolExceededException
+     *             if every frame is pinned.
+     */
+    synchronized int peek_victim(PageId pageId) throws BufferPoolExceededException {
+
+        int victim = firstUnpinned(freeList);
+        if (victim >= 0) {
+            return victim;
+        }
+
+        if (a1in.size() > kin) {
+            victim = lastUnpinned(a1in);
+        }
+        if (victim < 0) {
+            victim = lastUnpinned(am);
+        }
+        if (victim < 0) {
+            victim = lastUnpinned(a1in);
+        }
+        if (victim < 0) {
+            throw new BufferPoolExceededException(null, "TwoQ.pick_victim(): BufferPoolExceededException");
+        }
+        return victim;
+    }
+
+    /**
+     * Claims the frame for the given page and links it in A1in, or in Am if
+     * the page is in A1out. The page number of a page replaced from A1in goes
+     * to A1out.
+     *
+     * @param frameNumber
+     * @param pageId
+     * @return false if the frame is pinned.
+     */
+    synchronized boolean commit_victim(int frameNumber, PageId pageId) {
+
+        if (!frameDescArray[frameNumber].claim()) {
+            return false;
+        }
+
+        if (!freeList.remove(frameNumber)) {
+            if (a1in.remove(frameNumber)) {
+                a1out.addFirst(frameDescArray[frameNumber].getPageId().pid);
+            } else {
+                am.remove(frameNumber);
+            }
+        }
+
+        if (pageId != null && a1out.remove(pageId.pid)) {
+            am.addFirst(frameNumber);
+        } else {
+            a1in.addFirst(frameNumber);
+        }
+        return true;
+    }
+
+    /**
+     * @param pid
+     * @return true if the page number is in A1out.
+     */
+    synchronized boolean isGhost(int pid) {
+        return a1out.contains(pid);
+    }
+
+    /**
+     * @param list
+     * @return the unpinned frame nearest to the head of the list, or -1.
+     */
+    private int firstUnpinned(FrameList list) {
+        for (int inx = list.first(); inx >= 0; inx = list.next(inx)) {
+            if (frameDescArray[inx].pin_count() == 0) {
+                return inx;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param list
+     * @return the unpinned frame nearest to the tail of the list, or -1.
+     */
+    private int lastUnpinned(FrameList list) {
+        for (int inx = list.last(); inx >= 0; inx = list.prev(inx)) {
+            if (frameDescArray[inx].pin_count() == 0) {
+                return inx;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the name of the 2Q algorithm as a string.
+     *
+     * @return "2Q", the name of the algorithm.
+     */
+
+    public final String name() {
+        return "2Q";
+    }
+
+    /**
+     * check frame number bound. if the bound is more than the number of buffer
+     * or less than 0, throw exception.
+     *
+     * @param frameNumber
+     * @throws InvalidFrameNumberException
+     */
+    public void checkFrameNumberBound(int frameNumber) throws InvalidFrameNumberException {
+        if (frameNumber < 0 || frameNumber >= numberOfBuffer) {
+            throw new InvalidFrameNumberException(null, "TwoQ.checkFrameNumberRange: InvalidFrameNumberException");
+        }
+    }
+
+    /**
+     * pin frame. A page in Am becomes the most recently used one, a page in
+     * A1in keeps its place.
+     *
+     * @param frameNumber
+     */
+    public synchronized void pin(int frameNumber) throws InvalidFrameNumberException {
+        checkFrameNumberBound(frameNumber);
+        frameDescArray[frameNumber].pin();
+        if (am.contains(frameNumber)) {
+            am.moveToFirst(frameNumber);
+        }
+    }
+
+    /**
+     * unpin frame
+     *
+     * @param frameNumber
+     */
+
+    public synchronized boolean unpin(int frameNumber) throws PageUnpinnedException, InvalidFrameNumberException {
+        checkFrameNumberBound(frameNumber);
+        if (frameDescArray[frameNumber].pin_count() == 0) {
+            throw new PageUnpinnedException(null, "TwoQ.unpin(): PageUnpinnedException.");
+        }
+        frameDescArray[frameNumber].unpin();
+        return true;
+    }
+
+    /**
+     * free frame
+     *
+     * @param frameNumber
+     */
+
+    public synchronized void free(int frameNumber) throws PagePinnedException {
+        if (frameDescArray[frameNumber].pin_count() > 1) {
+            throw new PagePinnedException(null, "TwoQ.free(): PagePinnedException.");
+        } else {
+            frameDescArray[frameNumber].unpin();
+            a1in.remove(frameNumber);
+            am.remove(frameNumber);
+            if (!freeList.contains(frameNumber)) {
+                freeList.addLast(frameNumber);
+            }
+        }
+    }
+
+    /**
+     * Takes the new frame table and sizes A1in and A1out for it. Added frames
+     * go to the free list, dropped ones leave every list.
+     *
+     * @param javamgr
+     */
+    synchronized void resize(BufMgr javamgr) {
+        final int oldNumberOfBuffer = numberOfBuffer;
+        frameDescArray = javamgr.frameTable();
+        numberOfBuffer = javamgr.getNumBuffers();
+        kin = Math.max(1, numberOfBuffer / 4);
+        freeList.resize(numberOfBuffer);
+        a1in.resize(numberOfBuffer);
+        am.resize(numberOfBuffer);
+        a1out.resize(Math.max(1, numberOfBuffer / 2));
+        for (int inx = oldNumberOfBuffer; inx < numberOfBuffer; inx++) {
+            freeList.addLast(inx);
+        }
+    }
+
+    /**
+     * Returns information from 2Q replacement algorithm.
+     *
+     * @return the sizes of A1in, Am and A1out.
+     */
+
+    public synchronized String info() {
+        return "2Q: |A1in|=" + a1in.size() + "/" + kin + " |Am|=" + am.size() + " |A1out|=" + a1out.size();
+    }
+
+    /**
+     * return the number of buffers.
+     */
+    public int getNumberOfBuffer() {
+        return numberOfBuffer;
+    }
+
+}
@@ -3,6 +3,15 @@
 package diskmgr;
 
 import java.io.*;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
 import bufmgr.*;
 import global.*;
 
@@ -10,6 +19,15 @@ public class DB implements GlobalConst {
 
     private static final int bits_per_page = MAX_SPACE * 8;
 
+    /**
+     * The words of a space-map page. Bit k of the map is bit k % 8 of byte
+     * k / 8, so read as little-endian longs it is bit k % 64 of word k / 64,
+     * and the map is searched and changed 64 pages at a time.
+     */
+    private static final VarHandle MAP_WORD = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private static final int bits_per_word = 64;
+
     /**
      * Open the database with the given name.
      * 
@@ -31,6 +49,9 @@ public class DB implements GlobalConst {
 
         // Creaat a random access file
         fp = new RandomAccessFile(fname, "rw");
+        channel = fp.getChannel();
+        if (mapped)
+            mapFile();
 
         PageId pageId = new PageId();
         Page apage = new Page();
@@ -45,6 +66,9 @@ public class DB implements GlobalConst {
         num_pages = firstpg.getNumDBPages();
 
         unpinPage(pageId, false /* undirty */);
+
+        build_free_space();
+        build_file_index();
     }
 
     /**
@@ -75,6 +99,9 @@ public class DB implements GlobalConst {
 
         name = new String(fname);
         num_pages = (num_pgs > 2) ? num_pgs : 2;
+        // The free space is indexed once the space map is set up.
+        run_longest = null;
+        buddy_order = null;
 
         File DBfile = new File(name);
 
@@ -82,10 +109,13 @@ public class DB implements GlobalConst {
 
         // Creaat a random access file
         fp = new RandomAccessFile(fname, "rw");
+        channel = fp.getChannel();
 
         // Make the file num_pages pages long, filled with zeroes.
-        fp.seek((long) (num_pages * MINIBASE_PAGESIZE - 1));
+        fp.seek((long) num_pages * MINIBASE_PAGESIZE - 1);
         fp.writeByte(0);
+        if (mapped)
+            mapFile();
 
         // Initialize space map and directory pages.
 
@@ -106,6 +136,8 @@ public class DB implements GlobalConst {
 
         set_bits(pageId, 1 + num_map_pages, 1);
 
+        build_free_space();
+        build_file_index();
     }
 
     /**
@@ -115,6 +147,9 @@ public class DB implements GlobalConst {
      *                I/O errors.
      */
     public void closeDB() throws IOException {
+        if (chunks != null)
+            sync();
+        chunks = null;
         fp.close();
     }
 
@@ -126,11 +161,121 @@ public class DB implements GlobalConst {
      */
     public void DBDestroy() throws IOException {
 
+        chunks = null;
         fp.close();
         File DBfile = new File(name);
         DBfile.delete();
     }
 
+    /**
+     * Choose whether openDB maps the file into memory. Page reads and writes
+     * are then copies from and to the mapping, instead of a read or write
+     * call each. Only takes effect on the next openDB.
+     * 
+     * @param map
+     *            true to map the file.
+     */
+    public void setMapped(boolean map) {
+        mapped = map;
+    }
+
+    /**
+     * @return true if the open file is mapped into memory.
+     */
+    public boolean isMapped() {
+        return chunks != null;
+    }
+
+    /**
+     * Choose when pages written to a mapped file are forced to disk.
+     * 
+     * @param policy
+     *            FORCE_ON_SYNC or FORCE_ON_WRITE.
+     */
+    public void setForcePolicy(int policy) {
+        if (policy != FORCE_ON_SYNC && policy != FORCE_ON_WRITE)
+            throw new IllegalArgumentException("DB.setForcePolicy(): bad policy " + policy);
+        forcePolicy = policy;
+    }
+
+    /**
+     * Choose how allocate_page finds a run of free pages. ALLOC_FIRST_FIT
+     * takes the first run that fits. ALLOC_BUDDY takes a block of 2^k pages,
+     * aligned to its size, from free lists kept per size and splits bigger
+     * blocks when needed, so runs of like sizes are packed together and big
+     * blocks stay whole; pages freed are merged back with their buddies. A
+     * run is then aligned to the power of two not less than its size. When
+     * no such block is free, the first run that fits is taken as with first
+     * fit and cut out of the blocks it overlaps. The space map stays the
+     * record of what is allocated, the free lists are built from it. Only
+     * takes effect on the next openDB.
+     * 
+     * @param policy
+     *            ALLOC_FIRST_FIT or ALLOC_BUDDY.
+     */
+    public void setAllocPolicy(int policy) {
+        if (policy != ALLOC_FIRST_FIT && policy != ALLOC_BUDDY)
+            throw new IllegalArgumentException("DB.setAllocPolicy(): bad policy " + policy);
+        allocPolicy = policy;
+    }
+
+    /**
+     * @return ALLOC_FIRST_FIT or ALLOC_BUDDY, the policy of the open file.
+     */
+    public int getAllocPolicy() {
+        return (buddy_order != null) ? ALLOC_BUDDY : ALLOC_FIRST_FIT;
+    }
+
+    /**
+     * Force the pages written to the mapped file since the last sync to disk.
+     * Only the written range of each chunk is forced. Nothing is done if the
+     * file is not mapped.
+     * 
+     * @exception IOException
+     *                I/O errors
+     */
+    public void sync() throws IOException {
+
+        if (chunks == null)
+            return;
+
+        for (int inx = 0; inx < chunks.length; inx++) {
+            int from, to;
+            synchronized (dirtyFrom) {
+                from = dirtyFrom[inx];
+                to = dirtyTo[inx];
+                dirtyFrom[inx] = Integer.MAX_VALUE;
+                dirtyTo[inx] = 0;
+            }
+            if (from < to) {
+                try {
+                    chunks[inx].force(from, to - from);
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                }
+            }
+        }
+    }
+
+    /**
+     * Map the whole file into memory, in chunks of CHUNK_SIZE bytes so files
+     * above 2 GB can be mapped too. The file does not grow after it is open.
+     */
+    private void mapFile() throws IOException {
+
+        final long size = channel.size();
+        final int count = (int) ((size + CHUNK_SIZE - 1) / CHUNK_SIZE);
+
+        chunks = new MappedByteBuffer[count];
+        dirtyFrom = new int[count];
+        dirtyTo = new int[count];
+        for (int inx = 0; inx < count; inx++) {
+            final long position = inx * CHUNK_SIZE;
+            chunks[inx] = channel.map(FileChannel.MapMode.READ_WRITE, position, Math.min(CHUNK_SIZE, size - position));
+            dirtyFrom[inx] = Integer.MAX_VALUE;
+        }
+    }
+
     /**
      * Read the contents of the specified page into a Page object
      * 
@@ -151,19 +296,79 @@ public class DB implements GlobalConst {
         if ((pageno.pid < 0) || (pageno.pid >= num_pages))
             throw new InvalidPageNumberException(null, "BAD_PAGE_NUMBER");
 
-        // Seek to the correct page
-        fp.seek((long) (pageno.pid * MINIBASE_PAGESIZE));
+        if (chunks != null) {
+            // A copy out of the mapping, without any system call or lock.
+            final long offset = (long) pageno.pid * MINIBASE_PAGESIZE;
+            final MappedByteBuffer chunk = chunks[(int) (offset / CHUNK_SIZE)];
+            final int index = (int) (offset % CHUNK_SIZE);
+            if (apage.isOffHeap())
+                apage.getFrame().put(0, chunk, index, MINIBASE_PAGESIZE);
+            else
+                chunk.get(index, apage.getpage(), 0, MINIBASE_PAGESIZE);
+            return;
+        }
 
-        // Read the appropriate number of bytes.
-        byte[] buffer = apage.getpage(); // new byte[MINIBASE_PAGESIZE];
+        // A positional read does not move any shared file pointer, so
+        // threads may read pages at the same time.
+        final ByteBuffer buffer = apage.isOffHeap() ? apage.getFrame().duplicate() : ByteBuffer.wrap(apage.getpage());
+        buffer.clear();
+        final long offset = (long) pageno.pid * MINIBASE_PAGESIZE;
         try {
-            fp.read(buffer);
+            while (buffer.hasRemaining() && channel.read(buffer, offset + buffer.position()) >= 0)
+                ;
         } catch (IOException e) {
             throw new FileIOException(e, "DB file I/O error");
         }
 
     }
 
+    /**
+     * Read a run of pages with one scattering read.
+     * 
+     * @param pageno
+     *            the first page of the run
+     * @param pages
+     *            receive the contents of the pages, a page size buffer each
+     * @param count
+     *            the number of pages, taken from the start of pages
+     * 
+     * @exception InvalidPageNumberException
+     *                invalid page number
+     * @exception FileIOException
+     *                file I/O error
+     * @exception IOException
+     *                I/O errors
+     */
+    public void read_pages(PageId pageno, ByteBuffer[] pages, int count) throws InvalidPageNumberException, FileIOException, IOException {
+
+        if ((pageno.pid < 0) || (count < 0) || (pageno.pid + count > num_pages))
+            throw new InvalidPageNumberException(null, "BAD_PAGE_NUMBER");
+
+        if (chunks != null) {
+            for (int inx = 0; inx < count; inx++) {
+                final long offset = (long) (pageno.pid + inx) * MINIBASE_PAGESIZE;
+                final MappedByteBuffer chunk = chunks[(int) (offset / CHUNK_SIZE)];
+                pages[inx].put(pages[inx].position(), chunk, (int) (offset % CHUNK_SIZE), MINIBASE_PAGESIZE);
+            }
+            return;
+        }
+
+        long remaining = (long) count * MINIBASE_PAGESIZE;
+        synchronized (gatherLatch) {
+            try {
+                channel.position((long) pageno.pid * MINIBASE_PAGESIZE);
+                while (remaining > 0) {
+                    final long read = channel.read(pages, 0, count);
+                    if (read < 0)
+                        break;
+                    remaining -= read;
+                }
+            } catch (IOException e) {
+                throw new FileIOException(e, "DB file I/O error");
+            }
+        }
+    }
+
     /**
      * Write the contents in a page object to the specified page.
      * 
@@ -184,18 +389,99 @@ public class DB implements GlobalConst {
         if ((pageno.pid < 0) || (pageno.pid >= num_pages))
             throw new InvalidPageNumberException(null, "INVALID_PAGE_NUMBER");
 
-        // Seek to the correct page
-        fp.seek((long) (pageno.pid * MINIBASE_PAGESIZE));
+        if (chunks != null) {
+            final long offset = (long) pageno.pid * MINIBASE_PAGESIZE;
+            final int chunkNo = (int) (offset / CHUNK_SIZE);
+            final int index = (int) (offset % CHUNK_SIZE);
+            if (apage.isOffHeap())
+                chunks[chunkNo].put(index, apage.getFrame(), 0, MINIBASE_PAGESIZE);
+            else
+                chunks[chunkNo].put(index, apage.getpage(), 0, MINIBASE_PAGESIZE);
+            mappedWritten(chunkNo, index);
+            return;
+        }
 
-        // Write the appropriate number of bytes.
+        final ByteBuffer buffer = apage.isOffHeap() ? apage.getFrame().duplicate() : ByteBuffer.wrap(apage.getpage());
+        buffer.clear();
+        final long offset = (long) pageno.pid * MINIBASE_PAGESIZE;
         try {
-            fp.write(apage.getpage());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, offset + buffer.position());
+            }
         } catch (IOException e) {
             throw new FileIOException(e, "DB file I/O error");
         }
 
     }
 
+    /**
+     * Write a run of pages with one gathering write.
+     * 
+     * @param pageno
+     *            the first page of the run
+     * @param pages
+     *            the contents of the pages, a page size buffer each
+     * @param count
+     *            the number of pages, taken from the start of pages
+     * 
+     * @exception InvalidPageNumberException
+     *                invalid page number
+     * @exception FileIOException
+     *                file I/O error
+     * @exception IOException
+     *                I/O errors
+     */
+    public void write_pages(PageId pageno, ByteBuffer[] pages, int count) throws InvalidPageNumberException, FileIOException, IOException {
+
+        if ((pageno.pid < 0) || (count < 0) || (pageno.pid + count > num_pages))
+            throw new InvalidPageNumberException(null, "INVALID_PAGE_NUMBER");
+
+        if (chunks != null) {
+            for (int inx = 0; inx < count; inx++) {
+                final long offset = (long) (pageno.pid + inx) * MINIBASE_PAGESIZE;
+                final int chunkNo = (int) (offset / CHUNK_SIZE);
+                final int index = (int) (offset % CHUNK_SIZE);
+                chunks[chunkNo].put(index, pages[inx], pages[inx].position(), MINIBASE_PAGESIZE);
+                mappedWritten(chunkNo, index);
+            }
+            return;
+        }
+
+        // A gathering write goes to the position of the channel, which only
+        // the gathering reads and writes use.
+        long remaining = (long) count * MINIBASE_PAGESIZE;
+        synchronized (gatherLatch) {
+            try {
+                channel.position((long) pageno.pid * MINIBASE_PAGESIZE);
+                while (remaining > 0) {
+                    remaining -= channel.write(pages, 0, count);
+                }
+            } catch (IOException e) {
+                throw new FileIOException(e, "DB file I/O error");
+            }
+        }
+    }
+
+    /**
+     * Force a page just written to the mapped file to disk, or remember it
+     * for the next sync, as the force policy says.
+     */
+    private void mappedWritten(int chunkNo, int index) throws FileIOException {
+
+        if (forcePolicy == FORCE_ON_WRITE) {
+            try {
+                chunks[chunkNo].force(index, MINIBASE_PAGESIZE);
+            } catch (UncheckedIOException e) {
+                throw new FileIOException(e, "DB file I/O error");
+            }
+        } else {
+            synchronized (dirtyFrom) {
+                dirtyFrom[chunkNo] = Math.min(dirtyFrom[chunkNo], index);
+                dirtyTo[chunkNo] = Math.max(dirtyTo[chunkNo], index + MINIBASE_PAGESIZE);
+            }
+        }
+    }
+
     /**
      * Allocate a set of pages where the run size is taken to be 1 by default.
      * Gives back the page number of the first page of the allocated run. with
@@ -242,77 +528,480 @@ public class DB implements GlobalConst {
      * @exception DiskMgrException
      *                error caused by other layers
      */
-    public void allocate_page(PageId start_page_num, int runsize) throws OutOfSpaceException, InvalidRunSizeException, InvalidPageNumberException, FileIOException, DiskMgrException, IOException {
+    public synchronized void allocate_page(PageId start_page_num, int runsize) throws OutOfSpaceException, InvalidRunSizeException, InvalidPageNumberException, FileIOException, DiskMgrException, IOException {
 
         if (runsize < 0)
             throw new InvalidRunSizeException(null, "Negative run_size");
 
         int run_size = runsize;
-        int num_map_pages = (num_pages + bits_per_page - 1) / bits_per_page;
-        int current_run_start = 0;
+
+        if (buddy_order != null) {
+            start_page_num.pid = buddy_allocate(run_size);
+            if (start_page_num.pid >= 0) {
+                set_bits(start_page_num, run_size, 1);
+                return;
+            }
+        }
+
+        if (run_longest[1] < run_size)
+            throw new OutOfSpaceException(null, "No space left");
+
+        // Walk down the summary to the first run that fits: a run inside the
+        // left half, else one across the middle, else one in the right half.
+        int node = 1;
+        int node_start = 0;
+        while (node < num_leaves) {
+            int left = 2 * node;
+            if (run_longest[left] >= run_size) {
+                node = left;
+            } else if (run_suffix[left] + run_prefix[left + 1] >= run_size) {
+                start_page_num.pid = node_start + run_length[left] - run_suffix[left];
+                if (buddy_order != null)
+                    buddy_carve(start_page_num.pid, run_size);
+                set_bits(start_page_num, run_size, 1);
+                return;
+            } else {
+                node_start += run_length[left];
+                node = left + 1;
+            }
+        }
+
+        // The run is inside one space-map page, find where.
+        start_page_num.pid = find_run(node - num_leaves, run_size);
+        if (buddy_order != null)
+            buddy_carve(start_page_num.pid, run_size);
+        set_bits(start_page_num, run_size, 1);
+    }
+
+    /**
+     * Finds the first run of free pages of the given length inside one
+     * space-map page, which the summary says has one.
+     * 
+     * @param map_page
+     *            the number of the space-map page, from 0.
+     * @param run_size
+     *            the number of pages of the run.
+     * @return the first page of the run.
+     */
+    private int find_run(int map_page, int run_size) throws OutOfSpaceException, DiskMgrException {
+
+        PageId pgid = new PageId(1 + map_page);
+        Page apage = new Page();
+        int num_bits_this_page = run_length[num_leaves + map_page];
+        int current_run_start = map_page * bits_per_page;
         int current_run_length = 0;
 
-        // This loop goes over each page in the space map.
-        PageId pgid = new PageId();
-        byte[] pagebuf;
-        int byteptr;
+        // Pin the space-map page.
 
-        for (int i = 0; i < num_map_pages; ++i) {// start forloop01
+        pinPage(pgid, apage, false /* read disk */);
 
-            pgid.pid = 1 + i;
-            // Pin the space-map page.
+        ByteBuffer map = apage.getFrame();
 
-            Page apage = new Page();
+        // Walk the page looking for a sequence of 0 bits of the appropriate
+        // length, a word at a time. The zeros and ones in a row are counted
+        // with numberOfTrailingZeros, so a word is done in a few steps
+        // whatever its bits.
+
+        for (int bitno = 0; bitno < num_bits_this_page && current_run_length < run_size; bitno += bits_per_word) {// start
+            // forloop02
+
+            long word = map_word(map, bitno, num_bits_this_page);
+            int page_base = map_page * bits_per_page + bitno;
+
+            if (word == 0) {
+                current_run_length += bits_per_word;
+                continue;
+            }
+
+            int pos = 0;
+            while (pos < bits_per_word && current_run_length < run_size) {
+                // The free pages from pos to the next allocated one.
+                int zeros = Long.numberOfTrailingZeros(word >>> pos);
+                if (zeros >= bits_per_word - pos) {
+                    current_run_length += bits_per_word - pos;
+                    break;
+                }
+                current_run_length += zeros;
+                if (current_run_length >= run_size)
+                    break;
+
+                // Skip the allocated pages, the run starts after them.
+                pos += zeros;
+                pos += Long.numberOfTrailingZeros(~(word >>> pos));
+                current_run_start = page_base + pos;
+                current_run_length = 0;
+            }
+
+        }// end of forloop02
+        // Unpin the space-map page.
+
+        unpinPage(pgid, false /* undirty */);
+
+        if (current_run_length < run_size)
+            throw new OutOfSpaceException(null, "Space map summary out of date");
+
+        return current_run_start;
+    }
+
+    /**
+     * Reads a word of a space-map page. Pages past the end of the database
+     * count as allocated.
+     * 
+     * @param map
+     *            the space-map page.
+     * @param bitno
+     *            the first bit of the word, a multiple of bits_per_word.
+     * @param num_bits_this_page
+     *            the number of pages the space-map page keeps the bits of.
+     * @return the word.
+     */
+    private static long map_word(ByteBuffer map, int bitno, int num_bits_this_page) {
+
+        long word = (long) MAP_WORD.get(map, bitno / 8);
+        if (num_bits_this_page - bitno < bits_per_word)
+            word |= -1L << (num_bits_this_page - bitno);
+        return word;
+    }
+
+    /**
+     * Indexes the free space of the space map: the summary, and the free
+     * lists too for the buddy policy.
+     */
+    private void build_free_space() throws DiskMgrException {
+
+        run_longest = null;
+        buddy_order = null;
+        build_summary();
+        if (allocPolicy == ALLOC_BUDDY)
+            build_buddy();
+    }
+
+    /**
+     * Reads every space-map page and builds the summary of the free runs.
+     */
+    private void build_summary() throws DiskMgrException {
+
+        int num_map_pages = (num_pages + bits_per_page - 1) / bits_per_page;
+
+        num_leaves = Integer.highestOneBit(Math.max(num_map_pages - 1, 1)) << 1;
+        run_prefix = new int[2 * num_leaves];
+        run_suffix = new int[2 * num_leaves];
+        run_longest = new int[2 * num_leaves];
+        run_length = new int[2 * num_leaves];
+
+        PageId pgid = new PageId();
+        Page apage = new Page();
+        for (int i = 0; i < num_map_pages; ++i) {
+            pgid.pid = 1 + i;
             pinPage(pgid, apage, false /* read disk */);
+            summarize_page(i, apage.getFrame());
+            unpinPage(pgid, false /* undirty */);
+        }
 
-            pagebuf = apage.getpage();
-            byteptr = 0;
+        for (int node = num_leaves - 1; node >= 1; --node)
+            merge_summary(node);
+    }
+
+    /**
+     * Sets the summary of one space-map page: its free pages at the start, at
+     * the end and the longest run of them. The nodes above are left to
+     * merge_summary.
+     * 
+     * @param map_page
+     *            the number of the space-map page, from 0.
+     * @param map
+     *            the space-map page.
+     */
+    private void summarize_page(int map_page, ByteBuffer map) {
+
+        int num_bits_this_page = num_pages - map_page * bits_per_page;
+        if (num_bits_this_page > bits_per_page)
+            num_bits_this_page = bits_per_page;
+
+        int prefix = -1;
+        int longest = 0;
+        int current_run_length = 0;
+
+        for (int bitno = 0; bitno < num_bits_this_page; bitno += bits_per_word) {
+            long word = map_word(map, bitno, num_bits_this_page);
+            if (word == 0) {
+                current_run_length += bits_per_word;
+                continue;
+            }
+            int pos = 0;
+            while (pos < bits_per_word) {
+                int zeros = Long.numberOfTrailingZeros(word >>> pos);
+                if (zeros >= bits_per_word - pos) {
+                    current_run_length += bits_per_word - pos;
+                    break;
+                }
+                current_run_length += zeros;
+                if (prefix < 0)
+                    prefix = current_run_length;
+                if (current_run_length > longest)
+                    longest = current_run_length;
+                current_run_length = 0;
+
+                pos += zeros;
+                pos += Long.numberOfTrailingZeros(~(word >>> pos));
+            }
+        }
+
+        int leaf = num_leaves + map_page;
+        run_prefix[leaf] = (prefix < 0) ? current_run_length : prefix;
+        run_suffix[leaf] = current_run_length;
+        run_longest[leaf] = Math.max(longest, current_run_length);
+        run_length[leaf] = num_bits_this_page;
+    }
+
+    /**
+     * Reads every space-map page and puts its free runs on the buddy free
+     * lists, each as the biggest aligned blocks it holds.
+     */
+    private void build_buddy() throws DiskMgrException {
+
+        int num_map_pages = (num_pages + bits_per_page - 1) / bits_per_page;
+
+        buddy_max_order = 31 - Integer.numberOfLeadingZeros(num_pages);
+        buddy_head = new int[buddy_max_order + 1];
+        Arrays.fill(buddy_head, -1);
+        buddy_next = new int[num_pages];
+        buddy_prev = new int[num_pages];
+        byte[] order = new byte[num_pages];
+        Arrays.fill(order, (byte) -1);
+        buddy_order = order;
+
+        PageId pgid = new PageId();
+        Page apage = new Page();
+        int current_run_start = 0;
+        int current_run_length = 0;
+
+        for (int i = 0; i < num_map_pages; ++i) {
+            pgid.pid = 1 + i;
+            pinPage(pgid, apage, false /* read disk */);
+            ByteBuffer map = apage.getFrame();
 
-            // get the num of bits on current page
             int num_bits_this_page = num_pages - i * bits_per_page;
             if (num_bits_this_page > bits_per_page)
                 num_bits_this_page = bits_per_page;
 
-            // Walk the page looking for a sequence of 0 bits of the appropriate
-            // length. The outer loop steps through the page's bytes, the inner
-            // one steps through each byte's bits.
+            for (int bitno = 0; bitno < num_bits_this_page; bitno += bits_per_word) {
+                long word = map_word(map, bitno, num_bits_this_page);
+                if (word == 0) {
+                    current_run_length += bits_per_word;
+                    continue;
+                }
+                int page_base = i * bits_per_page + bitno;
+                int pos = 0;
+                while (pos < bits_per_word) {
+                    int zeros = Long.numberOfTrailingZeros(word >>> pos);
+                    if (zeros >= bits_per_word - pos) {
+                        current_run_length += bits_per_word - pos;
+                        break;
+                    }
+                    current_run_length += zeros;
+                    buddy_release(current_run_start, current_run_length, false);
+
+                    pos += zeros;
+                    pos += Long.numberOfTrailingZeros(~(word >>> pos));
+                    current_run_start = page_base + pos;
+                    current_run_length = 0;
+                }
+            }
 
-            for (; num_bits_this_page > 0 && current_run_length < run_size; ++byteptr) {// start
-                // forloop02
+            unpinPage(pgid, false /* undirty */);
+        }
 
-                Integer intmask = new Integer(1);
-                Byte mask = new Byte(intmask.byteValue());
-                byte tmpmask = mask.byteValue();
+        buddy_release(current_run_start, current_run_length, false);
+    }
 
-                while (mask.intValue() != 0 && (num_bits_this_page > 0) && (current_run_length < run_size))
+    /**
+     * Takes a block for a run from the buddy free lists. The block is the
+     * smallest power of two not less than the run, split off a bigger one if
+     * none is free, and the pages of the block past the run are freed again.
+     * 
+     * @param run_size
+     *            the number of pages of the run.
+     * @return the first page of the run, -1 if no block is big enough.
+     */
+    private int buddy_allocate(int run_size) {
 
-                {
-                    if ((pagebuf[byteptr] & tmpmask) != 0) {
-                        current_run_start += current_run_length + 1;
-                        current_run_length = 0;
-                    } else
-                        ++current_run_length;
+        if (run_size == 0)
+            return 0;
 
-                    tmpmask <<= 1;
-                    mask = new Byte(tmpmask);
-                    --num_bits_this_page;
-                }
+        int order = 32 - Integer.numberOfLeadingZeros(run_size - 1);
+        int free_order = order;
+        while (free_order <= buddy_max_order && buddy_head[free_order] < 0)
+            ++free_order;
+        if (free_order > buddy_max_order)
+            return -1;
 
-            }// end of forloop02
-            // Unpin the space-map page.
+        int block = buddy_head[free_order];
+        buddy_remove(block);
 
-            unpinPage(pgid, false /* undirty */);
+        // Split the block, keeping the lower half, down to the run's order.
+        while (free_order > order) {
+            --free_order;
+            buddy_push(block + (1 << free_order), free_order);
+        }
 
-        }// end of forloop01
+        buddy_release(block + run_size, (1 << order) - run_size, true);
+        return block;
+    }
 
-        if (current_run_length >= run_size) {
-            start_page_num.pid = current_run_start;
-            set_bits(start_page_num, run_size, 1);
+    /**
+     * Puts a run of free pages on the buddy free lists, as the biggest
+     * aligned blocks it holds.
+     * 
+     * @param start
+     *            the first page of the run.
+     * @param run_size
+     *            the number of pages of the run.
+     * @param merge
+     *            true to merge each block with its buddy while that is free.
+     *            A whole free run read from the space map has no free buddy.
+     */
+    private void buddy_release(int start, int run_size, boolean merge) {
+
+        while (run_size > 0) {
+            // The biggest block aligned at start that fits in the run.
+            int order = 31 - Integer.numberOfLeadingZeros(run_size);
+            if (start != 0 && Integer.numberOfTrailingZeros(start) < order)
+                order = Integer.numberOfTrailingZeros(start);
+
+            int block = start;
+            int block_order = order;
+            while (merge && block_order < buddy_max_order) {
+                int buddy = block ^ (1 << block_order);
+                if (buddy + (1 << block_order) > num_pages || buddy_order[buddy] != block_order)
+                    break;
+                buddy_remove(buddy);
+                block &= ~(1 << block_order);
+                ++block_order;
+            }
+            buddy_push(block, block_order);
 
-            return;
+            start += 1 << order;
+            run_size -= 1 << order;
+        }
+    }
+
+    /**
+     * Takes a run of free pages found without the free lists off them. Each
+     * block the run overlaps is taken off its list, and its pages before and
+     * after the run are put back as smaller blocks.
+     * 
+     * @param start
+     *            the first page of the run.
+     * @param run_size
+     *            the number of pages of the run.
+     */
+    private void buddy_carve(int start, int run_size) {
+
+        int end = start + run_size;
+        int page = start;
+        while (page < end) {
+            // The free block holding the page starts at the page rounded down
+            // to a multiple of its size.
+            int order = 0;
+            while (buddy_order[page & -(1 << order)] != order)
+                ++order;
+            int block = page & -(1 << order);
+            int block_end = block + (1 << order);
+
+            buddy_remove(block);
+            buddy_release(block, page - block, false);
+            if (block_end > end)
+                buddy_release(end, block_end - end, false);
+            page = block_end;
         }
+    }
 
-        throw new OutOfSpaceException(null, "No space left");
+    /**
+     * Puts a free block at the head of the list of its order.
+     */
+    private void buddy_push(int block, int order) {
+
+        buddy_order[block] = (byte) order;
+        buddy_prev[block] = -1;
+        buddy_next[block] = buddy_head[order];
+        if (buddy_head[order] >= 0)
+            buddy_prev[buddy_head[order]] = block;
+        buddy_head[order] = block;
+    }
+
+    /**
+     * Takes a free block off the list of its order.
+     */
+    private void buddy_remove(int block) {
+
+        int order = buddy_order[block];
+        if (buddy_prev[block] >= 0)
+            buddy_next[buddy_prev[block]] = buddy_next[block];
+        else
+            buddy_head[order] = buddy_next[block];
+        if (buddy_next[block] >= 0)
+            buddy_prev[buddy_next[block]] = buddy_prev[block];
+        buddy_order[block] = -1;
+    }
+
+    /**
+     * Tells whether every page of a run is allocated in the space map.
+     * 
+     * @param start_page
+     *            the first page of the run.
+     * @param run_size
+     *            the number of pages of the run.
+     * @return true if no page of the run is free.
+     */
+    private boolean is_allocated(PageId start_page, int run_size) throws InvalidPageNumberException, DiskMgrException {
+
+        if ((start_page.pid < 0) || (start_page.pid + run_size > num_pages))
+            throw new InvalidPageNumberException(null, "Bad page number");
+
+        PageId pgid = new PageId();
+        Page apage = new Page();
+        int cur_bit = start_page.pid;
+        int end_bit = start_page.pid + run_size;
+
+        while (cur_bit < end_bit) {
+            pgid.pid = 1 + cur_bit / bits_per_page;
+            pinPage(pgid, apage, false /* read disk */);
+            ByteBuffer map = apage.getFrame();
+
+            int page_end = Math.min(end_bit, (pgid.pid) * bits_per_page);
+            boolean allocated = true;
+            while (allocated && cur_bit < page_end) {
+                int first_bit_offset = cur_bit % bits_per_word;
+                int num_bits_this_word = Math.min(bits_per_word - first_bit_offset, page_end - cur_bit);
+                long mask = (num_bits_this_word == bits_per_word) ? -1L : ((1L << num_bits_this_word) - 1) << first_bit_offset;
+                long word = (long) MAP_WORD.get(map, cur_bit % bits_per_page / bits_per_word * 8);
+                allocated = (word & mask) == mask;
+                cur_bit += num_bits_this_word;
+            }
+
+            unpinPage(pgid, false /* undirty */);
+            if (!allocated)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Computes the summary of a node from its two children.
+     * 
+     * @param node
+     *            an inner node of the summary.
+     */
+    private void merge_summary(int node) {
+
+        int left = 2 * node;
+        int right = left + 1;
+
+        run_prefix[node] = (run_prefix[left] == run_length[left]) ? run_length[left] + run_prefix[right] : run_prefix[left];
+        run_suffix[node] = (run_suffix[right] == run_length[right]) ? run_length[right] + run_suffix[left] : run_suffix[right];
+        run_longest[node] = Math.max(Math.max(run_longest[left], run_longest[right]), run_suffix[left] + run_prefix[right]);
+        run_length[node] = run_length[left] + run_length[right];
     }
 
     /**
@@ -335,12 +1024,19 @@ public class DB implements GlobalConst {
      * @exception DiskMgrException
      *                error caused by other layers
      */
-    public void deallocate_page(PageId start_page_num, int run_size) throws InvalidRunSizeException, InvalidPageNumberException, IOException, FileIOException, DiskMgrException {
+    public synchronized void deallocate_page(PageId start_page_num, int run_size) throws InvalidRunSizeException, InvalidPageNumberException, IOException, FileIOException, DiskMgrException {
 
         if (run_size < 0)
             throw new InvalidRunSizeException(null, "Negative run_size");
 
+        // A page freed twice would be on the buddy free lists twice.
+        if (buddy_order != null && !is_allocated(start_page_num, run_size))
+            throw new InvalidPageNumberException(null, "Page not allocated");
+
         set_bits(start_page_num, run_size, 0);
+
+        if (buddy_order != null)
+            buddy_release(start_page_num.pid, run_size, true);
     }
 
     /**
@@ -364,9 +1060,9 @@ public class DB implements GlobalConst {
      *                error caused by other layers
      * 
      */
-    public void deallocate_page(PageId start_page_num) throws InvalidRunSizeException, InvalidPageNumberException, IOException, FileIOException, DiskMgrException {
+    public synchronized void deallocate_page(PageId start_page_num) throws InvalidRunSizeException, InvalidPageNumberException, IOException, FileIOException, DiskMgrException {
 
-        set_bits(start_page_num, 1, 0);
+        deallocate_page(start_page_num, 1);
     }
 
     /**
@@ -394,7 +1090,7 @@ public class DB implements GlobalConst {
      * @exception DiskMgrException
      *                error caused by other layers
      */
-    public void add_file_entry(String fname, PageId start_page_num) throws FileNameTooLongException, InvalidPageNumberException, InvalidRunSizeException, DuplicateEntryException, OutOfSpaceException, FileIOException, IOException, DiskMgrException {
+    public synchronized void add_file_entry(String fname, PageId start_page_num) throws FileNameTooLongException, InvalidPageNumberException, InvalidRunSizeException, DuplicateEntryException, OutOfSpaceException, FileIOException, IOException, DiskMgrException {
 
         if (fname.length() >= MAX_NAME)
             throw new FileNameTooLongException(null, "DB filename too long");
@@ -403,86 +1099,48 @@ public class DB implements GlobalConst {
 
         // Does the file already exist?
 
-        if (get_file_entry(fname) != null)
+        if (file_index.containsKey(fname))
             throw new DuplicateEntryException(null, "DB fileentry already exists");
 
         Page apage = new Page();
-
-        boolean found = false;
-        int free_slot = 0;
         PageId hpid = new PageId();
-        PageId nexthpid = new PageId(0);
         DBHeaderPage dp;
-        do {// Start DO01
-            // System.out.println("start do01");
-            hpid.pid = nexthpid.pid;
-
-            // Pin the header page
-            pinPage(hpid, apage, false /* read disk */);
-
-            // This complication is because the first page has a different
-            // structure from that of subsequent pages.
-            if (hpid.pid == 0) {
-                dp = new DBFirstPage();
-                ((DBFirstPage) dp).openPage(apage);
-            } else {
-                dp = new DBDirectoryPage();
-                ((DBDirectoryPage) dp).openPage(apage);
-            }
 
-            nexthpid = dp.getNextPage();
-            int entry = 0;
-
-            PageId tmppid = new PageId();
-            while (entry < dp.getNumOfEntries()) {
-                dp.getFileEntry(tmppid, entry);
-                if (tmppid.pid == INVALID_PAGE)
-                    break;
-                entry++;
-            }
-
-            if (entry < dp.getNumOfEntries()) {
-                free_slot = entry;
-                found = true;
-            } else if (nexthpid.pid != INVALID_PAGE) {
-                // We only unpin if we're going to continue looping.
-                unpinPage(hpid, false /* undirty */);
-            }
+        FileSlot entry = free_slots.poll();
+        if (entry == null) {
+            // Have to add a new header page. Allocate it before linking it, so
+            // the directory is left as it was if the database is full.
+            PageId nexthpid = new PageId();
+            allocate_page(nexthpid);
 
-        } while ((nexthpid.pid != INVALID_PAGE) && (!found)); // End of DO01
-
-        // Have to add a new header page if possible.
-        if (!found) {
-            try {
-                allocate_page(nexthpid);
-            } catch (Exception e) { // need rethrow an exception!!!!
-                unpinPage(hpid, false /* undirty */);
-                e.printStackTrace();
-            }
-
-            // Set the next-page pointer on the previous directory page.
+            // Set the next-page pointer on the last directory page.
+            hpid.pid = last_header_page;
+            pinPage(hpid, apage, false /* read disk */);
+            dp = open_header_page(hpid, apage);
             dp.setNextPage(nexthpid);
             unpinPage(hpid, true /* dirty */);
 
             // Pin the newly-allocated directory page.
             hpid.pid = nexthpid.pid;
-
             pinPage(hpid, apage, true/* no diskIO */);
             dp = new DBDirectoryPage(apage);
 
-            free_slot = 0;
+            last_header_page = hpid.pid;
+            entry = new FileSlot(hpid.pid, 0);
+            for (int slot = 1; slot < dp.getNumOfEntries(); ++slot)
+                free_slots.add(new FileSlot(hpid.pid, slot));
+        } else {
+            hpid.pid = entry.header_page;
+            pinPage(hpid, apage, false /* read disk */);
+            dp = open_header_page(hpid, apage);
         }
 
-        // At this point, "hpid" has the page id of the header page with the
-        // free
-        // slot; "pg" points to the pinned page; "dp" has the directory_page
-        // pointer; "free_slot" is the entry number in the directory where we're
-        // going to put the new file entry.
-
-        dp.setFileEntry(start_page_num, fname, free_slot);
+        dp.setFileEntry(start_page_num, fname, entry.slot);
 
         unpinPage(hpid, true /* dirty */);
 
+        entry.start_page = start_page_num.pid;
+        file_index.put(fname, entry);
     }
 
     /**
@@ -502,62 +1160,24 @@ public class DB implements GlobalConst {
      * @exception DiskMgrException
      *                error caused by other layers
      */
-    public void delete_file_entry(String fname) throws FileEntryNotFoundException, IOException, FileIOException, InvalidPageNumberException, DiskMgrException {
+    public synchronized void delete_file_entry(String fname) throws FileEntryNotFoundException, IOException, FileIOException, InvalidPageNumberException, DiskMgrException {
 
-        Page apage = new Page();
-        boolean found = false;
-        int slot = 0;
-        PageId hpid = new PageId();
-        PageId nexthpid = new PageId(0);
-        PageId tmppid = new PageId();
-        DBHeaderPage dp;
-
-        do { // startDO01
-            hpid.pid = nexthpid.pid;
-
-            // Pin the header page.
-            pinPage(hpid, apage, false/* read disk */);
-
-            // This complication is because the first page has a different
-            // structure from that of subsequent pages.
-            if (hpid.pid == 0) {
-                dp = new DBFirstPage();
-                ((DBFirstPage) dp).openPage(apage);
-            } else {
-                dp = new DBDirectoryPage();
-                ((DBDirectoryPage) dp).openPage(apage);
-            }
-            nexthpid = dp.getNextPage();
-
-            int entry = 0;
-
-            String tmpname;
-            while (entry < dp.getNumOfEntries()) {
-                tmpname = dp.getFileEntry(tmppid, entry);
-
-                if ((tmppid.pid != INVALID_PAGE) && (tmpname.compareTo(fname) == 0))
-                    break;
-                entry++;
-            }
-
-            if (entry < dp.getNumOfEntries()) {
-                slot = entry;
-                found = true;
-            } else {
-                unpinPage(hpid, false /* undirty */);
-            }
-
-        } while ((nexthpid.pid != INVALID_PAGE) && (!found)); // EndDO01
-
-        if (!found) // Entry not found - nothing deleted
+        FileSlot entry = file_index.remove(fname);
+        if (entry == null) // Entry not found - nothing deleted
             throw new FileEntryNotFoundException(null, "DB file not found");
 
         // Have to delete record at hpnum:slot
-        tmppid.pid = INVALID_PAGE;
-        dp.setFileEntry(tmppid, "\0", slot);
+        Page apage = new Page();
+        PageId hpid = new PageId(entry.header_page);
+        pinPage(hpid, apage, false/* read disk */);
+
+        PageId tmppid = new PageId(INVALID_PAGE);
+        open_header_page(hpid, apage).setFileEntry(tmppid, "\0", entry.slot);
 
         unpinPage(hpid, true /* dirty */);
 
+        // Freed slots are reused first, while their page is likely in the pool.
+        free_slots.push(entry);
     }
 
     /**
@@ -575,63 +1195,69 @@ public class DB implements GlobalConst {
      * @exception DiskMgrException
      *                error caused by other layers
      */
-    public PageId get_file_entry(String name) throws IOException, FileIOException, InvalidPageNumberException, DiskMgrException {
+    public synchronized PageId get_file_entry(String name) throws IOException, FileIOException, InvalidPageNumberException, DiskMgrException {
+
+        FileSlot entry = file_index.get(name);
+        if (entry == null) // Entry not found - don't post error, just fail.
+            return null;
+
+        return new PageId(entry.start_page);
+    }
+
+    /**
+     * Reads the header pages and indexes the file entries: the name of each
+     * file to where its entry is, and the free slots in the order the header
+     * pages are chained. If a name is on the pages twice, the first entry wins,
+     * as it did when the pages were searched.
+     */
+    private void build_file_index() throws IOException, DiskMgrException {
+
+        file_index = new HashMap<String, FileSlot>();
+        free_slots = new ArrayDeque<FileSlot>();
 
         Page apage = new Page();
-        boolean found = false;
-        int slot = 0;
         PageId hpid = new PageId();
         PageId nexthpid = new PageId(0);
-        DBHeaderPage dp;
-
-        do {// Start DO01
+        PageId tmppid = new PageId();
 
-            // System.out.println("get_file_entry do-loop01: "+name);
+        do {
             hpid.pid = nexthpid.pid;
+            pinPage(hpid, apage, false /* read disk */);
 
-            // Pin the header page.
-            pinPage(hpid, apage, false /* no diskIO */);
-
-            // This complication is because the first page has a different
-            // structure from that of subsequent pages.
-            if (hpid.pid == 0) {
-                dp = new DBFirstPage();
-                ((DBFirstPage) dp).openPage(apage);
-            } else {
-                dp = new DBDirectoryPage();
-                ((DBDirectoryPage) dp).openPage(apage);
-            }
+            DBHeaderPage dp = open_header_page(hpid, apage);
             nexthpid = dp.getNextPage();
 
-            int entry = 0;
-            PageId tmppid = new PageId();
-            String tmpname;
-
-            while (entry < dp.getNumOfEntries()) {
-                tmpname = dp.getFileEntry(tmppid, entry);
-
-                if ((tmppid.pid != INVALID_PAGE) && (tmpname.compareTo(name) == 0))
-                    break;
-                entry++;
-            }
-            if (entry < dp.getNumOfEntries()) {
-                slot = entry;
-                found = true;
+            for (int slot = 0; slot < dp.getNumOfEntries(); ++slot) {
+                String tmpname = dp.getFileEntry(tmppid, slot);
+                FileSlot entry = new FileSlot(hpid.pid, slot);
+                if (tmppid.pid == INVALID_PAGE) {
+                    free_slots.add(entry);
+                } else {
+                    entry.start_page = tmppid.pid;
+                    file_index.putIfAbsent(tmpname, entry);
+                }
             }
 
             unpinPage(hpid, false /* undirty */);
+        } while (nexthpid.pid != INVALID_PAGE);
 
-        } while ((nexthpid.pid != INVALID_PAGE) && (!found));// End of DO01
+        last_header_page = hpid.pid;
+    }
 
-        if (!found) // Entry not found - don't post error, just fail.
-        {
-            // System.out.println("entry NOT found");
-            return null;
-        }
+    /**
+     * Opens a pinned header page. The first page has a different structure
+     * from that of the directory pages that follow it.
+     */
+    private static DBHeaderPage open_header_page(PageId hpid, Page apage) {
 
-        PageId startpid = new PageId();
-        dp.getFileEntry(startpid, slot);
-        return startpid;
+        if (hpid.pid == 0) {
+            DBFirstPage dp = new DBFirstPage();
+            dp.openPage(apage);
+            return dp;
+        }
+        DBDirectoryPage dp = new DBDirectoryPage();
+        dp.openPage(apage);
+        return dp;
     }
 
     /**
@@ -693,14 +1319,14 @@ public class DB implements GlobalConst {
             // one steps through each byte's bits.
 
             int pgptr = 0;
-            byte[] pagebuf = apage.getpage();
+            ByteBuffer pagebuf = apage.getFrame();
             int mask;
             for (; num_bits_this_page > 0; pgptr++) {// start forloop02
 
                 for (mask = 1; mask < 256 && num_bits_this_page > 0; mask = (mask << 1), --num_bits_this_page, ++bit_number) {// start
                     // forloop03
 
-                    int bit = pagebuf[pgptr] & mask;
+                    int bit = pagebuf.get(pgptr) & mask;
                     if ((bit_number % 10) == 0)
                         if ((bit_number % 50) == 0) {
                             if (bit_number > 0)
@@ -726,10 +1352,108 @@ public class DB implements GlobalConst {
 
     }
 
+    /** The mapped file is forced to disk by sync and closeDB only. */
+    public static final int FORCE_ON_SYNC = 0;
+
+    /** Every page written to the mapped file is forced to disk at once. */
+    public static final int FORCE_ON_WRITE = 1;
+
+    /** Bytes mapped at once, a multiple of the page size. */
+    private static final long CHUNK_SIZE = 1L << 30;
+
     private RandomAccessFile fp;
 
+    /**
+     * True to map the file into memory on open, from the diskmgr.mmap system
+     * property unless setMapped is called.
+     */
+    private boolean mapped = Boolean.getBoolean("diskmgr.mmap");
+
+    /** allocate_page takes the first run of free pages that fits. */
+    public static final int ALLOC_FIRST_FIT = 0;
+
+    /** allocate_page takes an aligned block of 2^k pages from a free list. */
+    public static final int ALLOC_BUDDY = 1;
+
+    /** ALLOC_FIRST_FIT or ALLOC_BUDDY, from the diskmgr.alloc property. */
+    private int allocPolicy = "buddy".equalsIgnoreCase(System.getProperty("diskmgr.alloc")) ? ALLOC_BUDDY : ALLOC_FIRST_FIT;
+
+    /** FORCE_ON_SYNC or FORCE_ON_WRITE, from the diskmgr.force property. */
+    private int forcePolicy = "write".equalsIgnoreCase(System.getProperty("diskmgr.force")) ? FORCE_ON_WRITE : FORCE_ON_SYNC;
+
+    /** The mapped file, CHUNK_SIZE bytes each, null if it is not mapped. */
+    private MappedByteBuffer[] chunks;
+
+    /**
+     * Bytes of each chunk written since the last sync, from dirtyFrom to
+     * dirtyTo. Also the lock of both arrays.
+     */
+    private int[] dirtyFrom;
+
+    private int[] dirtyTo;
+
+    /**
+     * The channel of fp. Pages are read and written at their position in the
+     * file, so the buffer manager threads can do I/O at the same time. The
+     * space map and the directory are changed with the lock of the DB object
+     * held instead.
+     */
+    private FileChannel channel;
+
+    /** Held by the gathering reads and writes, which move the channel position. */
+    private final Object gatherLatch = new Object();
+
     private int num_pages;
 
+    /**
+     * The summary of the free runs of the space map, a tree with one leaf per
+     * space-map page: leaf i is node num_leaves + i, and node n has the
+     * children 2n and 2n + 1. For the pages under a node it keeps the number
+     * of free pages at their start and at their end, the longest run of free
+     * pages and the number of pages. allocate_page walks down it to the first
+     * run that fits, without pinning the space-map pages it skips.
+     */
+    private int[] run_prefix;
+
+    private int[] run_suffix;
+
+    private int[] run_longest;
+
+    private int[] run_length;
+
+    /** Leaves of the summary, a power of two. */
+    private int num_leaves;
+
+    /**
+     * The buddy free lists, null unless the policy is ALLOC_BUDDY. A free
+     * block of 2^k pages starts at a multiple of 2^k, and buddy_order of its
+     * first page is k, -1 for the other pages. The blocks of order k form a
+     * doubly linked list through buddy_next and buddy_prev, indexed by page
+     * number, from buddy_head[k]; -1 ends a list.
+     */
+    private byte[] buddy_order;
+
+    private int[] buddy_next;
+
+    private int[] buddy_prev;
+
+    private int[] buddy_head;
+
+    /** The order of the biggest block, the largest 2^k not above num_pages. */
+    private int buddy_max_order;
+
+    /**
+     * The file entries of the header pages by name, and the free slots, the
+     * next to be filled first. Built by openDB and kept in step with the
+     * pages, so a file is found without reading the directory.
+     */
+    private HashMap<String, FileSlot> file_index;
+
+    private ArrayDeque<FileSlot> free_slots;
+
+    /** The last header page in the chain, where a new one is linked. */
+    private int last_header_page;
+
     private String name;
 
     /**
@@ -755,47 +1479,47 @@ public class DB implements GlobalConst {
 
             pinPage(pgid, pg, false/* no diskIO */);
 
-            byte[] pgbuf = pg.getpage();
+            ByteBuffer map = pg.getFrame();
 
             // Locate the piece of the run that fits on this page.
-            int first_byte_no = first_bit_no / 8;
-            int first_bit_offset = first_bit_no % 8;
             int last_bit_no = first_bit_no + run_size - 1;
 
             if (last_bit_no >= bits_per_page)
                 last_bit_no = bits_per_page - 1;
 
-            int last_byte_no = last_bit_no / 8;
-
-            // This loop actually flips the bits on the current page.
-            int cur_posi = first_byte_no;
-            for (; cur_posi <= last_byte_no; ++cur_posi, first_bit_offset = 0) {// start
+            // This loop actually flips the bits on the current page, a word at
+            // a time.
+            int cur_bit = first_bit_no;
+            while (cur_bit <= last_bit_no) {// start
                 // forloop02
 
-                int max_bits_this_byte = 8 - first_bit_offset;
-                int num_bits_this_byte = (run_size > max_bits_this_byte ? max_bits_this_byte : run_size);
+                int first_bit_offset = cur_bit % bits_per_word;
+                int num_bits_this_word = bits_per_word - first_bit_offset;
+                if (num_bits_this_word > last_bit_no - cur_bit + 1)
+                    num_bits_this_word = last_bit_no - cur_bit + 1;
 
-                int imask = 1;
-                int temp;
-                imask = ((imask << num_bits_this_byte) - 1) << first_bit_offset;
-                Integer intmask = new Integer(imask);
-                Byte mask = new Byte(intmask.byteValue());
-                byte bytemask = mask.byteValue();
+                long mask = (num_bits_this_word == bits_per_word) ? -1L : ((1L << num_bits_this_word) - 1) << first_bit_offset;
+                int index = cur_bit / bits_per_word * 8;
+                long word = (long) MAP_WORD.get(map, index);
 
-                if (bit == 1) {
-                    temp = (pgbuf[cur_posi] | bytemask);
-                    intmask = new Integer(temp);
-                    pgbuf[cur_posi] = intmask.byteValue();
-                } else {
+                if (bit == 1)
+                    MAP_WORD.set(map, index, word | mask);
+                else
+                    MAP_WORD.set(map, index, word & ~mask);
 
-                    temp = pgbuf[cur_posi] & (255 ^ bytemask);
-                    intmask = new Integer(temp);
-                    pgbuf[cur_posi] = intmask.byteValue();
-                }
-                run_size -= num_bits_this_byte;
+                cur_bit += num_bits_this_word;
+                run_size -= num_bits_this_word;
 
             }// end of forloop02
 
+            // Bring the summary of the page and the nodes above it up to
+            // date. openDB builds it once the space map is set up.
+            if (run_longest != null) {
+                summarize_page(pgid.pid - 1, map);
+                for (int node = (num_leaves + pgid.pid - 1) / 2; node >= 1; node /= 2)
+                    merge_summary(node);
+            }
+
             // Unpin the space-map page.
 
             unpinPage(pgid, true /* dirty */);
@@ -834,6 +1558,24 @@ public class DB implements GlobalConst {
 
     } // end of unpinPage
 
+    /**
+     * The slot of a file entry on a header page, and the start page of the
+     * file while the slot is in use.
+     */
+    private static final class FileSlot {
+
+        final int header_page;
+
+        final int slot;
+
+        int start_page;
+
+        FileSlot(int header_page, int slot) {
+            this.header_page = header_page;
+            this.slot = slot;
+        }
+    }
+
 }// end of DB class
 
 /**
@@ -858,7 +1600,17 @@ class DBHeaderPage implements PageUsedBytes, GlobalConst {
 
     protected static final int SIZE_OF_FILE_ENTRY = 4 + MAX_NAME + 2;
 
-    protected byte[] data;
+    /**
+     * The ints of the page, big-endian as Convert writes them, whatever the
+     * byte order of the buffer.
+     */
+    private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+
+    /**
+     * The bytes of the page, through getFrame() so that the header pages
+     * also work in an off-heap buffer pool.
+     */
+    protected ByteBuffer data;
 
     /**
      * Default constructor
@@ -876,7 +1628,7 @@ class DBHeaderPage implements PageUsedBytes, GlobalConst {
      * @exception IOException
      */
     public DBHeaderPage(Page page, int pageusedbytes) throws IOException {
-        data = page.getpage();
+        data = page.getFrame();
         PageId pageno = new PageId();
         pageno.pid = INVALID_PAGE;
         setNextPage(pageno);
@@ -899,7 +1651,7 @@ class DBHeaderPage implements PageUsedBytes, GlobalConst {
      *                I/O errors
      */
     public void setNextPage(PageId pageno) throws IOException {
-        Convert.setIntValue(pageno.pid, NEXT_PAGE, data);
+        setInt(NEXT_PAGE, pageno.pid);
     }
 
     /**
@@ -911,7 +1663,7 @@ class DBHeaderPage implements PageUsedBytes, GlobalConst {
      */
     public PageId getNextPage() throws IOException {
         PageId nextPage = new PageId();
-        nextPage.pid = Convert.getIntValue(NEXT_PAGE, data);
+        nextPage.pid = getInt(NEXT_PAGE);
         return nextPage;
     }
 
@@ -925,7 +1677,7 @@ class DBHeaderPage implements PageUsedBytes, GlobalConst {
      */
 
     protected void setNumOfEntries(int numEntries) throws IOException {
-        Convert.setIntValue(numEntries, NUM_OF_ENTRIES, data);
+        setInt(NUM_OF_ENTRIES, numEntries);
     }
 
     /**
@@ -936,7 +1688,7 @@ class DBHeaderPage implements PageUsedBytes, GlobalConst {
      *                I/O errors
      */
     public int getNumOfEntries() throws IOException {
-        return Convert.getIntValue(NUM_OF_ENTRIES, data);
+        return getInt(NUM_OF_ENTRIES);
     }
 
     /**
@@ -951,7 +1703,7 @@ class DBHeaderPage implements PageUsedBytes, GlobalConst {
      */
     private void initFileEntry(int empty, int entryNo) throws IOException {
         int position = START_FILE_ENTRIES + entryNo * SIZE_OF_FILE_ENTRY;
-        Convert.setIntValue(empty, position, data);
+        setInt(position, empty);
     }
 
     /**
@@ -969,8 +1721,12 @@ class DBHeaderPage implements PageUsedBytes, GlobalConst {
     public void setFileEntry(PageId pageNo, String fname, int entryNo) throws IOException {
 
         int position = START_FILE_ENTRIES + entryNo * SIZE_OF_FILE_ENTRY;
-        Convert.setIntValue(pageNo.pid, position, data);
-        Convert.setStrValue(fname, position + 4, data);
+        setInt(position, pageNo.pid);
+
+        // The name as Convert.setStrValue writes it.
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new DataOutputStream(bytes).writeUTF(fname);
+        data.put(position + 4, bytes.toByteArray());
     }
 
     /**
@@ -987,8 +1743,29 @@ class DBHeaderPage implements PageUsedBytes, GlobalConst {
     public String getFileEntry(PageId pageNo, int entryNo) throws IOException {
 
         int position = START_FILE_ENTRIES + entryNo * SIZE_OF_FILE_ENTRY;
-        pageNo.pid = Convert.getIntValue(position, data);
-        return (Convert.getStrValue(position + 4, data, MAX_NAME + 2));
+        pageNo.pid = getInt(position);
+
+        final byte[] name = new byte[MAX_NAME + 2];
+        data.get(position + 4, name);
+        return (Convert.getStrValue(0, name, MAX_NAME + 2));
+    }
+
+    /**
+     * @param position
+     * @return the int at the position of the page.
+     */
+    protected int getInt(int position) {
+        return (int) INT.get(data, position);
+    }
+
+    /**
+     * Set the int at the position of the page.
+     * 
+     * @param position
+     * @param value
+     */
+    protected void setInt(int position, int value) {
+        INT.set(data, position, value);
     }
 
 }
@@ -1026,7 +1803,7 @@ class DBFirstPage extends DBHeaderPage {
      *            a page of Page object
      */
     public void openPage(Page page) {
-        data = page.getpage();
+        data = page.getFrame();
     }
 
     /**
@@ -1038,7 +1815,7 @@ class DBFirstPage extends DBHeaderPage {
      *                I/O errors
      */
     public void setNumDBPages(int num) throws IOException {
-        Convert.setIntValue(num, NUM_DB_PAGE, data);
+        setInt(NUM_DB_PAGE, num);
     }
 
     /**
@@ -1050,7 +1827,7 @@ class DBFirstPage extends DBHeaderPage {
      */
     public int getNumDBPages() throws IOException {
 
-        return (Convert.getIntValue(NUM_DB_PAGE, data));
+        return (getInt(NUM_DB_PAGE));
     }
 
 }
@@ -1085,7 +1862,7 @@ class DBDirectoryPage extends DBHeaderPage { // implements PageUsedBytes
      *            a page of Page object
      */
     public void openPage(Page page) {
-        data = page.getpage();
+        data = page.getFrame();
     }
 
 }
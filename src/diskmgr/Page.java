@@ -4,8 +4,14 @@ package diskmgr;
 
 import global.*;
 
+import java.nio.ByteBuffer;
+
  /**
   * class Page
+  *
+  * A page is either a byte array on the heap or a view of a frame of an
+  * off-heap buffer pool. getFrame works for both, getpage only for the
+  * first, as the bytes of an off-heap frame are not in any array.
   */
 
 public class Page implements GlobalConst{
@@ -29,16 +35,49 @@ public class Page implements GlobalConst{
       data = apage;
     }
   
+  /**
+   * Constructor of class Page, as a view of an off-heap frame
+   * @param 	aframe   a buffer of page size
+   */
+  public Page(ByteBuffer aframe)
+    {
+      data = null;
+      frame = aframe;
+    }
+  
   /**
    * return the data byte array
    * @return 	the byte array of the page
+   * @exception IllegalStateException if the page is an off-heap frame
    */
   public byte [] getpage()
     {
+      if (data == null && frame != null)
+	throw new IllegalStateException("Page.getpage(): off-heap frame, use getFrame()");
       return data;
       
     }
   
+  /**
+   * return the page as a buffer. For an off-heap frame this is the frame
+   * itself, shared with the buffer manager, so use absolute get and put.
+   * @return 	a buffer over the bytes of the page
+   */
+  public ByteBuffer getFrame()
+    {
+      if (data == null)
+	return frame;
+      return ByteBuffer.wrap(data);
+    }
+  
+  /**
+   * @return 	true if the page is a view of an off-heap frame
+   */
+  public boolean isOffHeap()
+    {
+      return data == null && frame != null;
+    }
+  
   /**
    * set the page with the given byte array
    * @param 	array   a byte array of page size
@@ -46,6 +85,17 @@ public class Page implements GlobalConst{
   public void setpage(byte [] array)
     {
       data = array;
+      frame = null;
+    }
+  
+  /**
+   * set the page to a view of an off-heap frame
+   * @param 	aframe   a buffer of page size
+   */
+  public void setFrame(ByteBuffer aframe)
+    {
+      data = null;
+      frame = aframe;
     }
   
   /**
@@ -54,4 +104,9 @@ public class Page implements GlobalConst{
    */
   protected byte [] data;
   
+  /**
+   * private field: the off-heap frame, used when data is null
+   */
+  protected ByteBuffer frame;
+  
 }
@@ -0,0 +1,309 @@
+// Package name
+package tests;
+
+// Imported classes
+import global.Convert;
+import global.GlobalConst;
+import global.PageId;
+import global.SystemDefs;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import bufmgr.BufMgr;
+import diskmgr.Page;
+
+/**
+ * Class: BMStressTest
+ * Description: This class is the main and launches the multi-threaded
+ * buffer manager test.
+ */
+public class BMStressTest {
+
+    public static void main(String argv[]) {
+
+        BMStressDriver bmt = new BMStressDriver();
+        boolean dbstatus;
+
+        dbstatus = bmt.runTests();
+
+        if (dbstatus != true) {
+            System.err.println("Error encountered during buffer manager stress tests:\n");
+            Runtime.getRuntime().exit(1);
+        }
+
+        Runtime.getRuntime().exit(0);
+    }
+}
+
+/**
+ * Class: BMStressDriver
+ * Description: This class lets several threads pin, unpin, allocate and free
+ * pages of one buffer manager at the same time, for every replacer. Each page
+ * holds its own page number and a counter that only its owner thread
+ * increments, so a page read into the wrong frame or a lost write-back shows
+ * up as a wrong number.
+ */
+class BMStressDriver extends TestDriver implements GlobalConst {
+
+    private boolean OK = true;
+
+    private boolean FAIL = false;
+
+    private static final int POOLSIZE = 64;
+
+    private static final int NUMTHREADS = 8;
+
+    /** Pages owned by each thread. */
+    private static final int PAGES_PER_THREAD = 20;
+
+    private static final int NUMPAGES = NUMTHREADS * PAGES_PER_THREAD;
+
+    private static final int ITERATIONS = 20000;
+
+    /** One iteration in NEWPAGE_PERIOD also allocates and frees a page. */
+    private static final int NEWPAGE_PERIOD = 50;
+
+    private static final String[] REPLACERS = { "Clock", "LRUK", "2Q", "ARC", "ClockPro", "TinyLFU" };
+
+    /**
+     * BMStressDriver Constructor, inherited from TestDriver
+     */
+    public BMStressDriver() {
+        super("bufstress");
+    }
+
+    /**
+     * calls the runTests function in TestDriver
+     */
+    public boolean runTests() {
+
+        System.out.print("\n" + "Running " + testName() + " tests...." + "\n");
+
+        try {
+            new SystemDefs(dbpath, NUMBUF + NUMPAGES + NUMTHREADS * 2 + 20, NUMBUF, "Clock");
+        } catch (Exception e) {
+            Runtime.getRuntime().exit(1);
+        }
+
+        boolean _pass = runAllTests();
+
+        try {
+            Runtime.getRuntime().exec("rm -rf " + logpath);
+            Runtime.getRuntime().exec("rm -rf " + dbpath);
+        } catch (IOException e) {
+            System.err.println("" + e);
+        }
+
+        System.out.print("\n" + "..." + testName() + " tests ");
+        System.out.print(_pass == OK ? "completely successfully" : "failed");
+        System.out.print(".\n\n");
+
+        return _pass;
+    }
+
+    protected boolean runAllTests() {
+
+        boolean _passAll = OK;
+
+        for (int inx = 0; inx < REPLACERS.length; inx++) {
+            if (!stress(REPLACERS[inx])) {
+                _passAll = FAIL;
+            }
+        }
+        return _passAll;
+    }
+
+    /**
+     * Runs the threads against a new buffer manager with the given replacer,
+     * then checks every page through the pool and again from disk.
+     *
+     * @param replacerName
+     * @return whether the run has passed
+     */
+    private boolean stress(String replacerName) {
+
+        System.out.print("\n  Stressing " + replacerName + " with " + NUMTHREADS + " threads\n");
+
+        final BufMgr bm = new BufMgr(POOLSIZE, replacerName);
+        final PageId firstPid = new PageId();
+        final int[] counters = new int[NUMPAGES];
+        final AtomicInteger failures = new AtomicInteger();
+        Page pg = new Page();
+
+        try {
+            SystemDefs.JavabaseDB.allocate_page(firstPid, NUMPAGES);
+            PageId pid = new PageId();
+            for (int inx = 0; inx < NUMPAGES; inx++) {
+                pid.pid = firstPid.pid + inx;
+                bm.pinPage(pid, pg, /* emptyPage: */true);
+                Convert.setIntValue(pid.pid, 0, pg.getpage());
+                Convert.setIntValue(0, 4, pg.getpage());
+                bm.unpinPage(pid, /* dirty: */true);
+            }
+        } catch (Exception e) {
+            System.err.print("*** Could not set up the pages\n");
+            e.printStackTrace();
+            return FAIL;
+        }
+
+        final Thread[] threads = new Thread[NUMTHREADS];
+        for (int inx = 0; inx < NUMTHREADS; inx++) {
+            final int threadNo = inx;
+            threads[inx] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        work(bm, threadNo, firstPid.pid, counters);
+                    } catch (Exception e) {
+                        if (failures.getAndIncrement() == 0) {
+                            System.err.print("*** Thread " + threadNo + " failed\n");
+                            e.printStackTrace();
+                        }
+                    }
+                }
+            });
+        }
+
+        final long start = System.currentTimeMillis();
+        for (int inx = 0; inx < NUMTHREADS; inx++) {
+            threads[inx].start();
+        }
+        for (int inx = 0; inx < NUMTHREADS; inx++) {
+            try {
+                threads[inx].join();
+            } catch (InterruptedException e) {
+                failures.incrementAndGet();
+            }
+        }
+        System.out.print("  - " + NUMTHREADS * ITERATIONS + " iterations in " + (System.currentTimeMillis() - start) + " ms, hit ratio " + (double) bm.getNumHits() / (bm.getNumHits() + bm.getNumMisses()) + "\n");
+
+        if (failures.get() != 0) {
+            System.err.print("*** " + failures.get() + " threads failed\n");
+            return FAIL;
+        }
+
+        if (bm.getNumUnpinnedBuffers() != POOLSIZE) {
+            System.err.print("*** " + (POOLSIZE - bm.getNumUnpinnedBuffers()) + " frames are still pinned\n");
+            return FAIL;
+        }
+
+        boolean status = OK;
+        try {
+            status = checkPages(bm, firstPid.pid, counters);
+            bm.flushAllPages();
+            if (status == OK) {
+                // Read everything back through a fresh pool to check the
+                // pages that were written out.
+                status = checkPages(new BufMgr(POOLSIZE, "Clock"), firstPid.pid, counters);
+            }
+            SystemDefs.JavabaseDB.deallocate_page(firstPid, NUMPAGES);
+        } catch (Exception e) {
+            System.err.print("*** Could not check the pages\n");
+            e.printStackTrace();
+            status = FAIL;
+        }
+
+        if (status == OK)
+            System.out.print("  Stressing " + replacerName + " completed successfully.\n");
+
+        return status;
+    }
+
+    /**
+     * Body of one thread. It pins a random page and one of its own pages at
+     * the same time, checks that both hold their page number, increments the
+     * counter of its own page and unpins them. Now and then it also allocates
+     * a page with newPage and frees it again.
+     */
+    private void work(BufMgr bm, int threadNo, int firstPid, int[] counters) throws Exception {
+
+        final Random random = new Random(threadNo);
+        final Page anyPage = new Page();
+        final Page ownPage = new Page();
+        final PageId anyPid = new PageId();
+        final PageId ownPid = new PageId();
+
+        for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+
+            anyPid.pid = firstPid + random.nextInt(NUMPAGES);
+            ownPid.pid = firstPid + threadNo * PAGES_PER_THREAD + random.nextInt(PAGES_PER_THREAD);
+
+            bm.pinPage(anyPid, anyPage, /* emptyPage: */false);
+            if (ownPid.pid != anyPid.pid) {
+                bm.pinPage(ownPid, ownPage, /* emptyPage: */false);
+            } else {
+                ownPage.setpage(anyPage.getpage());
+            }
+
+            checkPid(anyPid.pid, anyPage);
+            checkPid(ownPid.pid, ownPage);
+
+            final int inx = ownPid.pid - firstPid;
+            final int counter = Convert.getIntValue(4, ownPage.getpage());
+            if (counter != counters[inx]) {
+                throw new Exception("page " + ownPid.pid + " has counter " + counter + ", expected " + counters[inx]);
+            }
+            Convert.setIntValue(counter + 1, 4, ownPage.getpage());
+            counters[inx] = counter + 1;
+
+            if (ownPid.pid != anyPid.pid) {
+                bm.unpinPage(ownPid, /* dirty: */true);
+                bm.unpinPage(anyPid, /* dirty: */false);
+            } else {
+                bm.unpinPage(ownPid, /* dirty: */true);
+            }
+
+            if (iteration % NEWPAGE_PERIOD == 0) {
+                final PageId newPid = bm.newPage(anyPage, 1);
+                if (newPid == null) {
+                    throw new Exception("newPage failed");
+                }
+                Convert.setIntValue(newPid.pid, 0, anyPage.getpage());
+                bm.unpinPage(newPid, /* dirty: */true);
+                bm.freePage(newPid);
+            }
+        }
+    }
+
+    private static void checkPid(int pid, Page page) throws Exception {
+        final int stored = Convert.getIntValue(0, page.getpage());
+        if (stored != pid) {
+            throw new Exception("page " + pid + " holds the data of page " + stored);
+        }
+    }
+
+    /**
+     * Pins every page once and compares its page number and counter.
+     *
+     * @return whether all pages are right
+     */
+    private boolean checkPages(BufMgr bm, int firstPid, int[] counters) throws Exception {
+
+        Page pg = new Page();
+        PageId pid = new PageId();
+
+        for (int inx = 0; inx < NUMPAGES; inx++) {
+            pid.pid = firstPid + inx;
+            bm.pinPage(pid, pg, /* emptyPage: */false);
+            final int stored = Convert.getIntValue(0, pg.getpage());
+            final int counter = Convert.getIntValue(4, pg.getpage());
+            bm.unpinPage(pid, /* dirty: */false);
+
+            if (stored != pid.pid || counter != counters[inx]) {
+                System.err.print("*** Page " + pid.pid + " holds page " + stored + " with counter " + counter + ", expected counter " + counters[inx] + "\n");
+                return FAIL;
+            }
+        }
+        return OK;
+    }
+
+    /**
+     * overrides the testName function in TestDriver
+     * 
+     * @return the name of the test
+     */
+    protected String testName() {
+        return "Buffer Management Stress";
+    }
+}
@@ -8,7 +8,18 @@ import global.PageId;
 import global.SystemDefs;
 
 import java.io.IOException;
-
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import bufmgr.BufMgr;
+import bufmgr.BufMgrStats;
+import bufmgr.BufferPoolExceededException;
+import bufmgr.InvalidFrameNumberException;
+import bufmgr.PagePinnedException;
+import bufmgr.PageUnpinnedException;
 import chainexception.ChainException;
 import diskmgr.Page;
 
@@ -50,6 +61,66 @@ class BMDriver extends TestDriver implements GlobalConst {
     
     private static final int BUFFERSIZE = 20;
 
+    private static final int TRACE_POOLSIZE = 20;
+
+    private static final int TRACE_HOTSET = 8;
+
+    private static final int TRACE_SCANLENGTH = 20;
+
+    private static final int TRACE_ROUNDS = 10;
+
+    private static final int TRACE_WORKINGSET = 16;
+
+    private static final int OFFHEAP_POOLSIZE = 8;
+
+    private static final int OFFHEAP_PAGES = 16;
+
+    private static final int READAHEAD_POOLSIZE = 16;
+
+    private static final int READAHEAD_PAGES = 32;
+
+    /** How long test7 and test8 wait for background threads, in milliseconds. */
+    private static final long BACKGROUND_WAIT = 5000;
+
+    private static final int CLEANER_POOLSIZE = 16;
+
+    private static final int MULTIPIN_POOLSIZE = 16;
+
+    private static final int MULTIPIN_PAGES = 20;
+
+    private static final int MULTIPIN_RUN = 12;
+
+    private static final int RESIZE_POOLSIZE = 8;
+
+    private static final int RESIZE_PAGES = 16;
+
+    private static final String[] REPLACERS = { "Clock", "LRUK", "2Q", "ARC", "ClockPro", "TinyLFU" };
+
+    private static final int PARTITION_INSTANCES = 4;
+
+    private static final int PARTITION_POOLSIZE = 16;
+
+    /** Pages of an extent, which BufMgr keeps in one instance. */
+    private static final int PARTITION_EXTENT = 64;
+
+    private static final int PARTITION_PAGES = 3 * PARTITION_EXTENT;
+
+    private static final int STATS_POOLSIZE = 8;
+
+    private static final int STATS_PAGES = 16;
+
+    /** Small enough for a TinyLFU window of one frame. */
+    private static final int WINDOW_POOLSIZE = 8;
+
+    private static final String[] SCAN_RESISTANT_REPLACERS = { "LRUK", "2Q", "ARC", "ClockPro" };
+
+    private static final String[] FILTERED_REPLACERS = { "TinyLFU:LRUK", "TinyLFU:2Q", "TinyLFU:ARC", "TinyLFU:ClockPro" };
+
+    private static final int GHOST_OPERATIONS = 3000;
+
+    /** Pages pinned now and then, besides a few pinned often. */
+    private static final int GHOST_PAGES = 40;
+
     /**
      * BMDriver Constructor, inherited from TestDriver
      */
@@ -68,7 +139,7 @@ class BMDriver extends TestDriver implements GlobalConst {
 
 
         try {
-            SystemDefs sysdef = new SystemDefs(dbpath, NUMBUF + BUFFERSIZE, NUMBUF, "Clock");
+            SystemDefs sysdef = new SystemDefs(dbpath, NUMBUF + BUFFERSIZE + Math.max(Math.max(OFFHEAP_PAGES, READAHEAD_PAGES), Math.max(MULTIPIN_PAGES, PARTITION_PAGES)), NUMBUF, "Clock");
         }
 
         catch (Exception e) {
@@ -119,7 +190,7 @@ class BMDriver extends TestDriver implements GlobalConst {
 
         // The following runs all the test functions
 
-        // Running test1() to test6()
+        // Running test1() to test16()
         if (!test1()) {
             _passAll = FAIL;
         }
@@ -138,6 +209,36 @@ class BMDriver extends TestDriver implements GlobalConst {
         if (!test6()) {
             _passAll = FAIL;
         }
+        if (!test7()) {
+            _passAll = FAIL;
+        }
+        if (!test8()) {
+            _passAll = FAIL;
+        }
+        if (!test9()) {
+            _passAll = FAIL;
+        }
+        if (!test10()) {
+            _passAll = FAIL;
+        }
+        if (!test11()) {
+            _passAll = FAIL;
+        }
+        if (!test12()) {
+            _passAll = FAIL;
+        }
+        if (!test13()) {
+            _passAll = FAIL;
+        }
+        if (!test14()) {
+            _passAll = FAIL;
+        }
+        if (!test15()) {
+            _passAll = FAIL;
+        }
+        if (!test16()) {
+            _passAll = FAIL;
+        }
 
         return _passAll;
     }
@@ -562,33 +663,1100 @@ class BMDriver extends TestDriver implements GlobalConst {
     }
 
     /**
-     * overrides the test4 function in TestDriver
+     * overrides the test4 function in TestDriver. It runs a trace of a hot set
+     * interleaved with sequential scans against a Clock buffer manager and one
+     * per scan resistant policy, and checks that each of them keeps the hot set
+     * in the pool.
      * 
      * @return whether test4 has passed
      */
     protected boolean test4() {
 
-        return true;
+        System.out.print("\n  Test 4 compares the hit ratio of the replacers " + "on a scan-plus-hot-set trace\n");
+
+        boolean status = OK;
+        double clockRatio = 0;
+
+        try {
+            clockRatio = hotScanHitRatio(new BufMgr(TRACE_POOLSIZE, "Clock"));
+            System.out.print("  - Clock hit ratio: " + clockRatio + "\n");
+        } catch (Exception e) {
+            status = FAIL;
+            System.err.print("*** Could not run the trace with Clock\n");
+            e.printStackTrace();
+        }
+
+        for (int inx = 0; status == OK && inx < SCAN_RESISTANT_REPLACERS.length; inx++) {
+            final String replacerName = SCAN_RESISTANT_REPLACERS[inx];
+            double ratio = 0;
+
+            try {
+                ratio = hotScanHitRatio(new BufMgr(TRACE_POOLSIZE, replacerName));
+                System.out.print("  - " + replacerName + " hit ratio: " + ratio + "\n");
+            } catch (Exception e) {
+                status = FAIL;
+                System.err.print("*** Could not run the trace with " + replacerName + "\n");
+                e.printStackTrace();
+            }
+
+            if (status == OK && ratio <= clockRatio) {
+                status = FAIL;
+                System.err.print("*** " + replacerName + " did not beat Clock on the trace\n");
+            }
+        }
+
+        if (status == OK)
+            System.out.print("  Test 4 completed successfully.\n");
+
+        return status;
     }
 
     /**
-     * overrides the test5 function in TestDriver
+     * Runs the scan-plus-hot-set trace on a private buffer manager. Every
+     * round pins each hot page twice and then scans pages that are never
+     * touched again. Pages are pinned empty and unpinned clean, so no disk I/O
+     * is done.
+     * 
+     * @param bm
+     *            the buffer manager to run the trace on.
+     * @return hits / (hits + misses)
+     */
+    private double hotScanHitRatio(BufMgr bm) throws Exception {
+
+        Page pg = new Page();
+        PageId pid = new PageId();
+        int nextScanPage = TRACE_HOTSET;
+
+        for (int round = 0; round < TRACE_ROUNDS; round++) {
+            for (int touch = 0; touch < 2; touch++) {
+                for (pid.pid = 0; pid.pid < TRACE_HOTSET; pid.pid++) {
+                    bm.pinPage(pid, pg, /* emptyPage: */true);
+                    bm.unpinPage(pid, /* dirty: */false);
+                }
+            }
+            for (int inx = 0; inx < TRACE_SCANLENGTH; inx++) {
+                pid.pid = nextScanPage++;
+                bm.pinPage(pid, pg, /* emptyPage: */true);
+                bm.unpinPage(pid, /* dirty: */false);
+            }
+        }
+
+        return (double) bm.getNumHits() / (bm.getNumHits() + bm.getNumMisses());
+    }
+
+    /**
+     * overrides the test5 function in TestDriver. It runs a trace of a working
+     * set mixed with pages pinned only once against a Clock buffer manager and
+     * a TinyLFU filtered one, and checks that the filter keeps the working set
+     * in the pool.
      * 
      * @return whether test5 has passed
      */
     protected boolean test5() {
 
-        return true;
+        System.out.print("\n  Test 5 compares the hit ratio of Clock with and without " + "the TinyLFU admission filter\n");
+
+        boolean status = OK;
+        double clockRatio = 0;
+        double filteredRatio = 0;
+
+        try {
+            clockRatio = oneHitWonderHitRatio(new BufMgr(TRACE_POOLSIZE, "Clock"));
+            filteredRatio = oneHitWonderHitRatio(new BufMgr(TRACE_POOLSIZE, "TinyLFU:Clock"));
+        } catch (Exception e) {
+            status = FAIL;
+            System.err.print("*** Could not run the one-hit-wonder trace\n");
+            e.printStackTrace();
+        }
+
+        if (status == OK) {
+            System.out.print("  - Clock hit ratio: " + clockRatio + "\n");
+            System.out.print("  - TinyLFU:Clock hit ratio: " + filteredRatio + "\n");
+            if (filteredRatio <= clockRatio) {
+                status = FAIL;
+                System.err.print("*** TinyLFU did not beat Clock on the trace\n");
+            }
+        }
+
+        if (status == OK)
+            System.out.print("  Test 5 completed successfully.\n");
+
+        return status;
     }
 
     /**
-     * overrides the test6 function in TestDriver
+     * Runs a trace on a private buffer manager where every round pins each
+     * page of a working set once, with a page that is never pinned again after
+     * every other working set page. Pages are pinned empty and unpinned clean,
+     * so no disk I/O is done.
+     * 
+     * @param bm
+     *            the buffer manager to run the trace on.
+     * @return hits / (hits + misses)
+     */
+    private double oneHitWonderHitRatio(BufMgr bm) throws Exception {
+
+        Page pg = new Page();
+        PageId pid = new PageId();
+        int nextOneHitPage = TRACE_WORKINGSET;
+
+        for (int round = 0; round < TRACE_ROUNDS; round++) {
+            for (int inx = 0; inx < TRACE_WORKINGSET; inx++) {
+                pid.pid = inx;
+                bm.pinPage(pid, pg, /* emptyPage: */true);
+                bm.unpinPage(pid, /* dirty: */false);
+
+                if (inx % 2 == 1) {
+                    pid.pid = nextOneHitPage++;
+                    bm.pinPage(pid, pg, /* emptyPage: */true);
+                    bm.unpinPage(pid, /* dirty: */false);
+                }
+            }
+        }
+
+        return (double) bm.getNumHits() / (bm.getNumHits() + bm.getNumMisses());
+    }
+
+    /**
+     * overrides the test6 function in TestDriver. It writes more pages than
+     * fit through an off-heap buffer manager, so some are written out on
+     * replacement and the rest by flushAllPages, and reads them all back
+     * through a heap buffer manager.
      * 
      * @return whether test6 has passed
      */
     protected boolean test6() {
 
-        return true;
+        System.out.print("\n  Test 6 writes pages through an off-heap buffer pool\n");
+
+        boolean status = OK;
+        final PageId firstPid = new PageId();
+        final PageId pid = new PageId();
+        final Page pg = new Page();
+
+        try {
+            SystemDefs.JavabaseDB.allocate_page(firstPid, OFFHEAP_PAGES);
+
+            final BufMgr bm = new BufMgr(OFFHEAP_POOLSIZE, "Clock", /* offHeap: */true);
+            for (int inx = 0; inx < OFFHEAP_PAGES; inx++) {
+                pid.pid = firstPid.pid + inx;
+                bm.pinPage(pid, pg, /* emptyPage: */true);
+                if (!pg.isOffHeap()) {
+                    status = FAIL;
+                    System.err.print("*** Page " + pid.pid + " is not an off-heap frame\n");
+                }
+                pg.getFrame().putInt(0, pid.pid + 99999);
+                bm.unpinPage(pid, /* dirty: */true);
+            }
+            bm.flushAllPages();
+
+            final BufMgr heapBm = new BufMgr(OFFHEAP_POOLSIZE, "Clock");
+            for (int inx = 0; status == OK && inx < OFFHEAP_PAGES; inx++) {
+                pid.pid = firstPid.pid + inx;
+                heapBm.pinPage(pid, pg, /* emptyPage: */false);
+                final int data = Convert.getIntValue(0, pg.getpage());
+                heapBm.unpinPage(pid, /* dirty: */false);
+                if (data != pid.pid + 99999) {
+                    status = FAIL;
+                    System.err.print("*** Read wrong data back from page " + pid.pid + "\n");
+                }
+            }
+
+            SystemDefs.JavabaseDB.deallocate_page(firstPid, OFFHEAP_PAGES);
+        } catch (Exception e) {
+            status = FAIL;
+            System.err.print("*** Could not use the off-heap buffer pool\n");
+            e.printStackTrace();
+        }
+
+        if (status == OK)
+            System.out.print("  Test 6 completed successfully.\n");
+
+        return status;
+    }
+
+    /**
+     * Reads pages ahead with prefetch and with the read-ahead detector. It
+     * prefetches a run and checks that pinning it only hits, then scans pages
+     * one after the other and checks that the detector read some of them
+     * ahead, and that every page read ahead holds the right data.
+     * 
+     * @return whether test7 has passed
+     */
+    protected boolean test7() {
+
+        System.out.print("\n  Test 7 reads pages ahead of a scan\n");
+
+        boolean status = OK;
+        final PageId firstPid = new PageId();
+        final PageId pid = new PageId();
+        final Page pg = new Page();
+
+        try {
+            SystemDefs.JavabaseDB.allocate_page(firstPid, READAHEAD_PAGES);
+
+            BufMgr bm = new BufMgr(READAHEAD_POOLSIZE, "Clock");
+            for (int inx = 0; inx < READAHEAD_PAGES; inx++) {
+                pid.pid = firstPid.pid + inx;
+                bm.pinPage(pid, pg, /* emptyPage: */true);
+                Convert.setIntValue(pid.pid + 99999, 0, pg.getpage());
+                bm.unpinPage(pid, /* dirty: */true);
+            }
+            bm.flushAllPages();
+
+            System.out.print("  - Prefetch a run and pin it\n");
+            final int runLength = READAHEAD_POOLSIZE / 2;
+            bm = new BufMgr(READAHEAD_POOLSIZE, "Clock");
+            bm.prefetch(firstPid, runLength);
+            final long deadline = System.currentTimeMillis() + BACKGROUND_WAIT;
+            while (bm.getNumPrefetched() < runLength && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            status = scan(bm, firstPid.pid, runLength);
+            if (status == OK && bm.getNumMisses() != 0) {
+                status = FAIL;
+                System.err.print("*** " + bm.getNumMisses() + " pins of prefetched pages missed\n");
+            }
+
+            if (status == OK) {
+                System.out.print("  - Scan with read-ahead\n");
+                bm = new BufMgr(READAHEAD_POOLSIZE, "Clock");
+                bm.setReadAhead(READAHEAD_POOLSIZE / 4);
+                status = scan(bm, firstPid.pid, READAHEAD_PAGES);
+                final long scanDeadline = System.currentTimeMillis() + BACKGROUND_WAIT;
+                while (bm.getNumPrefetched() == 0 && System.currentTimeMillis() < scanDeadline) {
+                    Thread.sleep(1);
+                }
+                if (status == OK && bm.getNumPrefetched() == 0) {
+                    status = FAIL;
+                    System.err.print("*** The scan read no page ahead\n");
+                }
+            }
+
+            SystemDefs.JavabaseDB.deallocate_page(firstPid, READAHEAD_PAGES);
+        } catch (Exception e) {
+            status = FAIL;
+            System.err.print("*** Could not read pages ahead\n");
+            e.printStackTrace();
+        }
+
+        if (status == OK)
+            System.out.print("  Test 7 completed successfully.\n");
+
+        return status;
+    }
+
+    /**
+     * Dirties every frame of a buffer manager with a page cleaner running,
+     * waits for the cleaner to write them, then changes the pages again and
+     * flushes them. Reading them back through a fresh buffer manager must give
+     * the second values, so a cleaned page is written again when it changes.
+     * 
+     * @return whether test8 has passed
+     */
+    protected boolean test8() {
+
+        System.out.print("\n  Test 8 lets the page cleaner write dirty frames\n");
+
+        boolean status = OK;
+        final PageId firstPid = new PageId();
+        final PageId pid = new PageId();
+        final Page pg = new Page();
+
+        try {
+            SystemDefs.JavabaseDB.allocate_page(firstPid, CLEANER_POOLSIZE);
+
+            final BufMgr bm = new BufMgr(CLEANER_POOLSIZE, "Clock");
+            bm.startPageCleaner(0, 50);
+            for (int round = 1; status == OK && round <= 2; round++) {
+                for (int inx = 0; inx < CLEANER_POOLSIZE; inx++) {
+                    pid.pid = firstPid.pid + inx;
+                    bm.pinPage(pid, pg, /* emptyPage: */round == 1);
+                    Convert.setIntValue(pid.pid * round, 0, pg.getpage());
+                    bm.unpinPage(pid, /* dirty: */true);
+                }
+                final long deadline = System.currentTimeMillis() + BACKGROUND_WAIT;
+                while (bm.getNumCleaned() < round * CLEANER_POOLSIZE / 2 && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(1);
+                }
+                if (bm.getNumCleaned() < round * CLEANER_POOLSIZE / 2) {
+                    status = FAIL;
+                    System.err.print("*** The cleaner wrote only " + bm.getNumCleaned() + " frames\n");
+                }
+            }
+            bm.stopPageCleaner();
+            bm.flushAllPages();
+
+            final BufMgr heapBm = new BufMgr(CLEANER_POOLSIZE, "Clock");
+            for (int inx = 0; status == OK && inx < CLEANER_POOLSIZE; inx++) {
+                pid.pid = firstPid.pid + inx;
+                heapBm.pinPage(pid, pg, /* emptyPage: */false);
+                final int data = Convert.getIntValue(0, pg.getpage());
+                heapBm.unpinPage(pid, /* dirty: */false);
+                if (data != pid.pid * 2) {
+                    status = FAIL;
+                    System.err.print("*** Read wrong data back from page " + pid.pid + "\n");
+                }
+            }
+
+            SystemDefs.JavabaseDB.deallocate_page(firstPid, CLEANER_POOLSIZE);
+        } catch (Exception e) {
+            status = FAIL;
+            System.err.print("*** Could not run the page cleaner\n");
+            e.printStackTrace();
+        }
+
+        if (status == OK)
+            System.out.print("  Test 8 completed successfully.\n");
+
+        return status;
+    }
+
+    /**
+     * Pins a run of pages with pinPages while some of them are already in the
+     * pool, checks their data and that they all stay pinned, changes them and
+     * unpins them with unpinPages. After a flush a fresh buffer manager must
+     * read the new data. Pinning a run longer than the pool must fail and
+     * leave no frame pinned.
+     * 
+     * @return whether test9 has passed
+     */
+    protected boolean test9() {
+
+        System.out.print("\n  Test 9 pins and unpins runs of pages\n");
+
+        boolean status = OK;
+        final PageId firstPid = new PageId();
+        final PageId pid = new PageId();
+        final Page pg = new Page();
+        final Page[] pages = new Page[MULTIPIN_PAGES];
+        for (int inx = 0; inx < MULTIPIN_PAGES; inx++) {
+            pages[inx] = new Page();
+        }
+
+        try {
+            SystemDefs.JavabaseDB.allocate_page(firstPid, MULTIPIN_PAGES);
+
+            BufMgr bm = new BufMgr(MULTIPIN_POOLSIZE, "Clock");
+            for (int inx = 0; inx < MULTIPIN_PAGES; inx++) {
+                pid.pid = firstPid.pid + inx;
+                bm.pinPage(pid, pg, /* emptyPage: */true);
+                Convert.setIntValue(pid.pid + 99999, 0, pg.getpage());
+                bm.unpinPage(pid, /* dirty: */true);
+            }
+            bm.flushAllPages();
+
+            System.out.print("  - Pin a run with some of its pages in the pool\n");
+            bm = new BufMgr(MULTIPIN_POOLSIZE, "Clock");
+            // The pins are counted, so no frame may be busy reading ahead.
+            bm.setReadAhead(0);
+            for (int inx = 1; inx < MULTIPIN_RUN; inx += 4) {
+                pid.pid = firstPid.pid + inx;
+                bm.pinPage(pid, pg, /* emptyPage: */false);
+                bm.unpinPage(pid, /* dirty: */false);
+            }
+            bm.pinPages(firstPid, MULTIPIN_RUN, pages);
+            if (bm.getNumUnpinnedBuffers() != MULTIPIN_POOLSIZE - MULTIPIN_RUN) {
+                status = FAIL;
+                System.err.print("*** " + (MULTIPIN_POOLSIZE - bm.getNumUnpinnedBuffers()) + " frames are pinned, expected " + MULTIPIN_RUN + "\n");
+            }
+            for (int inx = 0; status == OK && inx < MULTIPIN_RUN; inx++) {
+                final int data = Convert.getIntValue(0, pages[inx].getpage());
+                if (data != firstPid.pid + inx + 99999) {
+                    status = FAIL;
+                    System.err.print("*** Read wrong data back from page " + (firstPid.pid + inx) + "\n");
+                }
+                Convert.setIntValue((firstPid.pid + inx) * 3, 0, pages[inx].getpage());
+            }
+            bm.unpinPages(firstPid, MULTIPIN_RUN, /* dirty: */true);
+            if (status == OK && bm.getNumUnpinnedBuffers() != MULTIPIN_POOLSIZE) {
+                status = FAIL;
+                System.err.print("*** unpinPages left " + (MULTIPIN_POOLSIZE - bm.getNumUnpinnedBuffers()) + " frames pinned\n");
+            }
+
+            if (status == OK) {
+                System.out.print("  - Pin a run longer than the pool\n");
+                try {
+                    bm.pinPages(firstPid, MULTIPIN_PAGES, pages);
+                    status = FAIL;
+                    System.err.print("*** Pinned " + MULTIPIN_PAGES + " pages in " + MULTIPIN_POOLSIZE + " frames\n");
+                } catch (BufferPoolExceededException e) {
+                    if (bm.getNumUnpinnedBuffers() != MULTIPIN_POOLSIZE) {
+                        status = FAIL;
+                        System.err.print("*** The failed pinPages left " + (MULTIPIN_POOLSIZE - bm.getNumUnpinnedBuffers()) + " frames pinned\n");
+                    }
+                }
+            }
+            bm.flushAllPages();
+
+            bm = new BufMgr(MULTIPIN_POOLSIZE, "Clock");
+            for (int inx = 0; status == OK && inx < MULTIPIN_RUN; inx++) {
+                pid.pid = firstPid.pid + inx;
+                bm.pinPage(pid, pg, /* emptyPage: */false);
+                final int data = Convert.getIntValue(0, pg.getpage());
+                bm.unpinPage(pid, /* dirty: */false);
+                if (data != pid.pid * 3) {
+                    status = FAIL;
+                    System.err.print("*** Read wrong data back from page " + pid.pid + "\n");
+                }
+            }
+
+            SystemDefs.JavabaseDB.deallocate_page(firstPid, MULTIPIN_PAGES);
+        } catch (Exception e) {
+            status = FAIL;
+            System.err.print("*** Could not pin runs of pages\n");
+            e.printStackTrace();
+        }
+
+        if (status == OK)
+            System.out.print("  Test 9 completed successfully.\n");
+
+        return status;
+    }
+
+    /**
+     * Grows and shrinks a buffer manager in use, for every replacer. The pages
+     * in the pool must stay there when it grows, a shrink over pinned frames
+     * must fail and change nothing, and the dirty pages of the frames a
+     * shrink drops must reach the disk.
+     * 
+     * @return whether test10 has passed
+     */
+    protected boolean test10() {
+
+        System.out.print("\n  Test 10 resizes the buffer pool in use\n");
+
+        boolean status = OK;
+        final PageId firstPid = new PageId();
+        final PageId pid = new PageId();
+        final Page pg = new Page();
+
+        for (int replacerNo = 0; status == OK && replacerNo < REPLACERS.length; replacerNo++) {
+            System.out.print("  - " + REPLACERS[replacerNo] + "\n");
+            try {
+                SystemDefs.JavabaseDB.allocate_page(firstPid, RESIZE_PAGES);
+
+                BufMgr bm = new BufMgr(RESIZE_POOLSIZE, REPLACERS[replacerNo]);
+                for (int inx = 0; inx < RESIZE_POOLSIZE; inx++) {
+                    pid.pid = firstPid.pid + inx;
+                    bm.pinPage(pid, pg, /* emptyPage: */true);
+                    Convert.setIntValue(pid.pid * 7, 0, pg.getpage());
+                    bm.unpinPage(pid, /* dirty: */true);
+                }
+
+                bm.resize(2 * RESIZE_POOLSIZE);
+                final long misses = bm.getNumMisses();
+                for (int inx = 0; inx < RESIZE_POOLSIZE; inx++) {
+                    pid.pid = firstPid.pid + inx;
+                    bm.pinPage(pid, pg, /* emptyPage: */false);
+                    bm.unpinPage(pid, /* dirty: */false);
+                }
+                if (bm.getNumBuffers() != 2 * RESIZE_POOLSIZE || bm.getNumMisses() != misses) {
+                    status = FAIL;
+                    System.err.print("*** The pool has " + bm.getNumBuffers() + " frames and lost " + (bm.getNumMisses() - misses) + " pages after growing\n");
+                }
+
+                // Fill the new frames and keep them pinned.
+                for (int inx = RESIZE_POOLSIZE; inx < RESIZE_PAGES; inx++) {
+                    pid.pid = firstPid.pid + inx;
+                    bm.pinPage(pid, pg, /* emptyPage: */true);
+                    Convert.setIntValue(pid.pid * 7, 0, pg.getpage());
+                }
+                try {
+                    bm.resize(RESIZE_POOLSIZE / 2);
+                    status = FAIL;
+                    System.err.print("*** Shrank the pool over pinned frames\n");
+                } catch (PagePinnedException e) {
+                    if (bm.getNumBuffers() != 2 * RESIZE_POOLSIZE || bm.getNumUnpinnedBuffers() != RESIZE_PAGES - RESIZE_POOLSIZE) {
+                        status = FAIL;
+                        System.err.print("*** The failed shrink left " + bm.getNumBuffers() + " frames, " + bm.getNumUnpinnedBuffers() + " unpinned\n");
+                    }
+                }
+                for (int inx = RESIZE_POOLSIZE; inx < RESIZE_PAGES; inx++) {
+                    pid.pid = firstPid.pid + inx;
+                    bm.unpinPage(pid, /* dirty: */true);
+                }
+
+                bm.resize(RESIZE_POOLSIZE / 2);
+                if (status == OK && (bm.getNumBuffers() != RESIZE_POOLSIZE / 2 || bm.getNumUnpinnedBuffers() != RESIZE_POOLSIZE / 2)) {
+                    status = FAIL;
+                    System.err.print("*** The pool has " + bm.getNumBuffers() + " frames, " + bm.getNumUnpinnedBuffers() + " unpinned after shrinking\n");
+                }
+
+                // Read everything through the small pool, then through a
+                // fresh one after a flush.
+                for (int round = 0; status == OK && round < 2; round++) {
+                    for (int inx = 0; status == OK && inx < RESIZE_PAGES; inx++) {
+                        pid.pid = firstPid.pid + inx;
+                        bm.pinPage(pid, pg, /* emptyPage: */false);
+                        final int data = Convert.getIntValue(0, pg.getpage());
+                        bm.unpinPage(pid, /* dirty: */false);
+                        if (data != pid.pid * 7) {
+                            status = FAIL;
+                            System.err.print("*** Read wrong data back from page " + pid.pid + "\n");
+                        }
+                    }
+                    bm.flushAllPages();
+                    bm = new BufMgr(RESIZE_POOLSIZE, "Clock");
+                }
+
+                SystemDefs.JavabaseDB.deallocate_page(firstPid, RESIZE_PAGES);
+            } catch (Exception e) {
+                status = FAIL;
+                System.err.print("*** Could not resize the pool\n");
+                e.printStackTrace();
+            }
+        }
+
+        if (status == OK)
+            System.out.print("  Test 10 completed successfully.\n");
+
+        return status;
+    }
+
+    /**
+     * Runs a buffer manager split into instances. The pages must come back
+     * right through it, pinPages must work across the boundary of two
+     * extents, the hits and misses of the instances must add up, and the
+     * pool must grow as a whole.
+     * 
+     * @return whether test11 has passed
+     */
+    protected boolean test11() {
+
+        System.out.print("\n  Test 11 uses a buffer pool split into instances\n");
+
+        boolean status = OK;
+        final PageId firstPid = new PageId();
+        final PageId pid = new PageId();
+        final Page pg = new Page();
+
+        try {
+            SystemDefs.JavabaseDB.allocate_page(firstPid, PARTITION_PAGES);
+
+            final BufMgr bm = new BufMgr(PARTITION_POOLSIZE, "Clock", false, PARTITION_INSTANCES);
+            if (bm.getNumInstances() != PARTITION_INSTANCES || bm.getNumBuffers() != PARTITION_POOLSIZE) {
+                status = FAIL;
+                System.err.print("*** The pool has " + bm.getNumInstances() + " instances and " + bm.getNumBuffers() + " frames\n");
+            }
+            for (int inx = 0; inx < PARTITION_PAGES; inx++) {
+                pid.pid = firstPid.pid + inx;
+                bm.pinPage(pid, pg, /* emptyPage: */true);
+                Convert.setIntValue(pid.pid * 5, 0, pg.getpage());
+                bm.unpinPage(pid, /* dirty: */true);
+            }
+            bm.flushAllPages();
+
+            System.out.print("  - Pin a run across two extents\n");
+            final Page[] pages = new Page[4];
+            for (int inx = 0; inx < pages.length; inx++) {
+                pages[inx] = new Page();
+            }
+            final PageId runPid = new PageId((((firstPid.pid / PARTITION_EXTENT) + 2) * PARTITION_EXTENT) - pages.length / 2);
+            bm.pinPages(runPid, pages.length, pages);
+            for (int inx = 0; status == OK && inx < pages.length; inx++) {
+                if (Convert.getIntValue(0, pages[inx].getpage()) != (runPid.pid + inx) * 5) {
+                    status = FAIL;
+                    System.err.print("*** Read wrong data back from page " + (runPid.pid + inx) + "\n");
+                }
+            }
+            if (status == OK && bm.getNumUnpinnedBuffers() != PARTITION_POOLSIZE - pages.length) {
+                status = FAIL;
+                System.err.print("*** " + (PARTITION_POOLSIZE - bm.getNumUnpinnedBuffers()) + " frames are pinned, expected " + pages.length + "\n");
+            }
+            bm.unpinPages(runPid, pages.length, /* dirty: */false);
+
+            System.out.print("  - Read pages of every extent\n");
+            for (int inx = 0; status == OK && inx < PARTITION_PAGES; inx += PARTITION_POOLSIZE / 2) {
+                pid.pid = firstPid.pid + inx;
+                bm.pinPage(pid, pg, /* emptyPage: */false);
+                final int data = Convert.getIntValue(0, pg.getpage());
+                bm.unpinPage(pid, /* dirty: */false);
+                if (data != pid.pid * 5) {
+                    status = FAIL;
+                    System.err.print("*** Read wrong data back from page " + pid.pid + "\n");
+                }
+            }
+            long hits = 0;
+            long misses = 0;
+            for (int inx = 0; inx < bm.getNumInstances(); inx++) {
+                hits += bm.getNumHits(inx);
+                misses += bm.getNumMisses(inx);
+            }
+            if (status == OK && (hits != bm.getNumHits() || misses != bm.getNumMisses())) {
+                status = FAIL;
+                System.err.print("*** The instances have " + hits + " hits and " + misses + " misses, the pool " + bm.getNumHits() + " and " + bm.getNumMisses() + "\n");
+            }
+
+            bm.resize(2 * PARTITION_POOLSIZE);
+            if (status == OK && (bm.getNumBuffers() != 2 * PARTITION_POOLSIZE || bm.getNumUnpinnedBuffers() != 2 * PARTITION_POOLSIZE)) {
+                status = FAIL;
+                System.err.print("*** The pool has " + bm.getNumBuffers() + " frames, " + bm.getNumUnpinnedBuffers() + " unpinned after growing\n");
+            }
+
+            SystemDefs.JavabaseDB.deallocate_page(firstPid, PARTITION_PAGES);
+        } catch (Exception e) {
+            status = FAIL;
+            System.err.print("*** Could not use the instances\n");
+            e.printStackTrace();
+        }
+
+        if (status == OK)
+            System.out.print("  Test 11 completed successfully.\n");
+
+        return status;
+    }
+
+    /**
+     * Checks the counters of the buffer manager on a known sequence of pins,
+     * its snapshot, and that its MBean publishes them.
+     * 
+     * @return whether test12 has passed
+     */
+    protected boolean test12() {
+
+        System.out.print("\n  Test 12 counts what the buffer manager does\n");
+
+        boolean status = OK;
+        final PageId firstPid = new PageId();
+        final PageId pid = new PageId();
+        final Page pg = new Page();
+
+        try {
+            SystemDefs.JavabaseDB.allocate_page(firstPid, STATS_PAGES);
+
+            final BufMgr bm = new BufMgr(STATS_POOLSIZE, "Clock");
+            bm.setReadAhead(0);
+            bm.stopPageCleaner();
+
+            System.out.print("  - Write more pages than the pool holds, then read one back\n");
+            for (int inx = 0; inx < STATS_PAGES; inx++) {
+                pid.pid = firstPid.pid + inx;
+                bm.pinPage(pid, pg, /* emptyPage: */true);
+                Convert.setIntValue(pid.pid + 7, 0, pg.getpage());
+                bm.unpinPage(pid, /* dirty: */true);
+            }
+            pid.pid = firstPid.pid + STATS_PAGES - 1;
+            bm.pinPage(pid, pg, /* emptyPage: */false);
+            bm.unpinPage(pid, /* dirty: */false);
+            pid.pid = firstPid.pid;
+            bm.pinPage(pid, pg, /* emptyPage: */false);
+            if (Convert.getIntValue(0, pg.getpage()) != pid.pid + 7) {
+                status = FAIL;
+                System.err.print("*** Read wrong data back from page " + pid.pid + "\n");
+            }
+            bm.unpinPage(pid, /* dirty: */false);
+
+            // Every miss takes a victim, the ones after the pool filled up
+            // evict a dirty page, and only page firstPid is read.
+            final int evicted = STATS_PAGES - STATS_POOLSIZE + 1;
+            final BufMgrStats stats = bm.getStats();
+            if (status == OK && (stats.getNumHits() != 1 || stats.getNumMisses() != STATS_PAGES + 1 || stats.getNumVictims() != STATS_PAGES + 1)) {
+                status = FAIL;
+                System.err.print("*** Counted " + stats + "\n");
+            }
+            if (status == OK && (stats.getNumEvictions() != evicted || stats.getNumWriteBacks() != evicted || stats.getNumWrites() != evicted || stats.getNumWriteBytes() != (long) evicted * GlobalConst.MINIBASE_PAGESIZE)) {
+                status = FAIL;
+                System.err.print("*** Counted " + stats + ", expected " + evicted + " evictions and writes\n");
+            }
+            if (status == OK && (stats.getNumReads() != 1 || stats.getNumReadBytes() != GlobalConst.MINIBASE_PAGESIZE || stats.getNumPoolExceeded() != 0)) {
+                status = FAIL;
+                System.err.print("*** Counted " + stats + ", expected one read\n");
+            }
+            if (status == OK && stats.getSweepSteps() < stats.getNumVictims()) {
+                status = FAIL;
+                System.err.print("*** The clock swept " + stats.getSweepSteps() + " frames for " + stats.getNumVictims() + " victims\n");
+            }
+
+            System.out.print("  - Pin more pages than there are frames\n");
+            int pinned = 0;
+            try {
+                for (; pinned <= STATS_POOLSIZE; pinned++) {
+                    pid.pid = firstPid.pid + pinned;
+                    bm.pinPage(pid, pg, /* emptyPage: */false);
+                }
+            } catch (BufferPoolExceededException e) {
+                // Expected on the last page.
+            }
+            for (int inx = 0; inx < pinned; inx++) {
+                pid.pid = firstPid.pid + inx;
+                bm.unpinPage(pid, /* dirty: */false);
+            }
+            if (status == OK && (pinned != STATS_POOLSIZE || bm.getNumPoolExceeded() != 1)) {
+                status = FAIL;
+                System.err.print("*** Pinned " + pinned + " pages, the pool was exceeded " + bm.getNumPoolExceeded() + " times\n");
+            }
+            if (status == OK && (stats.getNumHits() != 1 || stats.getNumPoolExceeded() != 0)) {
+                status = FAIL;
+                System.err.print("*** The snapshot changed to " + stats + "\n");
+            }
+
+            System.out.print("  - Read the counters through JMX\n");
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = new ObjectName("bufmgr:type=BufMgr,name=" + ObjectName.quote("test12"));
+            bm.registerMBean("test12");
+            final Object hits = server.getAttribute(name, "NumHits");
+            final Object exceeded = server.getAttribute(name, "NumPoolExceeded");
+            bm.unregisterMBean();
+            if (status == OK && (!Long.valueOf(bm.getNumHits()).equals(hits) || !Long.valueOf(1).equals(exceeded))) {
+                status = FAIL;
+                System.err.print("*** The MBean has " + hits + " hits and " + exceeded + " exceeded\n");
+            }
+            if (status == OK && server.isRegistered(name)) {
+                status = FAIL;
+                System.err.print("*** The MBean is still registered\n");
+            }
+
+            SystemDefs.JavabaseDB.deallocate_page(firstPid, STATS_PAGES);
+        } catch (Exception e) {
+            status = FAIL;
+            System.err.print("*** Could not count the buffer manager\n");
+            e.printStackTrace();
+        }
+
+        if (status == OK)
+            System.out.print("  Test 12 completed successfully.\n");
+
+        return status;
+    }
+
+    /**
+     * Pins and unpins pages through frame handles, in a pool of one instance
+     * and in a partitioned one.
+     * 
+     * @return whether test13 has passed
+     */
+    protected boolean test13() {
+
+        System.out.print("\n  Test 13 pins pages through frame handles\n");
+
+        boolean status = OK;
+        final PageId firstPid = new PageId();
+
+        try {
+            SystemDefs.JavabaseDB.allocate_page(firstPid, PARTITION_PAGES);
+
+            System.out.print("  - One instance\n");
+            status = checkHandles(new BufMgr(PARTITION_POOLSIZE, "Clock"), firstPid.pid);
+
+            if (status == OK) {
+                System.out.print("  - " + PARTITION_INSTANCES + " instances\n");
+                status = checkHandles(new BufMgr(PARTITION_POOLSIZE, "Clock", false, PARTITION_INSTANCES), firstPid.pid);
+            }
+
+            SystemDefs.JavabaseDB.deallocate_page(firstPid, PARTITION_PAGES);
+        } catch (Exception e) {
+            status = FAIL;
+            System.err.print("*** Could not pin pages through handles\n");
+            e.printStackTrace();
+        }
+
+        if (status == OK)
+            System.out.print("  Test 13 completed successfully.\n");
+
+        return status;
+    }
+
+    /**
+     * Replaces the page of the TinyLFU window frame and checks that the handle
+     * of a pin of the old page released before is refused. LRUK is filtered,
+     * so the page in the window, pinned last, is not its victim, and the new
+     * page rejected by the filter takes the window frame.
+     * 
+     * @return whether test14 has passed
+     */
+    protected boolean test14() {
+
+        System.out.print("\n  Test 14 replaces the page of the TinyLFU window frame\n");
+
+        boolean status = OK;
+        final PageId firstPid = new PageId();
+        final PageId pid = new PageId();
+        final Page pg = new Page();
+        final int numPages = WINDOW_POOLSIZE + 2;
+
+        try {
+            SystemDefs.JavabaseDB.allocate_page(firstPid, numPages);
+
+            final BufMgr bm = new BufMgr(WINDOW_POOLSIZE, "TinyLFU:LRUK");
+            bm.setReadAhead(0);
+
+            // Fill the pool with pages pinned often enough to be admitted
+            // before any page pinned once.
+            for (int inx = 0; inx < WINDOW_POOLSIZE; inx++) {
+                pid.pid = firstPid.pid + inx;
+                for (int pin = 0; pin < 3; pin++) {
+                    bm.pinPage(pid, pg, /* emptyPage: */pin == 0);
+                    bm.unpinPage(pid, /* dirty: */pin == 0);
+                }
+            }
+
+            // The next page is not admitted and fills the window.
+            final int windowPid = firstPid.pid + WINDOW_POOLSIZE;
+            long old = 0;
+            for (int pin = 0; pin < 3; pin++) {
+                old = bm.pin(windowPid, /* emptyPage: */false);
+                bm.unpin(old, /* dirty: */false);
+            }
+
+            // The last one is not admitted either and takes the window frame.
+            final long handle = bm.pin(windowPid + 1, /* emptyPage: */false);
+            if ((int) handle != (int) old) {
+                status = FAIL;
+                System.err.print("*** Page " + (windowPid + 1) + " is in frame " + (int) handle + ", not in the window frame " + (int) old + "\n");
+            }
+            try {
+                bm.unpin(old, /* dirty: */false);
+                status = FAIL;
+                System.err.print("*** Unpinned page " + (windowPid + 1) + " through the handle of page " + windowPid + "\n");
+            } catch (InvalidFrameNumberException e) {
+                // Expected.
+            }
+            bm.unpin(handle, /* dirty: */false);
+            if (status == OK && bm.getNumUnpinnedBuffers() != WINDOW_POOLSIZE) {
+                status = FAIL;
+                System.err.print("*** " + (WINDOW_POOLSIZE - bm.getNumUnpinnedBuffers()) + " frames are still pinned\n");
+            }
+
+            bm.flushAllPages();
+            SystemDefs.JavabaseDB.deallocate_page(firstPid, numPages);
+        } catch (Exception e) {
+            status = FAIL;
+            System.err.print("*** Could not replace the page of the window frame\n");
+            e.printStackTrace();
+        }
+
+        if (status == OK)
+            System.out.print("  Test 14 completed successfully.\n");
+
+        return status;
+    }
+
+    /**
+     * Replaces a page pinned three times while every other frame is pinned,
+     * reads it back and then scans more pages than the pool holds. LRUK kept
+     * the history of the page when it was replaced, so the page is not taken
+     * for a scan page and the scan pages are replaced before it.
+     * 
+     * @return whether test15 has passed
+     */
+    protected boolean test15() {
+
+        System.out.print("\n  Test 15 reads a replaced page back into an LRUK pool and scans\n");
+
+        boolean status = OK;
+        final PageId pid = new PageId();
+        final Page pg = new Page();
+        final int hotPid = 0;
+
+        try {
+            final BufMgr bm = new BufMgr(WINDOW_POOLSIZE, "LRUK");
+            bm.setReadAhead(0);
+
+            pid.pid = hotPid;
+            for (int pin = 0; pin < 3; pin++) {
+                bm.pinPage(pid, pg, /* emptyPage: */true);
+                bm.unpinPage(pid, /* dirty: */false);
+            }
+
+            // Keep every other frame pinned, so the next page replaces the
+            // hot one.
+            for (pid.pid = hotPid + 1; pid.pid < hotPid + WINDOW_POOLSIZE; pid.pid++) {
+                bm.pinPage(pid, pg, /* emptyPage: */true);
+            }
+            pid.pid = hotPid + WINDOW_POOLSIZE;
+            bm.pinPage(pid, pg, /* emptyPage: */true);
+            bm.unpinPage(pid, /* dirty: */false);
+            for (pid.pid = hotPid + 1; pid.pid < hotPid + WINDOW_POOLSIZE; pid.pid++) {
+                bm.unpinPage(pid, /* dirty: */false);
+            }
+
+            pid.pid = hotPid;
+            final long misses = bm.getNumMisses();
+            bm.pinPage(pid, pg, /* emptyPage: */true);
+            bm.unpinPage(pid, /* dirty: */false);
+            if (bm.getNumMisses() == misses) {
+                status = FAIL;
+                System.err.print("*** Page " + hotPid + " was not replaced\n");
+            }
+
+            for (int inx = 1; inx <= 2 * WINDOW_POOLSIZE; inx++) {
+                pid.pid = hotPid + WINDOW_POOLSIZE + inx;
+                bm.pinPage(pid, pg, /* emptyPage: */true);
+                bm.unpinPage(pid, /* dirty: */false);
+            }
+
+            pid.pid = hotPid;
+            final long hits = bm.getNumHits();
+            bm.pinPage(pid, pg, /* emptyPage: */true);
+            bm.unpinPage(pid, /* dirty: */false);
+            if (status == OK && bm.getNumHits() == hits) {
+                status = FAIL;
+                System.err.print("*** The scan replaced page " + hotPid + ", which was read back with its history\n");
+            }
+        } catch (Exception e) {
+            status = FAIL;
+            System.err.print("*** Could not read the replaced page back\n");
+            e.printStackTrace();
+        }
+
+        if (status == OK)
+            System.out.print("  Test 15 completed successfully.\n");
+
+        return status;
+    }
+
+    /**
+     * Runs a random trace through TinyLFU in front of each replacer that
+     * remembers replaced pages, and checks that a page the replacer remembers
+     * as replaced is never in the pool. The filter often puts a page it does
+     * not admit in a window frame instead of the frame the replacer chose, so
+     * the replacer must only record the replacement that happens.
+     * 
+     * @return whether test16 has passed
+     */
+    protected boolean test16() {
+
+        System.out.print("\n  Test 16 checks the ghost pages of the replacers behind TinyLFU\n");
+
+        boolean status = OK;
+        final PageId pid = new PageId();
+        final Page pg = new Page();
+
+        for (int inx = 0; status == OK && inx < FILTERED_REPLACERS.length; inx++) {
+            final String replacerName = FILTERED_REPLACERS[inx];
+
+            try {
+                final BufMgr bm = new BufMgr(WINDOW_POOLSIZE, replacerName);
+                bm.setReadAhead(0);
+                final Random random = new Random(5710);
+
+                for (int op = 0; status == OK && op < GHOST_OPERATIONS; op++) {
+                    pid.pid = (random.nextInt(3) == 0) ? random.nextInt(WINDOW_POOLSIZE / 2) : WINDOW_POOLSIZE + random.nextInt(GHOST_PAGES);
+                    final boolean ghost = bm.isGhost(pid.pid);
+                    final long hits = bm.getNumHits();
+                    bm.pinPage(pid, pg, /* emptyPage: */true);
+                    bm.unpinPage(pid, /* dirty: */false);
+                    if (ghost && bm.getNumHits() != hits) {
+                        status = FAIL;
+                        System.err.print("*** " + replacerName + " remembered page " + pid.pid + " as replaced while it was in the pool\n");
+                    } else if (bm.isGhost(pid.pid)) {
+                        status = FAIL;
+                        System.err.print("*** " + replacerName + " remembers page " + pid.pid + " as replaced after it was read in\n");
+                    }
+                }
+            } catch (Exception e) {
+                status = FAIL;
+                System.err.print("*** Could not run the trace with " + replacerName + "\n");
+                e.printStackTrace();
+            }
+        }
+
+        if (status == OK)
+            System.out.print("  Test 16 completed successfully.\n");
+
+        return status;
+    }
+
+    /**
+     * Writes and reads back more pages than the pool holds through handles,
+     * checks that two pins of a page get the same handle, and that a handle
+     * is refused once its pin is released. In a pool of one instance every
+     * frame then holds another pinned page, which the handle must not unpin.
+     */
+    private boolean checkHandles(BufMgr bm, int firstPid) throws Exception {
+
+        final Page pg = new Page();
+
+        for (int inx = 0; inx < PARTITION_PAGES; inx++) {
+            final long handle = bm.pin(firstPid + inx, /* emptyPage: */true);
+            bm.attachPage(handle, pg);
+            Convert.setIntValue((firstPid + inx) * 3, 0, pg.getpage());
+            bm.unpin(handle, /* dirty: */true);
+        }
+
+        for (int inx = 0; inx < PARTITION_PAGES; inx++) {
+            final long handle = bm.pin(firstPid + inx, /* emptyPage: */false);
+            bm.attachPage(handle, pg);
+            final int data = Convert.getIntValue(0, pg.getpage());
+            bm.unpin(handle, /* dirty: */false);
+            if (data != (firstPid + inx) * 3) {
+                System.err.print("*** Read wrong data back from page " + (firstPid + inx) + "\n");
+                return FAIL;
+            }
+        }
+
+        final long first = bm.pin(firstPid, /* emptyPage: */false);
+        final long second = bm.pin(firstPid, /* emptyPage: */false);
+        bm.unpin(second, /* dirty: */false);
+        bm.unpin(first, /* dirty: */false);
+        if (first != second) {
+            System.err.print("*** Two pins of page " + firstPid + " got the handles " + first + " and " + second + "\n");
+            return FAIL;
+        }
+        if (bm.getNumUnpinnedBuffers() != PARTITION_POOLSIZE) {
+            System.err.print("*** " + (PARTITION_POOLSIZE - bm.getNumUnpinnedBuffers()) + " frames are still pinned\n");
+            return FAIL;
+        }
+
+        // Reading the other pages may take the frame of page firstPid.
+        for (int inx = 1; inx < PARTITION_PAGES; inx++) {
+            bm.unpin(bm.pin(firstPid + inx, /* emptyPage: */false), /* dirty: */false);
+        }
+        if (bm.getNumInstances() == 1) {
+            final long[] handles = new long[PARTITION_POOLSIZE];
+            for (int inx = 0; inx < handles.length; inx++) {
+                handles[inx] = bm.pin(firstPid + PARTITION_PAGES - 1 - inx, /* emptyPage: */false);
+            }
+            boolean refused = false;
+            try {
+                bm.unpin(first, /* dirty: */false);
+            } catch (InvalidFrameNumberException e) {
+                refused = true;
+            }
+            for (int inx = 0; inx < handles.length; inx++) {
+                bm.unpin(handles[inx], /* dirty: */false);
+            }
+            if (!refused) {
+                System.err.print("*** Unpinned another page through the handle of page " + firstPid + "\n");
+                return FAIL;
+            }
+        }
+        try {
+            bm.unpin(first, /* dirty: */false);
+            System.err.print("*** Unpinned through the handle of a released pin\n");
+            return FAIL;
+        } catch (InvalidFrameNumberException e) {
+            // Expected if the frame holds another page.
+        } catch (PageUnpinnedException e) {
+            // Expected if it still holds page firstPid.
+        }
+
+        bm.flushAllPages();
+        return OK;
+    }
+
+    /**
+     * Pins the pages of a run one after the other and checks their data.
+     * 
+     * @return whether all pages are right
+     */
+    private boolean scan(BufMgr bm, int firstPid, int count) throws Exception {
+
+        final Page pg = new Page();
+        final PageId pid = new PageId();
+
+        for (int inx = 0; inx < count; inx++) {
+            pid.pid = firstPid + inx;
+            bm.pinPage(pid, pg, /* emptyPage: */false);
+            final int data = Convert.getIntValue(0, pg.getpage());
+            bm.unpinPage(pid, /* dirty: */false);
+            if (data != pid.pid + 99999) {
+                System.err.print("*** Read wrong data back from page " + pid.pid + "\n");
+                return FAIL;
+            }
+        }
+        return OK;
     }
 
     /**
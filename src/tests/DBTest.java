@@ -0,0 +1,642 @@
+// Package name
+package tests;
+
+// Imported classes
+import global.GlobalConst;
+import global.PageId;
+import global.SystemDefs;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Random;
+
+import bufmgr.BufMgr;
+import diskmgr.DB;
+import diskmgr.DuplicateEntryException;
+import diskmgr.FileEntryNotFoundException;
+import diskmgr.InvalidPageNumberException;
+import diskmgr.OutOfSpaceException;
+
+/**
+ * Class: DBTest
+ * Description: This class is the main and launches the disk manager tests.
+ */
+public class DBTest {
+
+    public static void main(String argv[]) {
+
+        DBDriver dbt = new DBDriver();
+        boolean dbstatus;
+
+        dbstatus = dbt.runTests();
+
+        if (dbstatus != true) {
+            System.err.println("Error encountered during disk manager tests:\n");
+            Runtime.getRuntime().exit(1);
+        }
+
+        Runtime.getRuntime().exit(0);
+    }
+}
+
+/**
+ * Class: DBDriver
+ * Description: This class tests the space map of the disk manager. It keeps
+ * its own bit per page of what should be allocated, and checks that
+ * allocate_page returns the first run of free pages that is long enough.
+ */
+class DBDriver extends TestDriver implements GlobalConst {
+
+    private boolean OK = true;
+
+    private boolean FAIL = false;
+
+    /** Pages a space-map page keeps the bits of. */
+    private static final int BITS_PER_MAP_PAGE = MAX_SPACE * 8;
+
+    /** Three full space-map pages and part of a fourth. */
+    private static final int NUM_PAGES = 3 * BITS_PER_MAP_PAGE + 100;
+
+    private static final int OPERATIONS = 3000;
+
+    /** File entries added, enough to fill several header pages. */
+    private static final int FILES = 200;
+
+    /** Longest run allocated, long enough to span two space-map pages. */
+    private static final int MAX_RUN = 3 * BITS_PER_MAP_PAGE / 4;
+
+    /** Pages allocated, as the database should have them. */
+    private BitSet used;
+
+    /**
+     * DBDriver Constructor, inherited from TestDriver
+     */
+    public DBDriver() {
+        super("dbtest");
+    }
+
+    /**
+     * calls the runTests function in TestDriver
+     */
+    public boolean runTests() {
+
+        System.out.print("\n" + "Running " + testName() + " tests...." + "\n");
+
+        try {
+            SystemDefs sysdef = new SystemDefs(dbpath, NUM_PAGES, NUMBUF, "Clock");
+
+            // Tests 1 to 3 check first fit, whatever diskmgr.alloc says.
+            SystemDefs.JavabaseDB.setAllocPolicy(DB.ALLOC_FIRST_FIT);
+            SystemDefs.JavabaseBM.flushAllPages();
+            SystemDefs.JavabaseDB.closeDB();
+            SystemDefs.JavabaseDB.openDB(dbpath);
+        }
+
+        catch (Exception e) {
+            Runtime.getRuntime().exit(1);
+        }
+
+        // The first page and the space-map pages.
+        used = new BitSet(NUM_PAGES);
+        used.set(0, 1 + (NUM_PAGES + BITS_PER_MAP_PAGE - 1) / BITS_PER_MAP_PAGE);
+
+        boolean _pass = runAllTests();
+
+        try {
+            Runtime.getRuntime().exec("rm -rf " + dbpath);
+            Runtime.getRuntime().exec("rm -rf " + logpath);
+        } catch (java.io.IOException e) {
+            System.err.println("" + e);
+        }
+
+        System.out.print("\n" + "..." + testName() + " tests ");
+        System.out.print(_pass == OK ? "completely successfully" : "failed");
+        System.out.print(".\n\n");
+
+        return _pass;
+    }
+
+    protected boolean runAllTests() {
+
+        boolean _passAll = OK;
+
+        // Running test1() to test6()
+        if (!test1()) {
+            _passAll = FAIL;
+        }
+        if (!test2()) {
+            _passAll = FAIL;
+        }
+        if (!test3()) {
+            _passAll = FAIL;
+        }
+        if (!test4()) {
+            _passAll = FAIL;
+        }
+        if (!test5()) {
+            _passAll = FAIL;
+        }
+        if (!test6()) {
+            _passAll = FAIL;
+        }
+
+        return _passAll;
+    }
+
+    /**
+     * Allocates and deallocates runs of random lengths and checks that every
+     * run is the first one that fits.
+     * 
+     * @return whether test1 has passed
+     */
+    protected boolean test1() {
+
+        System.out.print("\n  Test 1 allocates and deallocates runs of pages\n");
+
+        boolean status = OK;
+        final Random random = new Random(5708);
+        final ArrayList<int[]> runs = new ArrayList<int[]>();
+        final PageId pid = new PageId();
+
+        try {
+            for (int op = 0; status == OK && op < OPERATIONS; op++) {
+                if (!runs.isEmpty() && random.nextInt(5) < 2) {
+                    final int[] run = runs.remove(random.nextInt(runs.size()));
+                    pid.pid = run[0];
+                    SystemDefs.JavabaseDB.deallocate_page(pid, run[1]);
+                    used.clear(run[0], run[0] + run[1]);
+                    continue;
+                }
+
+                // Mostly short runs, a few long ones.
+                final int runSize = (random.nextInt(8) == 0) ? 1 + random.nextInt(MAX_RUN) : 1 + random.nextInt(70);
+                final int expected = firstFit(runSize);
+                try {
+                    SystemDefs.JavabaseDB.allocate_page(pid, runSize);
+                } catch (OutOfSpaceException e) {
+                    if (expected >= 0) {
+                        status = FAIL;
+                        System.err.print("*** No space for a run of " + runSize + " pages, expected it at page " + expected + "\n");
+                    }
+                    continue;
+                }
+                // Record the run before checking it, so it is freed below
+                // even if it is in the wrong place.
+                used.set(pid.pid, pid.pid + runSize);
+                runs.add(new int[] { pid.pid, runSize });
+                if (pid.pid != expected) {
+                    status = FAIL;
+                    System.err.print("*** A run of " + runSize + " pages got page " + pid.pid + ", expected page " + expected + "\n");
+                    break;
+                }
+            }
+
+            for (int inx = 0; inx < runs.size(); inx++) {
+                pid.pid = runs.get(inx)[0];
+                SystemDefs.JavabaseDB.deallocate_page(pid, runs.get(inx)[1]);
+                used.clear(runs.get(inx)[0], runs.get(inx)[0] + runs.get(inx)[1]);
+            }
+        } catch (Exception e) {
+            status = FAIL;
+            System.err.print("*** Could not allocate or deallocate a run\n");
+            e.printStackTrace();
+        }
+
+        if (status == OK)
+            System.out.print("  Test 1 completed successfully.\n");
+
+        return status;
+    }
+
+    /**
+     * Fills the database up to its last page and checks that one more page
+     * does not fit, then that a run across a space-map page boundary is
+     * found.
+     * 
+     * @return whether test2 has passed
+     */
+    protected boolean test2() {
+
+        System.out.print("\n  Test 2 allocates up to the end of the database\n");
+
+        boolean status = OK;
+        final PageId first = new PageId();
+        final PageId pid = new PageId();
+
+        try {
+            final int start = firstFit(1);
+            SystemDefs.JavabaseDB.allocate_page(first, NUM_PAGES - start);
+            if (first.pid != start) {
+                status = FAIL;
+                System.err.print("*** The rest of the database starts at page " + first.pid + ", expected page " + start + "\n");
+            }
+
+            try {
+                SystemDefs.JavabaseDB.allocate_page(pid);
+                status = FAIL;
+                System.err.print("*** Allocated page " + pid.pid + " of a full database\n");
+            } catch (OutOfSpaceException e) {
+                // Expected.
+            }
+
+            // Free a run across the boundary of the second and third
+            // space-map pages and allocate it again.
+            pid.pid = 2 * BITS_PER_MAP_PAGE - 10;
+            SystemDefs.JavabaseDB.deallocate_page(pid, 20);
+            SystemDefs.JavabaseDB.allocate_page(pid, 20);
+            if (status == OK && pid.pid != 2 * BITS_PER_MAP_PAGE - 10) {
+                status = FAIL;
+                System.err.print("*** The run across two space-map pages got page " + pid.pid + "\n");
+            }
+
+            first.pid = start;
+            SystemDefs.JavabaseDB.deallocate_page(first, NUM_PAGES - start);
+        } catch (Exception e) {
+            status = FAIL;
+            System.err.print("*** Could not fill the database\n");
+            e.printStackTrace();
+        }
+
+        if (status == OK)
+            System.out.print("  Test 2 completed successfully.\n");
+
+        return status;
+    }
+
+    /**
+     * Leaves holes in the space map, closes the database and opens it again,
+     * and checks that the runs are found where they were before.
+     * 
+     * @return whether test3 has passed
+     */
+    protected boolean test3() {
+
+        System.out.print("\n  Test 3 reopens the database and allocates again\n");
+
+        boolean status = OK;
+        final PageId first = new PageId();
+        final PageId pid = new PageId();
+        final int start = firstFit(1);
+
+        try {
+            // Used pages with a hole of 1, 2, 4, ... pages after each.
+            SystemDefs.JavabaseDB.allocate_page(first, NUM_PAGES - start);
+            used.set(first.pid, NUM_PAGES);
+            for (int size = 1, next = first.pid + 1; next + size < NUM_PAGES; next += 2 * size, size *= 2) {
+                pid.pid = next;
+                SystemDefs.JavabaseDB.deallocate_page(pid, size);
+                used.clear(next, next + size);
+            }
+
+            SystemDefs.JavabaseBM.flushAllPages();
+            SystemDefs.JavabaseDB.closeDB();
+            SystemDefs.JavabaseDB.openDB(dbpath);
+
+            for (int size = 1; status == OK && size < NUM_PAGES / 4; size = 2 * size + 1) {
+                final int expected = firstFit(size);
+                try {
+                    SystemDefs.JavabaseDB.allocate_page(pid, size);
+                } catch (OutOfSpaceException e) {
+                    if (expected >= 0) {
+                        status = FAIL;
+                        System.err.print("*** No space for a run of " + size + " pages after reopening, expected it at page " + expected + "\n");
+                    }
+                    continue;
+                }
+                if (pid.pid != expected) {
+                    status = FAIL;
+                    System.err.print("*** A run of " + size + " pages got page " + pid.pid + " after reopening, expected page " + expected + "\n");
+                }
+                used.set(pid.pid, pid.pid + size);
+            }
+        } catch (Exception e) {
+            status = FAIL;
+            System.err.print("*** Could not reopen the database\n");
+            e.printStackTrace();
+        }
+
+        if (status == OK)
+            System.out.print("  Test 3 completed successfully.\n");
+
+        return status;
+    }
+
+    /**
+     * Reopens the database with the buddy policy, allocates and deallocates
+     * runs of random lengths, and checks that each run is a free block
+     * aligned to its size while there is one, else the first run that fits,
+     * and that freed blocks merge back.
+     * 
+     * @return whether test4 has passed
+     */
+    protected boolean test4() {
+
+        System.out.print("\n  Test 4 allocates runs of pages from buddy free lists\n");
+
+        boolean status = OK;
+        final Random random = new Random(5709);
+        final ArrayList<int[]> runs = new ArrayList<int[]>();
+        final PageId pid = new PageId();
+
+        try {
+            // Free what test3 left, then switch the policy.
+            for (int start = used.nextSetBit(used.nextClearBit(0)); start >= 0; start = used.nextSetBit(start)) {
+                final int end = used.nextClearBit(start);
+                pid.pid = start;
+                SystemDefs.JavabaseDB.deallocate_page(pid, end - start);
+                used.clear(start, end);
+            }
+            SystemDefs.JavabaseDB.setAllocPolicy(DB.ALLOC_BUDDY);
+            SystemDefs.JavabaseBM.flushAllPages();
+            SystemDefs.JavabaseDB.closeDB();
+            SystemDefs.JavabaseDB.openDB(dbpath);
+            if (SystemDefs.JavabaseDB.getAllocPolicy() != DB.ALLOC_BUDDY) {
+                status = FAIL;
+                System.err.print("*** The database was not opened with the buddy policy\n");
+            }
+
+            for (int op = 0; status == OK && op < OPERATIONS; op++) {
+                if (!runs.isEmpty() && random.nextInt(5) < 2) {
+                    final int[] run = runs.remove(random.nextInt(runs.size()));
+                    pid.pid = run[0];
+                    SystemDefs.JavabaseDB.deallocate_page(pid, run[1]);
+                    used.clear(run[0], run[0] + run[1]);
+                    continue;
+                }
+
+                final int runSize = (random.nextInt(8) == 0) ? 1 + random.nextInt(MAX_RUN) : 1 + random.nextInt(70);
+                // The run takes a block of the next power of two.
+                final int size = Integer.highestOneBit(2 * runSize - 1);
+                final boolean block = freeBlock(size) >= 0;
+                final int expected = firstFit(runSize);
+                try {
+                    SystemDefs.JavabaseDB.allocate_page(pid, runSize);
+                } catch (OutOfSpaceException e) {
+                    if (expected >= 0) {
+                        status = FAIL;
+                        System.err.print("*** No space for a run of " + runSize + " pages, expected it at page " + expected + "\n");
+                    }
+                    continue;
+                }
+                final int clash = used.nextSetBit(pid.pid);
+                used.set(pid.pid, pid.pid + runSize);
+                runs.add(new int[] { pid.pid, runSize });
+                if (block && (pid.pid % size != 0 || pid.pid + runSize > NUM_PAGES || (clash >= 0 && clash < pid.pid + runSize))) {
+                    status = FAIL;
+                    System.err.print("*** A run of " + runSize + " pages got page " + pid.pid + ", not a free block of " + size + " pages\n");
+                    break;
+                }
+                if (!block && pid.pid != expected) {
+                    status = FAIL;
+                    System.err.print("*** A run of " + runSize + " pages got page " + pid.pid + " with no block free, expected page " + expected + "\n");
+                    break;
+                }
+            }
+
+            for (int inx = 0; inx < runs.size(); inx++) {
+                pid.pid = runs.get(inx)[0];
+                SystemDefs.JavabaseDB.deallocate_page(pid, runs.get(inx)[1]);
+                used.clear(runs.get(inx)[0], runs.get(inx)[0] + runs.get(inx)[1]);
+            }
+
+            // Everything freed merged back, so a big block is on its list
+            // and is taken rather than the first run that fits.
+            SystemDefs.JavabaseDB.allocate_page(pid, BITS_PER_MAP_PAGE);
+            if (status == OK && pid.pid % BITS_PER_MAP_PAGE != 0) {
+                status = FAIL;
+                System.err.print("*** The block of " + BITS_PER_MAP_PAGE + " pages got page " + pid.pid + "\n");
+            }
+            SystemDefs.JavabaseDB.deallocate_page(pid, BITS_PER_MAP_PAGE);
+
+            try {
+                SystemDefs.JavabaseDB.deallocate_page(pid);
+                status = FAIL;
+                System.err.print("*** Freed page " + pid.pid + " twice\n");
+            } catch (InvalidPageNumberException e) {
+                // Expected.
+            }
+
+            SystemDefs.JavabaseDB.setAllocPolicy(DB.ALLOC_FIRST_FIT);
+            SystemDefs.JavabaseBM.flushAllPages();
+            SystemDefs.JavabaseDB.closeDB();
+            SystemDefs.JavabaseDB.openDB(dbpath);
+        } catch (Exception e) {
+            status = FAIL;
+            System.err.print("*** Could not allocate or deallocate a block\n");
+            e.printStackTrace();
+        }
+
+        if (status == OK)
+            System.out.print("  Test 4 completed successfully.\n");
+
+        return status;
+    }
+
+    /**
+     * Adds, finds and deletes file entries over several header pages, reuses
+     * the freed slots, and finds the entries again after reopening.
+     * 
+     * @return whether test5 has passed
+     */
+    protected boolean test5() {
+
+        System.out.print("\n  Test 5 adds, finds and deletes file entries\n");
+
+        boolean status = OK;
+        final PageId pid = new PageId();
+        final int[] start = new int[FILES];
+
+        try {
+            for (int inx = 0; inx < FILES; inx++) {
+                start[inx] = 100 + inx;
+                pid.pid = start[inx];
+                SystemDefs.JavabaseDB.add_file_entry("file" + inx, pid);
+            }
+            status = checkFileEntries(start, "after adding them");
+
+            try {
+                pid.pid = 1;
+                SystemDefs.JavabaseDB.add_file_entry("file" + (FILES - 1), pid);
+                status = FAIL;
+                System.err.print("*** Added a file entry twice\n");
+            } catch (DuplicateEntryException e) {
+                // Expected.
+            }
+
+            for (int inx = 0; inx < FILES; inx += 3) {
+                SystemDefs.JavabaseDB.delete_file_entry("file" + inx);
+                start[inx] = INVALID_PAGE;
+            }
+            if (status == OK)
+                status = checkFileEntries(start, "after deleting some");
+
+            try {
+                SystemDefs.JavabaseDB.delete_file_entry("file0");
+                status = FAIL;
+                System.err.print("*** Deleted a file entry twice\n");
+            } catch (FileEntryNotFoundException e) {
+                // Expected.
+            }
+
+            // The freed slots take the new entries, so no header page is added.
+            SystemDefs.JavabaseDB.allocate_page(pid);
+            final int free = pid.pid;
+            SystemDefs.JavabaseDB.deallocate_page(pid);
+            for (int inx = 0; inx < FILES; inx += 3) {
+                start[inx] = 2 * FILES + inx;
+                pid.pid = start[inx];
+                SystemDefs.JavabaseDB.add_file_entry("file" + inx, pid);
+            }
+            SystemDefs.JavabaseDB.allocate_page(pid);
+            SystemDefs.JavabaseDB.deallocate_page(pid);
+            if (status == OK && pid.pid != free) {
+                status = FAIL;
+                System.err.print("*** Adding to freed slots allocated page " + free + "\n");
+            }
+
+            SystemDefs.JavabaseBM.flushAllPages();
+            SystemDefs.JavabaseDB.closeDB();
+            SystemDefs.JavabaseDB.openDB(dbpath);
+            if (status == OK)
+                status = checkFileEntries(start, "after reopening");
+
+            for (int inx = 0; inx < FILES; inx++)
+                SystemDefs.JavabaseDB.delete_file_entry("file" + inx);
+        } catch (Exception e) {
+            status = FAIL;
+            System.err.print("*** Could not add, find or delete a file entry\n");
+            e.printStackTrace();
+        }
+
+        if (status == OK)
+            System.out.print("  Test 5 completed successfully.\n");
+
+        return status;
+    }
+
+    /**
+     * Reopens the database with an off-heap buffer pool, whose pages have no
+     * byte array, and uses the header pages and the space map through it.
+     * 
+     * @return whether test6 has passed
+     */
+    protected boolean test6() {
+
+        System.out.print("\n  Test 6 keeps the database in an off-heap buffer pool\n");
+
+        boolean status = OK;
+        final BufMgr heapBM = SystemDefs.JavabaseBM;
+        final PageId pid = new PageId();
+        final int[] start = new int[FILES];
+
+        try {
+            heapBM.flushAllPages();
+            SystemDefs.JavabaseDB.closeDB();
+            SystemDefs.JavabaseBM = new BufMgr(NUMBUF, "Clock", /* offHeap: */true);
+            SystemDefs.JavabaseDB.openDB(dbpath);
+
+            for (int inx = 0; inx < FILES; inx++) {
+                start[inx] = 3 * FILES + inx;
+                pid.pid = start[inx];
+                SystemDefs.JavabaseDB.add_file_entry("file" + inx, pid);
+            }
+
+            // The header pages added for the entries are not in used, so
+            // only check that the run is free.
+            SystemDefs.JavabaseDB.allocate_page(pid, MAX_RUN);
+            final int clash = used.nextSetBit(pid.pid);
+            if (pid.pid + MAX_RUN > NUM_PAGES || (clash >= 0 && clash < pid.pid + MAX_RUN)) {
+                status = FAIL;
+                System.err.print("*** A run of " + MAX_RUN + " pages got page " + pid.pid + ", which is not free\n");
+            }
+            SystemDefs.JavabaseDB.deallocate_page(pid, MAX_RUN);
+
+            SystemDefs.JavabaseBM.flushAllPages();
+            SystemDefs.JavabaseDB.closeDB();
+            SystemDefs.JavabaseDB.openDB(dbpath);
+            if (status == OK)
+                status = checkFileEntries(start, "in the off-heap pool");
+
+            for (int inx = 0; inx < FILES; inx++)
+                SystemDefs.JavabaseDB.delete_file_entry("file" + inx);
+            SystemDefs.JavabaseBM.flushAllPages();
+            SystemDefs.JavabaseDB.closeDB();
+        } catch (Exception e) {
+            status = FAIL;
+            System.err.print("*** Could not use the off-heap buffer pool\n");
+            e.printStackTrace();
+        }
+
+        try {
+            SystemDefs.JavabaseBM = heapBM;
+            SystemDefs.JavabaseDB.openDB(dbpath);
+        } catch (Exception e) {
+            status = FAIL;
+            System.err.print("*** Could not reopen the database\n");
+            e.printStackTrace();
+        }
+
+        if (status == OK)
+            System.out.print("  Test 6 completed successfully.\n");
+
+        return status;
+    }
+
+    /**
+     * Checks that get_file_entry finds each file at its start page, or not
+     * at all when the start page is INVALID_PAGE.
+     */
+    private boolean checkFileEntries(int[] start, String when) throws Exception {
+
+        for (int inx = 0; inx < start.length; inx++) {
+            final PageId pid = SystemDefs.JavabaseDB.get_file_entry("file" + inx);
+            final int found = (pid == null) ? INVALID_PAGE : pid.pid;
+            if (found != start[inx]) {
+                System.err.print("*** File file" + inx + " has start page " + found + " " + when + ", expected " + start[inx] + "\n");
+                return FAIL;
+            }
+        }
+        return OK;
+    }
+
+    /**
+     * @return the first page of the first free block of size pages aligned
+     *         to its size, -1 if none is free.
+     */
+    private int freeBlock(int size) {
+
+        for (int start = 0; start + size <= NUM_PAGES; start += size) {
+            final int next = used.nextSetBit(start);
+            if (next < 0 || next >= start + size) {
+                return start;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the first page of the first run of runSize free pages, -1 if
+     *         none fits.
+     */
+    private int firstFit(int runSize) {
+
+        int start = used.nextClearBit(0);
+        while (start + runSize <= NUM_PAGES) {
+            final int end = used.nextSetBit(start);
+            if (end < 0 || end - start >= runSize) {
+                return start;
+            }
+            start = used.nextClearBit(end);
+        }
+        return -1;
+    }
+
+    /**
+     * overrides the testName function in TestDriver
+     * 
+     * @return the name of the test
+     */
+    protected String testName() {
+        return "Disk Space Management";
+    }
+}